@@ -1,15 +1,33 @@
 package com.example.payment.api;
 
-import com.example.payment.jobs.ReconciliationJob;
+import com.example.payment.jobs.AdminJobManager;
 import com.example.payment.persistence.SubscriptionEntity;
 import com.example.payment.persistence.SubscriptionRepository;
+import com.example.payment.persistence.enums.WebhookEventStatus;
+import com.example.payment.service.SubscriptionService;
+import com.example.payment.webhook.WebhookArchive;
+import com.example.payment.webhook.WebhookEventExporter;
+import com.example.payment.webhook.WebhookProcessor;
+import com.example.payment.webhook.WebhookReplayer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.net.URI;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -17,11 +35,21 @@ import java.util.Optional;
 public class AdminController {
 
     private final SubscriptionRepository subscriptionRepository;
-    private final ReconciliationJob reconciliationJob;
+    private final SubscriptionService subscriptionService;
+    private final AdminJobManager adminJobs;
+    private final WebhookProcessor webhookProcessor;
+    private final WebhookEventExporter webhookExporter;
+    private final WebhookReplayer webhookReplayer;
 
-    public AdminController(SubscriptionRepository subscriptionRepository, ReconciliationJob reconciliationJob) {
+    public AdminController(SubscriptionRepository subscriptionRepository, SubscriptionService subscriptionService,
+                           AdminJobManager adminJobs, WebhookProcessor webhookProcessor,
+                           WebhookEventExporter webhookExporter, WebhookReplayer webhookReplayer) {
         this.subscriptionRepository = subscriptionRepository;
-        this.reconciliationJob = reconciliationJob;
+        this.subscriptionService = subscriptionService;
+        this.adminJobs = adminJobs;
+        this.webhookProcessor = webhookProcessor;
+        this.webhookExporter = webhookExporter;
+        this.webhookReplayer = webhookReplayer;
     }
 
     @PostMapping("/subscriptions/{id}/make-due")
@@ -34,9 +62,150 @@ public class AdminController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Closes the cycle of a subscription in BILLING_REVIEW once it was looked up at the gateway (the cycle key is
+     * the charge's externalId): {@code {"charged": true, "transId": "..."}} or {@code {"charged": false}}.
+     */
+    @PostMapping("/subscriptions/{id}/resolve-cycle")
+    public ResponseEntity<?> resolveCycle(@PathVariable String id, @RequestBody Map<String, Object> body) {
+        Object charged = body == null ? null : body.get("charged");
+        if (!(charged instanceof Boolean)) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "charged (true/false) is required"));
+        }
+        Object transId = body.get("transId");
+        try {
+            return ResponseEntity.ok(subscriptionService.resolveCycle(id, (Boolean) charged, transId == null ? null : transId.toString()));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", ex.getMessage()));
+        }
+    }
+
+    /**
+     * Starts a subscription renewal run in the background; poll {@code GET /jobs/{id}} for its progress.
+     */
     @PostMapping("/reconcile")
     public ResponseEntity<?> triggerReconcile() {
-        reconciliationJob.run();
-        return ResponseEntity.ok().build();
+        try {
+            Map<String, Object> job = adminJobs.submitReconcile();
+            return ResponseEntity.accepted().location(URI.create("/api/v1/admin/jobs/" + job.get("id"))).body(job);
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", ex.getMessage()));
+        }
+    }
+
+    /**
+     * Progress of an admin job on this node: processed, failed, remaining and throughput.
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> jobStatus(@PathVariable String id) {
+        Map<String, Object> status = adminJobs.status(id);
+        if (status == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * Cancels a running admin job; a renewal run stops after the chunks it has already claimed.
+     */
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<?> cancelJob(@PathVariable String id) {
+        if (!adminJobs.cancel(id)) {
+            return adminJobs.status(id) == null ? ResponseEntity.notFound().build()
+                    : ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", "job " + id + " has already finished"));
+        }
+        return ResponseEntity.accepted().body(adminJobs.status(id));
+    }
+
+    @GetMapping("/webhooks/stats")
+    public ResponseEntity<?> webhookStats() {
+        return ResponseEntity.ok(webhookProcessor.stats());
+    }
+
+    /**
+     * Bulk replay of dead-lettered webhook events, optionally limited to a receivedAt range (ISO-8601).
+     */
+    @PostMapping("/webhooks/dead-letter/replay")
+    public ResponseEntity<?> replayDeadLetters(@RequestParam(value = "from", required = false) String from,
+                                               @RequestParam(value = "to", required = false) String to) {
+        Instant fromTs;
+        Instant toTs;
+        try {
+            fromTs = from == null ? Instant.EPOCH : Instant.parse(from);
+            toTs = to == null ? Instant.now().plusSeconds(1) : Instant.parse(to);
+        } catch (DateTimeParseException ex) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "from/to must be ISO-8601 instants"));
+        }
+        int requeued = webhookProcessor.replayDeadLetters(fromTs, toTs);
+        return ResponseEntity.ok(Collections.singletonMap("requeued", requeued));
+    }
+
+    /**
+     * A single stored webhook event with its payload, whether still in the database or already archived.
+     */
+    @GetMapping("/webhooks/events/{id}")
+    public ResponseEntity<?> webhookEvent(@PathVariable String id) throws IOException {
+        Optional<String> json;
+        try {
+            json = webhookExporter.find(id);
+        } catch (WebhookArchive.SegmentUnavailableException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", ex.getMessage()));
+        }
+        if (!json.isPresent()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json.get());
+    }
+
+    /**
+     * Streams webhook events received in [from, to) as NDJSON, optionally filtered by status.
+     */
+    @GetMapping("/webhooks/export")
+    public ResponseEntity<?> exportWebhooks(@RequestParam("from") String from,
+                                            @RequestParam(value = "to", required = false) String to,
+                                            @RequestParam(value = "status", required = false) String status) {
+        Instant fromTs;
+        Instant toTs;
+        WebhookEventStatus statusFilter;
+        try {
+            fromTs = Instant.parse(from);
+            toTs = to == null ? Instant.now() : Instant.parse(to);
+            statusFilter = status == null ? null : WebhookEventStatus.valueOf(status.toUpperCase());
+        } catch (DateTimeParseException | IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "invalid from/to/status"));
+        }
+        StreamingResponseBody body = out -> webhookExporter.export(fromTs, toTs, statusFilter, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Re-processes webhook events received in [from, to) at {@code ratePerSecond}; runs in the background.
+     */
+    @PostMapping("/webhooks/replay")
+    public ResponseEntity<?> replayWebhooks(@RequestParam("from") String from,
+                                            @RequestParam(value = "to", required = false) String to,
+                                            @RequestParam(value = "status", required = false) String status,
+                                            @RequestParam(value = "ratePerSecond", defaultValue = "50") double ratePerSecond) {
+        try {
+            Instant fromTs = Instant.parse(from);
+            Instant toTs = to == null ? Instant.now() : Instant.parse(to);
+            WebhookEventStatus statusFilter = status == null ? null : WebhookEventStatus.valueOf(status.toUpperCase());
+            return ResponseEntity.accepted().body(webhookReplayer.start(fromTs, toTs, statusFilter, ratePerSecond));
+        } catch (DateTimeParseException | IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", ex.getMessage()));
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Collections.singletonMap("error", ex.getMessage()));
+        }
+    }
+
+    @GetMapping("/webhooks/replay")
+    public ResponseEntity<?> replayStatus() {
+        Map<String, Object> status = webhookReplayer.status();
+        if (status == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(status);
+    }
+
+    @DeleteMapping("/webhooks/replay")
+    public ResponseEntity<?> cancelReplay() {
+        if (!webhookReplayer.cancel()) return ResponseEntity.notFound().build();
+        return ResponseEntity.accepted().body(webhookReplayer.status());
     }
 }
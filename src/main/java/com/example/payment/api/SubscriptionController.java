@@ -1,13 +1,21 @@
 package com.example.payment.api;
 
+import com.example.payment.api.dto.SubscriptionForecastResponse;
+import com.example.payment.api.dto.SubscriptionImportResponse;
+import com.example.payment.jobs.ReconciliationJob;
 import com.example.payment.persistence.SubscriptionEntity;
+import com.example.payment.service.SubscriptionForecastService;
+import com.example.payment.service.SubscriptionImportService;
 import com.example.payment.service.SubscriptionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Optional;
@@ -18,10 +26,17 @@ import java.util.UUID;
 public class SubscriptionController {
 
     private final SubscriptionService subscriptionService;
+    private final SubscriptionForecastService forecastService;
+    private final SubscriptionImportService importService;
+    private final ReconciliationJob reconciliationJob;
     private static final Logger log = LoggerFactory.getLogger(SubscriptionController.class);
 
-    public SubscriptionController(SubscriptionService subscriptionService) {
+    public SubscriptionController(SubscriptionService subscriptionService, SubscriptionForecastService forecastService,
+                                  SubscriptionImportService importService, ReconciliationJob reconciliationJob) {
         this.subscriptionService = subscriptionService;
+        this.forecastService = forecastService;
+        this.importService = importService;
+        this.reconciliationJob = reconciliationJob;
     }
 
     @PostMapping
@@ -39,22 +54,89 @@ public class SubscriptionController {
         }
     }
 
+    /**
+     * Bulk import from a streamed CSV (text/csv, header row required) or NDJSON (application/x-ndjson) body;
+     * {@code format} overrides the content type. Rejected rows are listed in the response, the rest are imported.
+     */
+    @PostMapping("/import")
+    public ResponseEntity<?> importSubscriptions(HttpServletRequest request,
+                                                 @RequestParam(value = "format", required = false) String format,
+                                                 @RequestHeader(value = "X-Correlation-ID", required = false) String correlationIdHeader) throws IOException {
+        String contentType = request.getContentType() == null ? "" : request.getContentType().toLowerCase();
+        SubscriptionImportService.Format f;
+        if (format != null) {
+            try {
+                f = SubscriptionImportService.Format.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                return ResponseEntity.badRequest().body(java.util.Collections.singletonMap("error", "format must be csv or ndjson"));
+            }
+        } else if (contentType.contains("csv")) {
+            f = SubscriptionImportService.Format.CSV;
+        } else if (contentType.contains("ndjson") || contentType.contains("json")) {
+            f = SubscriptionImportService.Format.NDJSON;
+        } else {
+            return ResponseEntity.status(415).body(java.util.Collections.singletonMap("error", "send text/csv or application/x-ndjson"));
+        }
+        String cid = correlationIdHeader != null ? correlationIdHeader : UUID.randomUUID().toString();
+        MDC.put("correlationId", cid);
+        try {
+            SubscriptionImportResponse report = importService.importSubscriptions(request.getInputStream(), f);
+            return ResponseEntity.ok(report);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(java.util.Collections.singletonMap("error", ex.getMessage()));
+        } finally {
+            MDC.remove("correlationId");
+        }
+    }
+
+    /**
+     * Amount ACTIVE subscriptions will bill over the next {@code days} days, per currency.
+     */
+    @GetMapping("/forecast")
+    public ResponseEntity<?> forecast(@RequestParam(value = "days", defaultValue = "30") int days) {
+        try {
+            SubscriptionForecastResponse forecast = forecastService.forecast(days);
+            return ResponseEntity.ok(forecast);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(java.util.Collections.singletonMap("error", ex.getMessage()));
+        }
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<?> get(@PathVariable String id) {
         Optional<SubscriptionEntity> s = subscriptionService.getSubscription(id);
         return s.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    /**
+     * Charges the current cycle of a subscription now. 409 while a renewal worker holds it (or it is not ACTIVE or
+     * PAST_DUE), 402 when declined, 502 when the gateway left the outcome open (the subscription is then in
+     * BILLING_REVIEW), 503 when the charge could not be started in time.
+     */
     @PostMapping("/{id}/renew")
     public ResponseEntity<?> renew(@PathVariable String id,
                                    @RequestHeader(value = "X-Correlation-ID", required = false) String correlationIdHeader,
-                                   @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+                                   @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) throws InterruptedException {
         String cid = correlationIdHeader != null ? correlationIdHeader : UUID.randomUUID().toString();
         MDC.put("correlationId", cid);
         try {
-            subscriptionService.renewSubscription(id);
-            log.info("Manually renewed subscription {} correlationId={}", id, cid);
-            return ResponseEntity.ok(java.util.Collections.singletonMap("renewedAt", Instant.now().toString()));
+            if (!subscriptionService.getSubscription(id).isPresent()) return ResponseEntity.notFound().build();
+            ReconciliationJob.ManualRenewal outcome = reconciliationJob.renewNow(id);
+            log.info("Manual renewal of subscription {} {} correlationId={}", id, outcome, cid);
+            switch (outcome) {
+                case RENEWED:
+                    return ResponseEntity.ok(java.util.Collections.singletonMap("renewedAt", Instant.now().toString()));
+                case DECLINED:
+                    return ResponseEntity.status(HttpStatus.PAYMENT_REQUIRED).body(java.util.Collections.singletonMap("error", "renewal charge declined"));
+                case IN_REVIEW:
+                    return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(java.util.Collections.singletonMap("error",
+                            "charge outcome unknown, subscription moved to " + SubscriptionService.BILLING_REVIEW));
+                case NOT_CLAIMED:
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(java.util.Collections.singletonMap("error",
+                            "subscription is being renewed or is not ACTIVE/PAST_DUE"));
+                default:
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(java.util.Collections.singletonMap("error", "renewal could not be started, retry later"));
+            }
         } finally {
             MDC.remove("correlationId");
         }
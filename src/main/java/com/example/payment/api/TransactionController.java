@@ -0,0 +1,27 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.GatewayTransactionLookupResponse;
+import com.example.payment.service.TransactionLookupService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/transactions")
+public class TransactionController {
+
+    private final TransactionLookupService lookupService;
+
+    public TransactionController(TransactionLookupService lookupService) {
+        this.lookupService = lookupService;
+    }
+
+    @GetMapping("/by-gateway-id/{transId}")
+    public ResponseEntity<GatewayTransactionLookupResponse> byGatewayId(@PathVariable("transId") String transId) {
+        GatewayTransactionLookupResponse resp = lookupService.findByGatewayTransactionId(transId);
+        if (resp == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(resp);
+    }
+}
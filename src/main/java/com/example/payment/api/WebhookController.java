@@ -1,6 +1,7 @@
 package com.example.payment.api;
 
 import com.example.payment.service.WebhookService;
+import com.example.payment.webhook.WebhookAdmissionControl;
 import com.example.payment.webhook.WebhookSignatureVerifier;
 import org.springframework.core.env.Environment;
 import org.slf4j.MDC;
@@ -14,6 +15,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,16 +26,19 @@ public class WebhookController {
     private final WebhookSignatureVerifier verifier;
     private final WebhookService webhookService;
     private final Environment env;
+    private final WebhookAdmissionControl admissionControl;
 
-    public WebhookController(WebhookSignatureVerifier verifier, WebhookService webhookService, Environment env) {
+    public WebhookController(WebhookSignatureVerifier verifier, WebhookService webhookService, Environment env,
+                             WebhookAdmissionControl admissionControl) {
         this.verifier = verifier;
         this.webhookService = webhookService;
         this.env = env;
+        this.admissionControl = admissionControl;
     }
 
     @PostMapping
     public ResponseEntity<Map<String, Object>> receive(
-            @RequestBody String payload,
+            @RequestBody byte[] rawBody,
             @RequestHeader(value = "X-ANET-Signature", required = false) String signature,
             @RequestHeader(value = "X-Source", required = false) String source,
             @RequestHeader(value = "X-Correlation-ID", required = false) String correlationId
@@ -41,7 +46,12 @@ public class WebhookController {
         if (correlationId == null || correlationId.isEmpty()) correlationId = java.util.UUID.randomUUID().toString();
         MDC.put("correlationId", correlationId);
         try {
-            boolean ok = verifier.verify(payload, signature);
+            // shed load before doing any work; Authorize.Net retries after Retry-After
+            WebhookAdmissionControl.Decision admission = admissionControl.admit();
+            if (!admission.isAccepted()) return tooManyRequests(admission, correlationId);
+            // verify the bytes exactly as received; decoding first could alter what was signed
+            boolean ok = verifier.verify(rawBody, signature);
+            String payload = new String(rawBody, StandardCharsets.UTF_8);
             if (!ok) {
                 org.slf4j.LoggerFactory.getLogger(WebhookController.class).warn("Invalid webhook signature for correlationId={}", correlationId);
                 // Allow unsigned webhooks when running with 'local' profile to make local verification robust
@@ -66,21 +76,31 @@ public class WebhookController {
             } else {
                 org.slf4j.LoggerFactory.getLogger(WebhookController.class).info("Webhook signature verified for correlationId={}", correlationId);
             }
+            // X-Source is only trusted on a signed request; unsigned local ones share the unknown source
+            admission = admissionControl.admitSource(ok ? source : null);
+            if (!admission.isAccepted()) return tooManyRequests(admission, correlationId);
             try {
-                String id = webhookService.handleWebhook(payload, source, signature, correlationId);
+                WebhookService.Receipt receipt = webhookService.handleWebhook(payload, source, signature, correlationId);
+                String id = receipt.getId();
                 HttpHeaders headers = new HttpHeaders();
                 headers.setLocation(URI.create("/api/v1/webhooks/" + id));
                 Map<String,Object> body = new HashMap<>();
                 body.put("id", id);
-                body.put("status", "accepted");
                 body.put("correlationId", correlationId);
-                return new ResponseEntity<>(body, headers, HttpStatus.CREATED);
+                if (receipt.isDuplicate()) {
+                    // already stored; acknowledge so Authorize.Net stops redelivering, but do not process again
+                    body.put("status", "duplicate");
+                    return new ResponseEntity<>(body, headers, HttpStatus.OK);
+                }
+                body.put("status", "accepted");
+                // stored only; processing continues in the background workers
+                return new ResponseEntity<>(body, headers, HttpStatus.ACCEPTED);
             } catch (Exception ex) {
                 org.slf4j.LoggerFactory.getLogger(WebhookController.class).error("Webhook processing failed correlationId={}", correlationId, ex);
                 Map<String,Object> body = new HashMap<>();
                 body.put("timestamp", java.time.Instant.now().toString());
                 body.put("status", HttpStatus.INTERNAL_SERVER_ERROR.value());
-                body.put("error", "Webhook processing failed");
+                body.put("error", "Webhook could not be stored");
                 body.put("correlationId", correlationId);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(body);
             }
@@ -88,4 +108,15 @@ public class WebhookController {
             MDC.remove("correlationId");
         }
     }
+
+    private static ResponseEntity<Map<String, Object>> tooManyRequests(WebhookAdmissionControl.Decision admission, String correlationId) {
+        Map<String,Object> body = new HashMap<>();
+        body.put("timestamp", java.time.Instant.now().toString());
+        body.put("status", HttpStatus.TOO_MANY_REQUESTS.value());
+        body.put("error", "Webhook intake is saturated (" + admission.getReason() + ")");
+        body.put("correlationId", correlationId);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))
+                .body(body);
+    }
 }
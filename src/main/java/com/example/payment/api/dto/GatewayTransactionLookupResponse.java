@@ -0,0 +1,42 @@
+package com.example.payment.api.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class GatewayTransactionLookupResponse {
+    private String gatewayTransactionId;
+    private OrderResponse order;
+    private List<TransactionSummary> transactions;
+
+    public String getGatewayTransactionId() { return gatewayTransactionId; }
+    public void setGatewayTransactionId(String gatewayTransactionId) { this.gatewayTransactionId = gatewayTransactionId; }
+    public OrderResponse getOrder() { return order; }
+    public void setOrder(OrderResponse order) { this.order = order; }
+    public List<TransactionSummary> getTransactions() { return transactions; }
+    public void setTransactions(List<TransactionSummary> transactions) { this.transactions = transactions; }
+
+    public static class TransactionSummary {
+        private String id;
+        private String type;
+        private String status;
+        private Long amountCents;
+        private String currency;
+        private String gatewayMessage;
+        private Instant createdAt;
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getType() { return type; }
+        public void setType(String type) { this.type = type; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public Long getAmountCents() { return amountCents; }
+        public void setAmountCents(Long amountCents) { this.amountCents = amountCents; }
+        public String getCurrency() { return currency; }
+        public void setCurrency(String currency) { this.currency = currency; }
+        public String getGatewayMessage() { return gatewayMessage; }
+        public void setGatewayMessage(String gatewayMessage) { this.gatewayMessage = gatewayMessage; }
+        public Instant getCreatedAt() { return createdAt; }
+        public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.payment.api.dto;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+public class SubscriptionForecastResponse {
+    private int days;
+    private LocalDate from;
+    private LocalDate to;
+    private Instant generatedAt;
+    private List<CurrencyForecast> currencies;
+
+    public int getDays() { return days; }
+    public void setDays(int days) { this.days = days; }
+    /** first day of the forecast */
+    public LocalDate getFrom() { return from; }
+    public void setFrom(LocalDate from) { this.from = from; }
+    /** day after the last day of the forecast */
+    public LocalDate getTo() { return to; }
+    public void setTo(LocalDate to) { this.to = to; }
+    public Instant getGeneratedAt() { return generatedAt; }
+    public void setGeneratedAt(Instant generatedAt) { this.generatedAt = generatedAt; }
+    public List<CurrencyForecast> getCurrencies() { return currencies; }
+    public void setCurrencies(List<CurrencyForecast> currencies) { this.currencies = currencies; }
+
+    public static class CurrencyForecast {
+        private String currency;
+        private long subscriptions;
+        private long renewals;
+        private long amountCents;
+
+        public String getCurrency() { return currency; }
+        public void setCurrency(String currency) { this.currency = currency; }
+        /** ACTIVE subscriptions billed at least once in the window */
+        public long getSubscriptions() { return subscriptions; }
+        public void setSubscriptions(long subscriptions) { this.subscriptions = subscriptions; }
+        /** billing cycles in the window, counting every recurrence */
+        public long getRenewals() { return renewals; }
+        public void setRenewals(long renewals) { this.renewals = renewals; }
+        public long getAmountCents() { return amountCents; }
+        public void setAmountCents(long amountCents) { this.amountCents = amountCents; }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.payment.api.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SubscriptionImportResponse {
+    private String format;
+    private long rows;
+    private long imported;
+    private long rejected;
+    private List<RowError> errors = new ArrayList<>();
+    private boolean errorsTruncated;
+    private long durationMs;
+
+    public String getFormat() { return format; }
+    public void setFormat(String format) { this.format = format; }
+    /** data rows read, header excluded */
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+    public long getImported() { return imported; }
+    public void setImported(long imported) { this.imported = imported; }
+    public long getRejected() { return rejected; }
+    public void setRejected(long rejected) { this.rejected = rejected; }
+    /** the first rejected rows, up to {@code subscription.import.max-reported-errors} */
+    public List<RowError> getErrors() { return errors; }
+    public void setErrors(List<RowError> errors) { this.errors = errors; }
+    public boolean isErrorsTruncated() { return errorsTruncated; }
+    public void setErrorsTruncated(boolean errorsTruncated) { this.errorsTruncated = errorsTruncated; }
+    public long getDurationMs() { return durationMs; }
+    public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
+
+    public static class RowError {
+        private long line;
+        private String id;
+        private String error;
+
+        public RowError() {}
+
+        public RowError(long line, String id, String error) {
+            this.line = line;
+            this.id = id;
+            this.error = error;
+        }
+
+        public long getLine() { return line; }
+        public void setLine(long line) { this.line = line; }
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.payment.cluster;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the annotated method only on the instance holding the job lease {@link #value()}; on every other instance
+ * the call returns immediately (null for non-void methods). Meant for {@code @Scheduled} sweepers that would
+ * otherwise run on every node. See {@link JobLeaseManager}.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ClusterSingleton {
+
+    /** lease name; methods sharing a name share one leader */
+    String value();
+}
@@ -0,0 +1,71 @@
+package com.example.payment.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies {@link ClusterSingleton}: proceeds only while this instance holds the lease, and only one invocation
+ * per lease at a time within the instance. After a run it checks the lease's fencing token; a change means another
+ * instance ran the job at the same time, which is counted as {@code cluster.job.overlap}.
+ */
+@Aspect
+@Component
+public class ClusterSingletonAspect {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterSingletonAspect.class);
+
+    private final JobLeaseManager leases;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+
+    public ClusterSingletonAspect(JobLeaseManager leases, MeterRegistry meterRegistry) {
+        this.leases = leases;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("@annotation(singleton)")
+    public Object around(ProceedingJoinPoint pjp, ClusterSingleton singleton) throws Throwable {
+        String name = singleton.value();
+        if (!leases.tryAcquire(name)) {
+            count("cluster.job.runs", name, "not_leader");
+            return null;
+        }
+        AtomicBoolean busy = running.computeIfAbsent(name, k -> new AtomicBoolean());
+        if (!busy.compareAndSet(false, true)) {
+            count("cluster.job.runs", name, "already_running");
+            return null;
+        }
+        long token = leases.token(name);
+        try {
+            count("cluster.job.runs", name, "ran");
+            return pjp.proceed();
+        } finally {
+            busy.set(false);
+            try {
+                if (!leases.stillHolds(name, token)) {
+                    count("cluster.job.overlap", name, null);
+                    log.warn("job {} ({}) lost its lease while running; another instance may have run it too",
+                            name, pjp.getSignature().toShortString());
+                }
+            } catch (Exception ex) {
+                log.debug("could not verify job lease {} after run: {}", name, ex.toString());
+            }
+        }
+    }
+
+    private void count(String metric, String job, String result) {
+        try {
+            if (result == null) meterRegistry.counter(metric, "job", job).increment();
+            else meterRegistry.counter(metric, "job", job, "result", result).increment();
+        } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.payment.cluster;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leader election per job through leases in {@code job_leases}. A lease is taken with one conditional update
+ * (free, expired, or already ours, and unchanged since we read it) and kept alive by a heartbeat every
+ * {@code cluster.lease.heartbeat-ms}; it expires {@code cluster.lease.ttl-ms} after the last heartbeat, so a dead
+ * holder is replaced within one TTL. Leases are given up on shutdown so a restart hands off right away.
+ *
+ * Every change of owner increments the lease's fencing token; {@link #stillHolds} compares it to detect a run
+ * that overlapped with another holder (e.g. after a long GC pause).
+ */
+@Component
+public class JobLeaseManager {
+
+    private static final Logger log = LoggerFactory.getLogger(JobLeaseManager.class);
+
+    private static final String SELECT_SQL = "SELECT owner, lease_until, fencing_token FROM job_leases WHERE name = ?";
+    private static final String INSERT_SQL = "INSERT INTO job_leases (name, owner, lease_until, fencing_token, acquired_at, heartbeat_at) "
+            + "VALUES (?, ?, ?, 1, ?, ?)";
+    private static final String TAKE_SQL = "UPDATE job_leases SET owner = ?, lease_until = ?, fencing_token = fencing_token + 1, "
+            + "acquired_at = ?, heartbeat_at = ? WHERE name = ? AND fencing_token = ? AND (lease_until < ? OR owner = ?)";
+    private static final String RENEW_SQL = "UPDATE job_leases SET lease_until = ?, heartbeat_at = ? WHERE name = ? AND owner = ? "
+            + "AND fencing_token = ?";
+    private static final String RELEASE_SQL = "UPDATE job_leases SET lease_until = ? WHERE name = ? AND owner = ? AND fencing_token = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final long ttlMillis;
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    /** leases this node holds: name -> fencing token and local expiry */
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+
+    public JobLeaseManager(JdbcTemplate jdbcTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${cluster.lease.ttl-ms:30000}") long ttlMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.ttlMillis = ttlMillis;
+        log.info("job leases owned as {}", nodeId);
+    }
+
+    /**
+     * True if this node holds lease {@code name}, taking it first if it is free or expired.
+     */
+    public boolean tryAcquire(String name) {
+        Held h = held.get(name);
+        if (h != null && h.validUntil > System.currentTimeMillis()) return true;
+        try {
+            return take(name);
+        } catch (Exception ex) {
+            log.warn("could not acquire job lease {}: {}", name, ex.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Fencing token of the lease as held now, or -1 if this node does not hold it.
+     */
+    public long token(String name) {
+        Held h = held.get(name);
+        return h == null ? -1 : h.token;
+    }
+
+    /**
+     * True if this node still holds {@code name} under {@code token}, according to the database.
+     */
+    public boolean stillHolds(String name, long token) {
+        List<Object[]> rows = jdbcTemplate.query(SELECT_SQL, (rs, n) -> new Object[]{rs.getString(1), rs.getLong(3)}, name);
+        return !rows.isEmpty() && nodeId.equals(rows.get(0)[0]) && (Long) rows.get(0)[1] == token;
+    }
+
+    private boolean take(String name) {
+        Instant now = Instant.now();
+        Timestamp ts = Timestamp.from(now);
+        Timestamp until = Timestamp.from(now.plusMillis(ttlMillis));
+        List<Object[]> rows = jdbcTemplate.query(SELECT_SQL,
+                (rs, n) -> new Object[]{rs.getString(1), rs.getTimestamp(2), rs.getLong(3)}, name);
+        if (rows.isEmpty()) {
+            try {
+                jdbcTemplate.update(INSERT_SQL, name, nodeId, until, ts, ts);
+            } catch (DuplicateKeyException raced) {
+                return false;
+            }
+            acquired(name, null, 1, now);
+            return true;
+        }
+        String previousOwner = (String) rows.get(0)[0];
+        Timestamp leaseUntil = (Timestamp) rows.get(0)[1];
+        long token = (Long) rows.get(0)[2];
+        if (!nodeId.equals(previousOwner) && leaseUntil.after(ts)) return false;
+        if (jdbcTemplate.update(TAKE_SQL, nodeId, until, ts, ts, name, token, ts, nodeId) != 1) return false;
+        acquired(name, previousOwner, token + 1, now);
+        return true;
+    }
+
+    private void acquired(String name, String previousOwner, long token, Instant now) {
+        held.put(name, new Held(token, now.toEpochMilli() + ttlMillis));
+        count("cluster.lease.acquired", name);
+        if (previousOwner != null && !nodeId.equals(previousOwner)) {
+            count("cluster.lease.handoffs", name);
+            log.info("job lease {} taken over from {} (token {})", name, previousOwner, token);
+        } else {
+            log.info("job lease {} acquired (token {})", name, token);
+        }
+        Gauge.builder("cluster.lease.held", held, m -> m.containsKey(name) ? 1 : 0).tag("job", name)
+                .description("1 while this instance holds the job lease").register(meterRegistry);
+    }
+
+    /**
+     * Extends every lease this node holds; a lease that cannot be extended was lost to another node.
+     */
+    @Scheduled(fixedRateString = "${cluster.lease.heartbeat-ms:10000}")
+    public void heartbeat() {
+        for (Map.Entry<String, Held> e : held.entrySet()) {
+            String name = e.getKey();
+            Held h = e.getValue();
+            Instant now = Instant.now();
+            try {
+                int n = jdbcTemplate.update(RENEW_SQL, Timestamp.from(now.plusMillis(ttlMillis)), Timestamp.from(now), name, nodeId, h.token);
+                if (n == 1) {
+                    h.validUntil = now.toEpochMilli() + ttlMillis;
+                } else {
+                    held.remove(name, h);
+                    count("cluster.lease.lost", name);
+                    log.warn("job lease {} was lost (token {})", name, h.token);
+                }
+            } catch (Exception ex) {
+                // keep the lease locally until it would have expired; the next heartbeat tries again
+                log.warn("could not renew job lease {}: {}", name, ex.toString());
+                if (h.validUntil <= System.currentTimeMillis()) held.remove(name, h);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        Timestamp now = Timestamp.from(Instant.now());
+        for (Map.Entry<String, Held> e : held.entrySet()) {
+            try {
+                jdbcTemplate.update(RELEASE_SQL, now, e.getKey(), nodeId, e.getValue().token);
+            } catch (Exception ex) {
+                log.debug("could not release job lease {}: {}", e.getKey(), ex.toString());
+            }
+        }
+        held.clear();
+    }
+
+    private void count(String metric, String name) {
+        try {
+            meterRegistry.counter(metric, "job", name).increment();
+        } catch (Exception ignore) {}
+    }
+
+    private static final class Held {
+        final long token;
+        volatile long validUntil;
+
+        Held(long token, long validUntil) {
+            this.token = token;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.payment.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Replaces Boot's single pool with a primary and a replica pool when {@code datasource.replica.enabled} is set.
+ * The primary pool keeps its spring.datasource.* / spring.datasource.hikari.* settings; the replica is configured
+ * under {@code datasource.replica.*}. Both pools are named (primary / replica) so the hikaricp.* metrics are
+ * tagged per route.
+ *
+ * Only transactions declared read-only go to the replica; writes, untransactional JDBC and Flyway use the primary.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaDataSourceConfig.class);
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource ds = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        ds.setPoolName("primary");
+        return ds;
+    }
+
+    @Bean
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${datasource.replica.url}") String url,
+                                              @Value("${datasource.replica.username:}") String username,
+                                              @Value("${datasource.replica.password:}") String password,
+                                              @Value("${datasource.replica.pool-size:10}") int poolSize) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("replica");
+        ds.setJdbcUrl(url);
+        // same credentials and driver as the primary unless the replica has its own
+        ds.setUsername(username.isEmpty() ? properties.determineUsername() : username);
+        ds.setPassword(username.isEmpty() ? properties.determinePassword() : password);
+        ds.setDriverClassName(properties.determineDriverClassName());
+        ds.setMaximumPoolSize(poolSize);
+        ds.setReadOnly(true);
+        log.info("read-only transactions are routed to replica {}", url);
+        return ds;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                 @Qualifier("replicaDataSource") HikariDataSource replicaDataSource,
+                                 MeterRegistry meterRegistry) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, meterRegistry);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @Bean
+    public ReplicaStalenessGuard replicaStalenessGuard(@Value("${datasource.replica.read-your-writes-ms:2000}") long windowMs,
+                                                       @Value("${datasource.replica.tracked-clients:10000}") int trackedClients,
+                                                       MeterRegistry meterRegistry) {
+        return new ReplicaStalenessGuard(windowMs, trackedClients, meterRegistry);
+    }
+}
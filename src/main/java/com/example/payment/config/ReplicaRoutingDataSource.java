@@ -0,0 +1,61 @@
+package com.example.payment.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends connections for read-only transactions ({@code @Transactional(readOnly = true)}) to the replica pool and
+ * everything else to the primary. A thread can pin itself to the primary with {@link #pinPrimary}, which
+ * {@link ReplicaStalenessGuard} does for clients that wrote moments ago and may not see their write on the replica yet.
+ *
+ * Must sit behind a {@code LazyConnectionDataSourceProxy}: the transaction manager asks for a connection before
+ * the read-only flag of the new transaction is visible here, the proxy defers that until the first statement.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route { PRIMARY, REPLICA }
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private final Counter primaryRoutes;
+    private final Counter replicaRoutes;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, MeterRegistry meterRegistry) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Route.PRIMARY, primary);
+        targets.put(Route.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.primaryRoutes = Counter.builder("datasource.route").tag("route", "primary")
+                .description("Connections handed out per route").register(meterRegistry);
+        this.replicaRoutes = Counter.builder("datasource.route").tag("route", "replica")
+                .description("Connections handed out per route").register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !Boolean.TRUE.equals(PINNED.get())) {
+            replicaRoutes.increment();
+            return Route.REPLICA;
+        }
+        primaryRoutes.increment();
+        return Route.PRIMARY;
+    }
+
+    /**
+     * Routes read-only transactions started on this thread to the primary until {@link #unpin()}.
+     */
+    public static void pinPrimary() {
+        PINNED.set(Boolean.TRUE);
+    }
+
+    public static void unpin() {
+        PINNED.remove();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.payment.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-your-writes on top of {@link ReplicaRoutingDataSource}: a client that sent a write (POST/PUT/PATCH/DELETE)
+ * in the last {@code datasource.replica.read-your-writes-ms} has its reads served by the primary, so it never
+ * reads back an older state than the one it just created. Reads inside a write request always use the primary.
+ *
+ * Clients are told apart by X-Client-Id, else the authenticated principal, else the remote address. The last
+ * write times are kept per node, in an LRU map of {@code datasource.replica.tracked-clients} entries.
+ */
+public class ReplicaStalenessGuard extends OncePerRequestFilter {
+
+    static final String CLIENT_HEADER = "X-Client-Id";
+
+    private final long windowMillis;
+    private final Map<String, Long> lastWrites;
+    private final MeterRegistry meterRegistry;
+
+    public ReplicaStalenessGuard(long windowMillis, int trackedClients, MeterRegistry meterRegistry) {
+        this.windowMillis = windowMillis;
+        this.meterRegistry = meterRegistry;
+        this.lastWrites = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > trackedClients;
+            }
+        };
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String client = client(request);
+        boolean write = isWrite(request.getMethod());
+        boolean pin = write || wroteRecently(client);
+        if (pin) {
+            ReplicaRoutingDataSource.pinPrimary();
+            if (!write) count();
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (pin) ReplicaRoutingDataSource.unpin();
+            if (write && windowMillis > 0) {
+                synchronized (lastWrites) {
+                    lastWrites.put(client, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    private boolean wroteRecently(String client) {
+        if (windowMillis <= 0) return false;
+        Long at;
+        synchronized (lastWrites) {
+            at = lastWrites.get(client);
+        }
+        return at != null && System.currentTimeMillis() - at < windowMillis;
+    }
+
+    private static String client(HttpServletRequest request) {
+        String id = request.getHeader(CLIENT_HEADER);
+        if (id != null && !id.isEmpty()) return "h:" + id;
+        Principal principal = request.getUserPrincipal();
+        if (principal != null && principal.getName() != null) return "p:" + principal.getName();
+        return "a:" + request.getRemoteAddr();
+    }
+
+    private static boolean isWrite(String method) {
+        return "POST".equalsIgnoreCase(method) || "PUT".equalsIgnoreCase(method)
+                || "PATCH".equalsIgnoreCase(method) || "DELETE".equalsIgnoreCase(method);
+    }
+
+    private void count() {
+        try {
+            meterRegistry.counter("datasource.replica.read_your_writes").increment();
+        } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.payment.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Runs {@code @Scheduled} methods on a pool of {@code scheduling.pool-size} threads instead of Spring's single
+ * scheduler thread, so a long renewal run or archive pass does not hold up the lease heartbeat, the webhook
+ * sweeper and the other periodic tasks. A task still never overlaps itself (fixed delay); overlap with manual
+ * triggers is handled per job by {@code JobGuard}.
+ */
+@Configuration
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(SchedulingConfig.class);
+
+    private final MeterRegistry meterRegistry;
+    private final int poolSize;
+
+    public SchedulingConfig(MeterRegistry meterRegistry, @Value("${scheduling.pool-size:4}") int poolSize) {
+        this.meterRegistry = meterRegistry;
+        this.poolSize = poolSize;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(Math.max(1, poolSize));
+        scheduler.setThreadNamePrefix("scheduled-");
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setErrorHandler(t -> log.error("scheduled task failed", t));
+        // renewal runs are checkpointed and resumed, so shutdown does not wait for them
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        scheduler.initialize();
+        Gauge.builder("scheduled.pool.active", scheduler, ThreadPoolTaskScheduler::getActiveCount)
+                .description("Scheduler threads running a task").register(meterRegistry);
+        Gauge.builder("scheduled.pool.queued", scheduler, s -> s.getScheduledThreadPoolExecutor().getQueue().size())
+                .description("Scheduled tasks waiting for their next run or a free thread").register(meterRegistry);
+        return scheduler;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(taskScheduler());
+    }
+}
@@ -5,13 +5,15 @@ import java.time.Instant;
 public class SubscriptionChargedEvent {
     private final String subscriptionId;
     private final Long amountCents;
+    private final Instant nextBillingAt;
     private final String correlationId;
     private final Instant timestamp;
     private final String eventSchemaVersion;
 
-    public SubscriptionChargedEvent(String subscriptionId, Long amountCents, String correlationId, Instant timestamp, String eventSchemaVersion) {
+    public SubscriptionChargedEvent(String subscriptionId, Long amountCents, Instant nextBillingAt, String correlationId, Instant timestamp, String eventSchemaVersion) {
         this.subscriptionId = subscriptionId;
         this.amountCents = amountCents;
+        this.nextBillingAt = nextBillingAt;
         this.correlationId = correlationId;
         this.timestamp = timestamp;
         this.eventSchemaVersion = eventSchemaVersion;
@@ -19,6 +21,8 @@ public class SubscriptionChargedEvent {
 
     public String getSubscriptionId() { return subscriptionId; }
     public Long getAmountCents() { return amountCents; }
+    /** when the subscription is due next, after this charge */
+    public Instant getNextBillingAt() { return nextBillingAt; }
     public String getCorrelationId() { return correlationId; }
     public Instant getTimestamp() { return timestamp; }
     public String getEventSchemaVersion() { return eventSchemaVersion; }
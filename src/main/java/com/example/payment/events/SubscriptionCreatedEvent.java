@@ -0,0 +1,25 @@
+package com.example.payment.events;
+
+import java.time.Instant;
+
+public class SubscriptionCreatedEvent {
+    private final String subscriptionId;
+    private final Instant nextBillingAt;
+    private final String correlationId;
+    private final Instant timestamp;
+    private final String eventSchemaVersion;
+
+    public SubscriptionCreatedEvent(String subscriptionId, Instant nextBillingAt, String correlationId, Instant timestamp, String eventSchemaVersion) {
+        this.subscriptionId = subscriptionId;
+        this.nextBillingAt = nextBillingAt;
+        this.correlationId = correlationId;
+        this.timestamp = timestamp;
+        this.eventSchemaVersion = eventSchemaVersion;
+    }
+
+    public String getSubscriptionId() { return subscriptionId; }
+    public Instant getNextBillingAt() { return nextBillingAt; }
+    public String getCorrelationId() { return correlationId; }
+    public Instant getTimestamp() { return timestamp; }
+    public String getEventSchemaVersion() { return eventSchemaVersion; }
+}
@@ -1,6 +1,9 @@
 package com.example.payment.events;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class WebhookReceivedEvent {
     private final String webhookId;
@@ -9,6 +12,7 @@ public class WebhookReceivedEvent {
     private final String correlationId;
     private final Instant timestamp;
     private final String eventSchemaVersion;
+    private final List<CompletableFuture<?>> pending = new CopyOnWriteArrayList<>();
 
     public WebhookReceivedEvent(String webhookId, String source, String payload, String correlationId, Instant timestamp, String eventSchemaVersion) {
         this.webhookId = webhookId;
@@ -25,4 +29,11 @@ public class WebhookReceivedEvent {
     public String getCorrelationId() { return correlationId; }
     public Instant getTimestamp() { return timestamp; }
     public String getEventSchemaVersion() { return eventSchemaVersion; }
+
+    /**
+     * For listeners that finish asynchronously: the stored event is marked PROCESSED (or FAILED) once
+     * {@code completion} completes instead of when the listener returns.
+     */
+    public void completeLater(CompletableFuture<?> completion) { pending.add(completion); }
+    public List<CompletableFuture<?>> getPending() { return pending; }
 }
@@ -1,7 +1,7 @@
 package com.example.payment.idempotency;
 
 import com.example.payment.persistence.IdempotencyKeyEntity;
-import com.example.payment.persistence.IdempotencyKeyRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -11,18 +11,21 @@ import java.util.Optional;
 @Service
 public class IdempotencyService {
 
-    private final IdempotencyKeyRepository repository;
+    private final IdempotencyStore store;
+    private final long inProgressTimeoutMs;
 
-    public IdempotencyService(IdempotencyKeyRepository repository) {
-        this.repository = repository;
+    public IdempotencyService(IdempotencyStore store,
+                              @Value("${idempotency.in-progress-timeout-ms:60000}") long inProgressTimeoutMs) {
+        this.store = store;
+        this.inProgressTimeoutMs = inProgressTimeoutMs;
     }
 
     public Optional<IdempotencyKeyEntity> find(String key) {
-        return repository.findById(key);
+        return store.find(key);
     }
 
     public static class ClaimResult {
-        public enum Type { NEW, REPLAY, CONFLICT }
+        public enum Type { NEW, REPLAY, CONFLICT, IN_PROGRESS }
         private final Type type;
         private final IdempotencyKeyEntity entity;
 
@@ -39,70 +42,73 @@ public class IdempotencyService {
         public IdempotencyConflictException(String message) { super(message); }
     }
 
-    @Transactional
     public IdempotencyKeyEntity createIfAbsent(String key, String requestHash) {
-        Optional<IdempotencyKeyEntity> existing = repository.findById(key);
-        if (existing.isPresent()) return existing.get();
-
-        IdempotencyKeyEntity ent = new IdempotencyKeyEntity();
-        ent.setKey(key);
-        ent.setRequestHash(requestHash);
-        ent.setCreatedAt(Instant.now());
-        ent.setResponseBody(null);
-        return repository.save(ent);
+        IdempotencyKeyEntity ent = newClaim(key, requestHash);
+        return store.putIfAbsent(ent).orElse(ent);
     }
 
     /**
      * Claim an idempotency key for processing or return an existing snapshot/conflict.
-     * - NEW: key claimed (created or existing without response and matching hash)
+     * - NEW: key claimed by this call, or taken over from an earlier attempt that stored no response within
+     *   {@code idempotency.in-progress-timeout-ms} (it most likely died)
      * - REPLAY: existing response snapshot available (matching hash)
      * - CONFLICT: existing request hash differs -> conflict
+     * - IN_PROGRESS: another request with this key is still being processed
+     * The key is inserted with {@link IdempotencyStore#putIfAbsent} and a stale one taken over with
+     * {@link IdempotencyStore#replaceIf}, so of two concurrent requests only one gets NEW.
      */
-    @Transactional
     public ClaimResult claim(String key, String requestHash) {
-        Optional<IdempotencyKeyEntity> existing = repository.findById(key);
-        if (existing.isPresent()) {
-            IdempotencyKeyEntity e = existing.get();
-            // If we already have a saved response snapshot, return REPLAY first
-            // (this ensures repeated requests with the same key return the same
-            // response even if minor hash differences occur due to whitespace/encoding)
-            if (e.getResponseBody() != null) {
-                return new ClaimResult(ClaimResult.Type.REPLAY, e);
-            }
-            String storedHash = e.getRequestHash();
-            if (storedHash != null && !storedHash.equals(requestHash)) {
-                return new ClaimResult(ClaimResult.Type.CONFLICT, e);
-            }
-            // existing claim but no response yet -> allow processing (NEW)
-            return new ClaimResult(ClaimResult.Type.NEW, e);
+        IdempotencyKeyEntity ent = newClaim(key, requestHash);
+        Optional<IdempotencyKeyEntity> existing = store.putIfAbsent(ent);
+        if (!existing.isPresent()) return new ClaimResult(ClaimResult.Type.NEW, ent);
+
+        IdempotencyKeyEntity e = existing.get();
+        // If we already have a saved response snapshot, return REPLAY first
+        // (this ensures repeated requests with the same key return the same
+        // response even if minor hash differences occur due to whitespace/encoding)
+        if (e.getResponseBody() != null) {
+            return new ClaimResult(ClaimResult.Type.REPLAY, e);
+        }
+        String storedHash = e.getRequestHash();
+        if (storedHash != null && !storedHash.equals(requestHash)) {
+            return new ClaimResult(ClaimResult.Type.CONFLICT, e);
+        }
+        Instant staleBefore = Instant.now().minusMillis(inProgressTimeoutMs);
+        if (e.getCreatedAt() != null && e.getCreatedAt().isAfter(staleBefore)) {
+            return new ClaimResult(ClaimResult.Type.IN_PROGRESS, e);
+        }
+        if (!store.replaceIf(key, e.getCreatedAt(), ent)) {
+            return new ClaimResult(ClaimResult.Type.IN_PROGRESS, store.find(key).orElse(e));
         }
+        return new ClaimResult(ClaimResult.Type.NEW, ent);
+    }
 
+    private static IdempotencyKeyEntity newClaim(String key, String requestHash) {
         IdempotencyKeyEntity ent = new IdempotencyKeyEntity();
         ent.setKey(key);
         ent.setRequestHash(requestHash);
         ent.setCreatedAt(Instant.now());
         ent.setResponseBody(null);
-        repository.save(ent);
-        return new ClaimResult(ClaimResult.Type.NEW, ent);
+        return ent;
     }
 
     @Transactional
     public void saveResponse(String key, String responseBody) {
-        repository.findById(key).ifPresent(e -> {
+        store.find(key).ifPresent(e -> {
             e.setResponseBody(responseBody);
-            repository.save(e);
+            store.save(e);
         });
     }
 
     @Transactional
     public void saveResponse(String key, int responseStatus, String responseHeadersJson, String responseBody) {
-        repository.findById(key).ifPresent(e -> {
+        store.find(key).ifPresent(e -> {
             e.setResponseStatus(responseStatus);
             e.setResponseHeaders(responseHeadersJson);
             e.setResponseBody(responseBody);
             e.setConsumedAt(Instant.now());
             e.setStatus("COMPLETED");
-            repository.save(e);
+            store.save(e);
         });
     }
 
@@ -0,0 +1,34 @@
+package com.example.payment.idempotency;
+
+import com.example.payment.persistence.IdempotencyKeyEntity;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Storage SPI behind {@link IdempotencyService}.
+ * Backends are selected with {@code idempotency.store} ({@code jpa} by default, {@code mapped} for
+ * single-node deployments that should not pay a DB round trip per write request).
+ */
+public interface IdempotencyStore {
+
+    Optional<IdempotencyKeyEntity> find(String key);
+
+    /**
+     * Insert or replace the snapshot stored under {@link IdempotencyKeyEntity#getKey()}.
+     */
+    IdempotencyKeyEntity save(IdempotencyKeyEntity entity);
+
+    /**
+     * Atomically store a new snapshot unless one already exists under its key. Returns the existing snapshot,
+     * or empty if this call stored {@code entity}; of concurrent calls for one key exactly one gets empty.
+     */
+    Optional<IdempotencyKeyEntity> putIfAbsent(IdempotencyKeyEntity entity);
+
+    /**
+     * Atomically replace the snapshot stored under {@code key} with {@code entity} if it still has
+     * {@code expectedCreatedAt}. Returns false if it was replaced or removed in the meantime; of concurrent
+     * calls with the same expectation at most one returns true.
+     */
+    boolean replaceIf(String key, Instant expectedCreatedAt, IdempotencyKeyEntity entity);
+}
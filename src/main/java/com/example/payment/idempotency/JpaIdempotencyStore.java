@@ -0,0 +1,81 @@
+package com.example.payment.idempotency;
+
+import com.example.payment.persistence.IdempotencyKeyEntity;
+import com.example.payment.persistence.IdempotencyKeyRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Default backend: idempotency snapshots live in the {@code idempotency_keys} table.
+ */
+@Component
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaIdempotencyStore implements IdempotencyStore {
+
+    private final IdempotencyKeyRepository repository;
+    private final TransactionTemplate insertTemplate;
+
+    public JpaIdempotencyStore(IdempotencyKeyRepository repository, PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.insertTemplate = new TransactionTemplate(transactionManager);
+        this.insertTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public Optional<IdempotencyKeyEntity> find(String key) {
+        return repository.findById(key);
+    }
+
+    @Override
+    public IdempotencyKeyEntity save(IdempotencyKeyEntity entity) {
+        return repository.save(entity);
+    }
+
+    /**
+     * Inserts in a transaction of its own (a null version makes {@code save} a persist, never a merge), so a
+     * concurrent insert of the same key fails on the primary key instead of being overwritten, and the failed
+     * statement does not poison a surrounding transaction.
+     */
+    @Override
+    public Optional<IdempotencyKeyEntity> putIfAbsent(IdempotencyKeyEntity entity) {
+        Optional<IdempotencyKeyEntity> existing = repository.findById(entity.getKey());
+        if (existing.isPresent()) return existing;
+        entity.setVersion(null);
+        try {
+            insertTemplate.execute(status -> repository.save(entity));
+            return Optional.empty();
+        } catch (DataIntegrityViolationException ex) {
+            return Optional.of(repository.findById(entity.getKey()).orElseThrow(() -> ex));
+        }
+    }
+
+    /**
+     * Versioned update in a transaction of its own: the row is written with the version it was read with, so a
+     * concurrent replace that got there first makes this one fail the version check instead of overwriting it.
+     */
+    @Override
+    public boolean replaceIf(String key, Instant expectedCreatedAt, IdempotencyKeyEntity entity) {
+        if (key == null || !key.equals(entity.getKey())) throw new IllegalArgumentException("idempotency key mismatch");
+        try {
+            Boolean replaced = insertTemplate.execute(status -> {
+                IdempotencyKeyEntity current = repository.findById(key).orElse(null);
+                if (current == null || !Objects.equals(current.getCreatedAt(), expectedCreatedAt)) return false;
+                entity.setVersion(current.getVersion());
+                repository.save(entity);
+                return true;
+            });
+            return Boolean.TRUE.equals(replaced);
+        } catch (ObjectOptimisticLockingFailureException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.payment.idempotency;
+
+import com.example.payment.persistence.IdempotencyKeyEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded idempotency backend for single-node deployments: an append-only log in a memory-mapped file
+ * plus an off-heap hash index from key to the latest record. The index is rebuilt by scanning the log on
+ * startup, so snapshots survive restarts without a DB round trip per write request.
+ *
+ * Log layout: a 16-byte header (magic, generation) followed by records of
+ * {@code [int bodyLength][int crc32][body]}. A zero length marks the end of the log; the length is written
+ * last so a torn append is ignored on recovery. Compaction copies live, unexpired records into the next
+ * generation file ({@code <path>.<generation>}) and switches over once it is fully written.
+ */
+@Component
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "mapped")
+public class MappedIdempotencyStore implements IdempotencyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedIdempotencyStore.class);
+
+    private static final int MAGIC = 0x49444D31; // "IDM1"
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    // createdAt, consumedAt, expiresAt, version (longs) + responseStatus (int)
+    private static final int FIXED_BODY_BYTES = 8 * 4 + 4;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    private final Path basePath;
+    private final long initialCapacityBytes;
+    private final long retentionMillis;
+    private final boolean syncWrites;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long generation;
+    private int writePos;
+    private long liveBytes;
+    private OffHeapKeyIndex index;
+
+    public MappedIdempotencyStore(@Value("${idempotency.mapped.path:data/idempotency/idempotency.log}") String path,
+                                  @Value("${idempotency.mapped.capacity-mb:64}") long capacityMb,
+                                  @Value("${idempotency.mapped.retention-hours:24}") long retentionHours,
+                                  @Value("${idempotency.mapped.sync-writes:false}") boolean syncWrites) {
+        this.basePath = Paths.get(path).toAbsolutePath();
+        this.initialCapacityBytes = Math.min(MAX_MAPPED_BYTES, Math.max(1, capacityMb) * 1024L * 1024L);
+        this.retentionMillis = retentionHours * 3600_000L;
+        this.syncWrites = syncWrites;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (basePath.getParent() != null) Files.createDirectories(basePath.getParent());
+            long latest = findLatestGeneration();
+            if (latest < 0) {
+                generation = 0;
+                map(generationPath(0), initialCapacityBytes, true);
+            } else {
+                generation = latest;
+                Path p = generationPath(latest);
+                map(p, Math.max(initialCapacityBytes, Files.size(p)), false);
+            }
+            recover();
+            deleteStaleGenerations();
+            log.info("Mapped idempotency store opened file={} keys={} usedBytes={} capacityBytes={}",
+                    generationPath(generation), index.size(), writePos, buffer.capacity());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (buffer != null) buffer.force();
+            if (channel != null) channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<IdempotencyKeyEntity> find(String key) {
+        lock.readLock().lock();
+        try {
+            long offset = index.get(key, this::keyMatches);
+            if (offset < 0) return Optional.empty();
+            return Optional.of(readRecord((int) offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public IdempotencyKeyEntity save(IdempotencyKeyEntity entity) {
+        if (entity.getKey() == null) throw new IllegalArgumentException("idempotency key is required");
+        byte[] body = encode(entity);
+        lock.writeLock().lock();
+        try {
+            appendLocked(entity.getKey(), body);
+            return entity;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<IdempotencyKeyEntity> putIfAbsent(IdempotencyKeyEntity entity) {
+        if (entity.getKey() == null) throw new IllegalArgumentException("idempotency key is required");
+        byte[] body = encode(entity);
+        lock.writeLock().lock();
+        try {
+            long existing = index.get(entity.getKey(), this::keyMatches);
+            if (existing >= 0) return Optional.of(readRecord((int) existing));
+            appendLocked(entity.getKey(), body);
+            return Optional.empty();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replaceIf(String key, Instant expectedCreatedAt, IdempotencyKeyEntity entity) {
+        if (key == null || !key.equals(entity.getKey())) throw new IllegalArgumentException("idempotency key mismatch");
+        byte[] body = encode(entity);
+        lock.writeLock().lock();
+        try {
+            long existing = index.get(key, this::keyMatches);
+            if (existing < 0 || !Objects.equals(readRecord((int) existing).getCreatedAt(), expectedCreatedAt)) return false;
+            appendLocked(key, body);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void appendLocked(String key, byte[] body) {
+        try {
+            int recordBytes = RECORD_HEADER_BYTES + body.length;
+            if ((long) writePos + recordBytes + 4 > buffer.capacity()) {
+                compactLocked();
+                if ((long) writePos + recordBytes + 4 > buffer.capacity()) {
+                    grow((long) writePos + recordBytes + 4);
+                }
+            }
+            long previous = index.get(key, this::keyMatches);
+            append(body);
+            if (previous >= 0) liveBytes -= recordBytesAt((int) previous);
+            index.put(key, writePos, this::keyMatches);
+            liveBytes += recordBytes;
+            writePos += recordBytes;
+            if (syncWrites) buffer.force();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to append idempotency record", ex);
+        }
+    }
+
+    /**
+     * Periodically rewrites the log without superseded and expired records.
+     */
+    @Scheduled(fixedDelayString = "${idempotency.mapped.compaction-interval-ms:300000}")
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            long used = writePos - HEADER_BYTES;
+            if (used == 0) return;
+            compactLocked();
+        } catch (IOException ex) {
+            log.error("Idempotency log compaction failed file={}", generationPath(generation), ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        long started = System.nanoTime();
+        int before = writePos;
+        long cutoff = Instant.now().toEpochMilli() - retentionMillis;
+        long nextGeneration = generation + 1;
+        Path target = generationPath(nextGeneration);
+        long capacity = Math.min(MAX_MAPPED_BYTES, Math.max(initialCapacityBytes, (liveBytes + HEADER_BYTES) * 2));
+
+        FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer targetBuffer = targetChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        int out = HEADER_BYTES;
+        int dropped = 0;
+        int pos = HEADER_BYTES;
+        while (pos < writePos) {
+            int recordBytes = recordBytesAt(pos);
+            String key = keyAt(pos);
+            boolean latest = index.get(key, this::keyMatches) == pos;
+            if (latest && !expired(pos, cutoff)) {
+                ByteBuffer src = buffer.duplicate();
+                src.position(pos);
+                src.limit(pos + recordBytes);
+                ByteBuffer dst = targetBuffer.duplicate();
+                dst.position(out);
+                dst.put(src);
+                out += recordBytes;
+            } else if (latest) {
+                dropped++;
+            }
+            pos += recordBytes;
+        }
+        targetBuffer.putLong(8, nextGeneration);
+        targetBuffer.force();
+        targetBuffer.putInt(0, MAGIC);
+        targetBuffer.force();
+
+        FileChannel oldChannel = channel;
+        Path oldPath = generationPath(generation);
+        channel = targetChannel;
+        buffer = targetBuffer;
+        generation = nextGeneration;
+        oldChannel.close();
+        try {
+            Files.deleteIfExists(oldPath);
+        } catch (IOException ex) {
+            // still mapped on some platforms; removed on the next open
+            log.debug("Could not delete previous idempotency log {}", oldPath, ex);
+        }
+        recover();
+        log.info("Idempotency log compacted generation={} bytesBefore={} bytesAfter={} keys={} expired={} tookMs={}",
+                generation, before, writePos, index.size(), dropped, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private boolean expired(int offset, long cutoffMillis) {
+        long created = buffer.getLong(offset + RECORD_HEADER_BYTES);
+        long expires = buffer.getLong(offset + RECORD_HEADER_BYTES + 16);
+        long now = System.currentTimeMillis();
+        if (expires != NULL_TIME && expires < now) return true;
+        return created != NULL_TIME && created < cutoffMillis;
+    }
+
+    private void grow(long required) throws IOException {
+        long capacity = buffer.capacity();
+        while (capacity < required) capacity *= 2;
+        if (capacity > MAX_MAPPED_BYTES) {
+            if (required > MAX_MAPPED_BYTES) throw new IOException("Idempotency log exceeds " + MAX_MAPPED_BYTES + " bytes");
+            capacity = MAX_MAPPED_BYTES;
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        log.info("Idempotency log grown to {} bytes", capacity);
+    }
+
+    private void map(Path path, long capacity, boolean fresh) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        if (fresh) {
+            buffer.putLong(8, generation);
+            buffer.putInt(0, MAGIC);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log and positions the write cursor after the last intact record.
+     */
+    private void recover() {
+        index = new OffHeapKeyIndex(1024);
+        liveBytes = 0;
+        int pos = HEADER_BYTES;
+        int capacity = buffer.capacity();
+        boolean torn = false;
+        while (pos + RECORD_HEADER_BYTES <= capacity) {
+            int len = buffer.getInt(pos);
+            if (len == 0) break;
+            if (len < 0 || (long) pos + RECORD_HEADER_BYTES + len > capacity || buffer.getInt(pos + 4) != crc(pos, len)) {
+                torn = true;
+                break;
+            }
+            String key = keyAt(pos);
+            long previous = index.get(key, this::keyMatches);
+            if (previous >= 0) liveBytes -= recordBytesAt((int) previous);
+            index.put(key, pos, this::keyMatches);
+            liveBytes += RECORD_HEADER_BYTES + len;
+            pos += RECORD_HEADER_BYTES + len;
+        }
+        writePos = pos;
+        if (torn) {
+            log.warn("Idempotency log {} has a damaged record at offset {}; truncating", generationPath(generation), pos);
+            for (int i = pos; i < capacity; i++) buffer.put(i, (byte) 0);
+        }
+    }
+
+    private void append(byte[] body) {
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(writePos + RECORD_HEADER_BYTES);
+        dst.put(body);
+        buffer.putInt(writePos + 4, crc(writePos, body.length));
+        // length last: a record is only visible to recovery once fully written
+        buffer.putInt(writePos, body.length);
+    }
+
+    private int crc(int offset, int len) {
+        ByteBuffer src = buffer.duplicate();
+        src.position(offset + RECORD_HEADER_BYTES);
+        src.limit(offset + RECORD_HEADER_BYTES + len);
+        CRC32 crc = new CRC32();
+        crc.update(src);
+        return (int) crc.getValue();
+    }
+
+    private int recordBytesAt(int offset) {
+        return RECORD_HEADER_BYTES + buffer.getInt(offset);
+    }
+
+    private boolean keyMatches(long offset, String key) {
+        return key.equals(keyAt((int) offset));
+    }
+
+    private String keyAt(int offset) {
+        ByteBuffer src = buffer.duplicate();
+        src.position(offset + RECORD_HEADER_BYTES + FIXED_BODY_BYTES);
+        return readString(src);
+    }
+
+    private IdempotencyKeyEntity readRecord(int offset) {
+        ByteBuffer src = buffer.duplicate();
+        src.position(offset + RECORD_HEADER_BYTES);
+        IdempotencyKeyEntity e = new IdempotencyKeyEntity();
+        e.setCreatedAt(toInstant(src.getLong()));
+        e.setConsumedAt(toInstant(src.getLong()));
+        e.setExpiresAt(toInstant(src.getLong()));
+        e.setVersion(src.getLong());
+        int status = src.getInt();
+        e.setResponseStatus(status == NULL_INT ? null : status);
+        e.setKey(readString(src));
+        e.setRequestHash(readString(src));
+        e.setOperation(readString(src));
+        e.setStatus(readString(src));
+        e.setResponseHeaders(readString(src));
+        e.setResponseBody(readString(src));
+        return e;
+    }
+
+    private static byte[] encode(IdempotencyKeyEntity e) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeLong(fromInstant(e.getCreatedAt()));
+            out.writeLong(fromInstant(e.getConsumedAt()));
+            out.writeLong(fromInstant(e.getExpiresAt()));
+            out.writeLong(e.getVersion() == null ? 0L : e.getVersion());
+            out.writeInt(e.getResponseStatus() == null ? NULL_INT : e.getResponseStatus());
+            writeString(out, e.getKey());
+            writeString(out, e.getRequestHash());
+            writeString(out, e.getOperation());
+            writeString(out, e.getStatus());
+            writeString(out, e.getResponseHeaders());
+            writeString(out, e.getResponseBody());
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer src) {
+        int len = src.getInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long fromInstant(Instant i) {
+        return i == null ? NULL_TIME : i.toEpochMilli();
+    }
+
+    private static Instant toInstant(long millis) {
+        return millis == NULL_TIME ? null : Instant.ofEpochMilli(millis);
+    }
+
+    private Path generationPath(long gen) {
+        return Paths.get(basePath.toString() + "." + gen);
+    }
+
+    private long findLatestGeneration() throws IOException {
+        long latest = -1;
+        Path dir = basePath.getParent();
+        String prefix = basePath.getFileName().toString() + ".";
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(prefix)) continue;
+                long gen;
+                try {
+                    gen = Long.parseLong(name.substring(prefix.length()));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                if (gen > latest && hasValidHeader(p)) latest = gen;
+            }
+        }
+        return latest;
+    }
+
+    private static boolean hasValidHeader(Path p) {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            return ch.read(header, 0) == 4 && header.getInt(0) == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void deleteStaleGenerations() {
+        for (long gen = generation - 1; gen >= 0 && gen >= generation - 16; gen--) {
+            try {
+                Files.deleteIfExists(generationPath(gen));
+            } catch (IOException ex) {
+                log.debug("Could not delete stale idempotency log {}", generationPath(gen), ex);
+            }
+        }
+        try {
+            Files.deleteIfExists(generationPath(generation + 1));
+        } catch (IOException ex) {
+            log.debug("Could not delete incomplete idempotency log {}", generationPath(generation + 1), ex);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.payment.idempotency;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-addressing hash index kept in a direct buffer: each 16-byte slot holds a 64-bit key hash and the
+ * log offset of the latest record for that key. Keys themselves stay in the log; hash collisions are
+ * resolved by asking the caller to compare the key stored at a candidate offset.
+ * Not thread-safe; {@link MappedIdempotencyStore} guards it with its lock.
+ */
+final class OffHeapKeyIndex {
+
+    private static final int SLOT_BYTES = 16;
+    private static final double MAX_LOAD = 0.7;
+
+    interface KeyMatcher {
+        boolean matches(long offset, String key);
+    }
+
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+
+    OffHeapKeyIndex(int expectedEntries) {
+        int cap = 1024;
+        while (cap * MAX_LOAD < expectedEntries) cap <<= 1;
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        this.capacity = cap;
+        this.slots = ByteBuffer.allocateDirect(cap * SLOT_BYTES);
+        this.size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(String key, KeyMatcher matcher) {
+        long hash = hash(key);
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int base = slot * SLOT_BYTES;
+            long h = slots.getLong(base);
+            if (h == 0L) return -1L;
+            if (h == hash) {
+                long offset = slots.getLong(base + 8);
+                if (matcher.matches(offset, key)) return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1L;
+    }
+
+    void put(String key, long offset, KeyMatcher matcher) {
+        if (size + 1 > capacity * MAX_LOAD) grow();
+        long hash = hash(key);
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) {
+            int base = slot * SLOT_BYTES;
+            long h = slots.getLong(base);
+            if (h == 0L) {
+                slots.putLong(base, hash);
+                slots.putLong(base + 8, offset);
+                size++;
+                return;
+            }
+            if (h == hash && matcher.matches(slots.getLong(base + 8), key)) {
+                slots.putLong(base + 8, offset);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        ByteBuffer old = slots;
+        int oldCapacity = capacity;
+        allocate(oldCapacity << 1);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long h = old.getLong(i * SLOT_BYTES);
+            if (h == 0L) continue;
+            long offset = old.getLong(i * SLOT_BYTES + 8);
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (slots.getLong(slot * SLOT_BYTES) != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putLong(slot * SLOT_BYTES, h);
+            slots.putLong(slot * SLOT_BYTES + 8, offset);
+            size++;
+        }
+    }
+
+    /** 64-bit FNV-1a over the UTF-16 code units; 0 is reserved for empty slots. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0L ? 1L : h;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.payment.jobs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs admin-triggered jobs in the background so the request only submits them. A job gets an id the caller
+ * polls for progress ({@code GET /api/v1/admin/jobs/{id}}) and can cancel. Jobs are tracked in memory on the
+ * node that accepted them, and the last {@code admin.jobs.retained} finished jobs are kept for inspection.
+ */
+@Component
+public class AdminJobManager {
+
+    private static final Logger log = LoggerFactory.getLogger(AdminJobManager.class);
+
+    private final ReconciliationJob reconciliationJob;
+    private final SubscriptionClaimer claimer;
+    private final int retained;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "admin-job");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AdminJobManager(ReconciliationJob reconciliationJob,
+                           SubscriptionClaimer claimer,
+                           @Value("${admin.jobs.retained:50}") int retained) {
+        this.reconciliationJob = reconciliationJob;
+        this.claimer = claimer;
+        this.retained = Math.max(1, retained);
+    }
+
+    /**
+     * Submits a subscription renewal run.
+     *
+     * @throws IllegalStateException if a renewal run is already in progress on this node
+     */
+    public Map<String, Object> submitReconcile() {
+        Job job = new Job("reconcile");
+        synchronized (this) {
+            for (Job j : jobs.values()) {
+                if (!j.isDone()) throw new IllegalStateException("job " + j.id + " is still running");
+            }
+            if (reconciliationJob.isRunning()) throw new IllegalStateException("subscription renewal is already running");
+            jobs.put(job.id, job);
+            trim();
+        }
+        executor.execute(() -> runReconcile(job));
+        return toMap(job);
+    }
+
+    public Map<String, Object> status(String id) {
+        Job job;
+        synchronized (this) {
+            job = jobs.get(id);
+        }
+        return job == null ? null : toMap(job);
+    }
+
+    /**
+     * Asks job {@code id} to stop; returns false if there is no such job or it has already finished.
+     */
+    public synchronized boolean cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null || job.isDone()) return false;
+        job.progress.cancel();
+        job.state = "CANCELLING";
+        return true;
+    }
+
+    private void runReconcile(Job job) {
+        job.state = "RUNNING";
+        try {
+            if (job.progress.isCancelled()) {
+                job.state = "CANCELLED";
+            } else if (!reconciliationJob.run(job.progress)) {
+                // a scheduled run started between submit and here
+                job.state = "SKIPPED";
+                job.error = "subscription renewal was already running";
+            } else {
+                job.state = job.progress.isCancelled() ? "CANCELLED" : "COMPLETED";
+            }
+        } catch (Exception ex) {
+            log.error("admin job {} failed", job.id, ex);
+            job.error = String.valueOf(ex);
+            job.state = "FAILED";
+        }
+        job.finishedAt = Instant.now();
+        log.info("admin job {} ({}) {}: processed={} failed={}", job.id, job.type, job.state,
+                job.progress.getProcessed(), job.progress.getFailed());
+    }
+
+    private void trim() {
+        int finished = 0;
+        for (Job j : jobs.values()) if (j.isDone()) finished++;
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > retained && it.hasNext()) {
+            if (it.next().isDone()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    private Map<String, Object> toMap(Job job) {
+        ReconciliationJob.Progress p = job.progress;
+        Instant end = job.finishedAt == null ? Instant.now() : job.finishedAt;
+        double seconds = Duration.between(job.startedAt, end).toMillis() / 1000.0;
+        long done = p.getProcessed() + p.getFailed();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", job.id);
+        m.put("type", job.type);
+        m.put("state", job.state);
+        m.put("runId", p.getRunId());
+        m.put("cutoff", p.getCutoff() == null ? null : p.getCutoff().toString());
+        m.put("processed", p.getProcessed());
+        m.put("failed", p.getFailed());
+        m.put("chunks", p.getChunks());
+        m.put("remaining", remaining(job));
+        m.put("throughputPerSecond", seconds <= 0 ? 0.0 : Math.round(done / seconds * 100) / 100.0);
+        m.put("startedAt", job.startedAt.toString());
+        m.put("finishedAt", job.finishedAt == null ? null : job.finishedAt.toString());
+        if (job.error != null) m.put("error", job.error);
+        return m;
+    }
+
+    /** open renewals and retries due at the run's cutoff; null before the run has its cutoff */
+    private Long remaining(Job job) {
+        Instant cutoff = job.progress.getCutoff();
+        if (cutoff == null) return null;
+        try {
+            return claimer.countDue(cutoff);
+        } catch (Exception ex) {
+            log.debug("could not count remaining renewals for job {}: {}", job.id, ex.toString());
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            for (Job j : jobs.values()) j.progress.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    private static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final String type;
+        final ReconciliationJob.Progress progress = new ReconciliationJob.Progress();
+        final Instant startedAt = Instant.now();
+        volatile Instant finishedAt;
+        volatile String state = "QUEUED";
+        volatile String error;
+
+        Job(String type) {
+            this.type = type;
+        }
+
+        boolean isDone() {
+            return finishedAt != null;
+        }
+    }
+}
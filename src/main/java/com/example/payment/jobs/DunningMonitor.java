@@ -0,0 +1,84 @@
+package com.example.payment.jobs;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exports the PAST_DUE backlog: how many subscriptions are in dunning, how much they owe per currency, and how
+ * many retries are overdue. The values come from one aggregate query per {@code subscription.dunning.metrics-interval-ms}
+ * rather than a query per scrape. Retry outcomes are counted where they happen
+ * ({@code subscription.dunning.retries{outcome}}).
+ */
+@Component
+public class DunningMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(DunningMonitor.class);
+
+    private static final String BACKLOG_SQL = "SELECT currency, COUNT(*), COALESCE(SUM(amount_cents), 0), "
+            + "COALESCE(SUM(CASE WHEN next_retry_at <= ? THEN 1 ELSE 0 END), 0) FROM subscriptions WHERE status = 'PAST_DUE' "
+            + "GROUP BY currency";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final JobGuard guard;
+    /** amounts in different currencies do not add up, so there is one gauge per currency seen */
+    private final Map<String, Long> pastDueAmountCents = new ConcurrentHashMap<>();
+
+    private volatile long pastDue;
+    private volatile long retriesOverdue;
+
+    public DunningMonitor(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.guard = new JobGuard("dunning-metrics", meterRegistry);
+        Gauge.builder("subscription.dunning.past_due", this, m -> m.pastDue)
+                .description("Subscriptions in PAST_DUE").register(meterRegistry);
+        Gauge.builder("subscription.dunning.retries.overdue", this, m -> m.retriesOverdue)
+                .description("PAST_DUE subscriptions whose retry time has passed").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${subscription.dunning.metrics-interval-ms:60000}")
+    public void refresh() {
+        guard.run(() -> {
+            try {
+                long[] totals = new long[2];
+                Map<String, Long> amounts = new HashMap<>();
+                jdbcTemplate.query(BACKLOG_SQL, rs -> {
+                    String currency = rs.getString(1);
+                    amounts.put(currency == null ? "unknown" : currency, rs.getLong(3));
+                    totals[0] += rs.getLong(2);
+                    totals[1] += rs.getLong(4);
+                }, Timestamp.from(Instant.now()));
+                // a currency that left dunning reports 0 rather than its last amount
+                for (String currency : pastDueAmountCents.keySet()) amounts.putIfAbsent(currency, 0L);
+                for (Map.Entry<String, Long> e : amounts.entrySet()) {
+                    if (pastDueAmountCents.put(e.getKey(), e.getValue()) == null) register(e.getKey());
+                }
+                pastDue = totals[0];
+                retriesOverdue = totals[1];
+                return pastDue;
+            } catch (Exception ex) {
+                log.warn("could not refresh dunning backlog metrics: {}", ex.toString());
+                return 0;
+            }
+        });
+    }
+
+    private void register(String currency) {
+        Gauge.builder("subscription.dunning.past_due.amount", pastDueAmountCents, m -> m.getOrDefault(currency, 0L))
+                .tag("currency", currency)
+                .description("Amount owed by PAST_DUE subscriptions in this currency, in cents").baseUnit("cents")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.payment.jobs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets one invocation of a periodic job run at a time on this instance and records each run:
+ * {@code scheduled.job.duration{job,outcome}}, {@code scheduled.job.items{job}} (what the run reports it processed)
+ * and {@code scheduled.job.skipped{job}} (invocations that found the job still running, e.g. an admin trigger
+ * during a scheduled run).
+ */
+public final class JobGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(JobGuard.class);
+
+    /** one run of the job; returns the number of items it processed */
+    @FunctionalInterface
+    public interface Body {
+        long run();
+    }
+
+    private final String job;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Timer succeeded;
+    private final Timer failed;
+    private final Counter items;
+    private final Counter skipped;
+
+    public JobGuard(String job, MeterRegistry meterRegistry) {
+        this.job = job;
+        this.succeeded = Timer.builder("scheduled.job.duration").tags("job", job, "outcome", "success")
+                .description("Duration of one run of a periodic job").register(meterRegistry);
+        this.failed = Timer.builder("scheduled.job.duration").tags("job", job, "outcome", "failed")
+                .description("Duration of one run of a periodic job").register(meterRegistry);
+        this.items = Counter.builder("scheduled.job.items").tag("job", job)
+                .description("Items processed by a periodic job").register(meterRegistry);
+        this.skipped = Counter.builder("scheduled.job.skipped").tag("job", job)
+                .description("Runs skipped because the job was still running").register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code body} unless this job is already running here; returns false if the run was skipped.
+     */
+    public boolean run(Body body) {
+        if (!running.compareAndSet(false, true)) {
+            skipped.increment();
+            log.info("job {} is still running, skipping this run", job);
+            return false;
+        }
+        long started = System.nanoTime();
+        boolean ok = false;
+        try {
+            items.increment(Math.max(0, body.run()));
+            ok = true;
+            return true;
+        } finally {
+            (ok ? succeeded : failed).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            running.set(false);
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+}
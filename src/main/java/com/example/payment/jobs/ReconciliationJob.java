@@ -1,53 +1,378 @@
 package com.example.payment.jobs;
 
+import com.example.payment.cluster.ClusterSingleton;
+import com.example.payment.jobs.SubscriptionClaimer.Claim;
 import com.example.payment.persistence.SubscriptionEntity;
-import com.example.payment.persistence.SubscriptionRepository;
 import com.example.payment.service.SubscriptionService;
+import com.example.payment.service.SubscriptionService.ChargeResult;
+import com.example.payment.service.SubscriptionService.RenewalChunk;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Renews due subscriptions. Scheduled runs happen on one node at a time, the holder of the
+ * {@code subscription-renewal} job lease (see {@link ClusterSingleton}); {@code subscription.renewal.workers}
+ * threads each claim a batch of up to {@code subscription.renewal.chunk-size} due subscriptions through
+ * {@link SubscriptionClaimer}, charge it through {@link RenewalCharger} and commit the outcomes, and claim the
+ * next, until nothing due is left unclaimed or {@code subscription.renewal.max-run-ms} has passed. Claims are
+ * disjoint across threads and nodes, so a manual run or a run overlapping a lease handoff never bills a
+ * subscription twice.
+ * Once no renewal is left, the workers go on with PAST_DUE subscriptions whose dunning retry is due; a failed
+ * charge schedules the next retry (see {@code DunningPolicy}), so it is not charged again in the same run.
+ *
+ * Every run is checkpointed in {@link RenewalRunStore}; a run left behind by a dead node is resumed with its
+ * original cutoff. Each billing cycle gets a PENDING transaction keyed by (subscription, cycle start) before it
+ * is charged, so a cycle is never billed twice however a run is interrupted.
+ *
+ * A charge is only started while at least {@code subscription.renewal.claim-margin-ms} of its claim's lease is
+ * left, so it is recorded before another worker can claim the subscription and take the PENDING cycle for a
+ * crashed charge. What a chunk cannot charge in time (the gateway rate limit is shared by all workers) is released
+ * and claimed again with a fresh lease.
+ */
 @Component
 public class ReconciliationJob {
 
     private final Logger log = LoggerFactory.getLogger(ReconciliationJob.class);
     private final SubscriptionService subscriptionService;
-    private final SubscriptionRepository subscriptionRepository;
+    private final SubscriptionClaimer claimer;
+    private final RenewalCharger charger;
+    private final RenewalRunStore runStore;
+    private final MeterRegistry meterRegistry;
+    private final Timer chunkTimer;
+    private final int workers;
+    private final long claimMarginMillis;
+    private final long manualTimeoutMillis;
+    private final ExecutorService executor;
+    private final JobGuard guard;
 
-    public ReconciliationJob(SubscriptionService subscriptionService, SubscriptionRepository subscriptionRepository) {
+    @Value("${subscription.renewal.chunk-size:500}")
+    private int chunkSize;
+    @Value("${subscription.renewal.wheel.enabled:true}")
+    private boolean wheelEnabled;
+    /** upper bound for one run; claims stop and uncharged subscriptions are released when it is reached */
+    @Value("${subscription.renewal.max-run-ms:900000}")
+    private long maxRunMillis;
+
+    public ReconciliationJob(SubscriptionService subscriptionService, SubscriptionClaimer claimer, RenewalCharger charger,
+                             RenewalRunStore runStore, MeterRegistry meterRegistry,
+                             @Value("${subscription.renewal.workers:4}") int workers,
+                             @Value("${subscription.renewal.claim-margin-ms:60000}") long claimMarginMillis,
+                             @Value("${subscription.renewal.manual-timeout-ms:10000}") long manualTimeoutMillis) {
         this.subscriptionService = subscriptionService;
-        this.subscriptionRepository = subscriptionRepository;
+        this.claimer = claimer;
+        this.charger = charger;
+        this.runStore = runStore;
+        this.meterRegistry = meterRegistry;
+        this.workers = Math.max(1, workers);
+        this.claimMarginMillis = Math.max(0, claimMarginMillis);
+        this.manualTimeoutMillis = Math.max(0, manualTimeoutMillis);
+        this.chunkTimer = Timer.builder("subscription.renewal.chunk")
+                .description("Duration of one committed renewal chunk")
+                .register(meterRegistry);
+        this.guard = new JobGuard("subscription-renewal", meterRegistry);
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread t = new Thread(r, "renewal-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
+    /**
+     * Polls for due subscriptions unless the timing wheel is firing renewals, in which case
+     * {@link RenewalScheduler} runs this job once per look-ahead horizon instead.
+     */
     @Scheduled(fixedDelayString = "${subscription.reconcile.interval.ms:60000}")
-    public void run() {
-        String cid = UUID.randomUUID().toString();
+    @ClusterSingleton("subscription-renewal")
+    public void poll() {
+        if (wheelEnabled) return;
+        run();
+    }
+
+    /**
+     * {@link #run()} on the leader only; used by {@link RenewalScheduler} for its scan per horizon.
+     */
+    @ClusterSingleton("subscription-renewal")
+    public void sweep() {
+        run();
+    }
+
+    /**
+     * Runs the job unless a run (scheduled or manual) is already in progress on this node; returns false if so.
+     */
+    public boolean run() {
+        return run(new Progress());
+    }
+
+    /**
+     * {@link #run()} reporting into {@code progress}, which can also cancel the run (see {@link Progress#cancel()}).
+     */
+    public boolean run(Progress progress) {
+        return guard.run(() -> runOnce(progress));
+    }
+
+    public boolean isRunning() {
+        return guard.isRunning();
+    }
+
+    public enum ManualRenewal { RENEWED, DECLINED, IN_REVIEW, NOT_CLAIMED, DEFERRED }
+
+    /**
+     * Renews one subscription now, due or not, through the same claim, cycle intent and rate limit as scheduled
+     * renewals, so it cannot charge a cycle a worker is charging. NOT_CLAIMED if a worker holds the subscription
+     * or it is neither ACTIVE nor PAST_DUE. The charge runs on the calling thread rather than behind queued batch
+     * charges; DEFERRED if no gateway permit was free within {@code subscription.renewal.manual-timeout-ms}.
+     */
+    public ManualRenewal renewNow(String id) throws InterruptedException {
+        String owner = "manual-" + UUID.randomUUID();
+        Claim claim = claimer.claimOne(owner, id);
+        if (claim.getIds().isEmpty()) return ManualRenewal.NOT_CLAIMED;
+        int[] outcome = renew(claim, owner, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(manualTimeoutMillis), true);
+        if (outcome[0] > 0) return ManualRenewal.RENEWED;
+        if (outcome[1] > 0) return ManualRenewal.DECLINED;
+        if (outcome[3] > 0) return ManualRenewal.IN_REVIEW;
+        return ManualRenewal.DEFERRED;
+    }
+
+    private long runOnce(Progress progress) {
+        RenewalRunStore.Run checkpoint;
+        try {
+            checkpoint = runStore.begin(Instant.now());
+        } catch (Exception e) {
+            log.error("Could not start a renewal run", e);
+            return 0;
+        }
+        String cid = checkpoint.getId();
+        progress.runId = cid;
+        progress.cutoff = checkpoint.getCutoff();
         MDC.put("correlationId", cid);
-        log.info("ReconciliationJob starting correlationId={}", cid);
+        if (checkpoint.isResumed()) {
+            int released = claimer.releaseOwner(cid);
+            log.info("ReconciliationJob resuming abandoned run correlationId={} cutoff={} releasedClaims={} workers={}",
+                    cid, checkpoint.getCutoff(), released, workers);
+        } else {
+            log.info("ReconciliationJob starting correlationId={} workers={}", cid, workers);
+        }
 
-        int processed = 0;
+        long runStarted = System.nanoTime();
+        String outcome = "FAILED";
         try {
-            Instant now = Instant.now();
-            List<SubscriptionEntity> due = subscriptionRepository.findByNextBillingAtBefore(now);
-            for (SubscriptionEntity s : due) {
+            List<Future<Boolean>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    MDC.put("correlationId", cid);
+                    try {
+                        return work(checkpoint, progress, runStarted);
+                    } finally {
+                        MDC.remove("correlationId");
+                    }
+                }));
+            }
+            boolean complete = true;
+            for (Future<Boolean> f : futures) {
                 try {
-                    subscriptionService.renewSubscription(s.getId());
-                    processed++;
-                } catch (Exception e) {
-                    log.error("Failed to renew subscription {} correlationId={}", s.getId(), cid, e);
+                    complete &= f.get();
+                } catch (ExecutionException e) {
+                    complete = false;
+                    log.error("Renewal worker failed correlationId={}", cid, e.getCause());
                 }
             }
+            outcome = complete ? "COMPLETED" : progress.cancelled ? "CANCELLED" : "PARTIAL";
+        } catch (InterruptedException e) {
+            // left RUNNING on purpose: the run is adopted and resumed once its checkpoint goes stale
+            outcome = null;
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Reconciliation job failed correlationId={}", cid, e);
         } finally {
-            log.info("ReconciliationJob completed correlationId={} processed={}", cid, processed);
+            if (outcome != null) {
+                try {
+                    runStore.finish(checkpoint, outcome);
+                } catch (Exception e) {
+                    log.warn("Could not record the end of renewal run correlationId={}: {}", cid, e.toString());
+                }
+            }
+            log.info("ReconciliationJob {} correlationId={} processed={} failed={} chunks={}", outcome == null ? "interrupted" : outcome,
+                    cid, progress.processed.get(), progress.failed.get(), progress.chunks.get());
             MDC.remove("correlationId");
         }
+        return progress.processed.get() + progress.failed.get();
+    }
+
+    /**
+     * One worker of a run: claims and renews chunks until nothing is left (returns true), or the run's time is up
+     * or it was cancelled (returns false).
+     */
+    private boolean work(RenewalRunStore.Run checkpoint, Progress progress, long runStarted) throws InterruptedException {
+        String cid = checkpoint.getId();
+        Instant cutoff = checkpoint.getCutoff();
+        long deadline = runStarted + TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+        while (!Thread.currentThread().isInterrupted()) {
+            if (progress.cancelled) {
+                log.info("Renewal run cancelled, leaving the rest for the next run correlationId={}", cid);
+                return false;
+            }
+            if (System.nanoTime() >= deadline) {
+                log.warn("Renewal run reached its {} ms limit, leaving the rest for the next run correlationId={}", maxRunMillis, cid);
+                return false;
+            }
+            Claim claim = claimer.claim(cid, cutoff, cutoff, chunkSize);
+            if (claim.getIds().isEmpty()) claim = claimer.claimRetries(cid, cutoff, chunkSize);
+            if (claim.getIds().isEmpty()) return true;
+
+            int[] outcome = renew(claim, cid, deadline);
+            int chunk = progress.chunks.incrementAndGet();
+            long total = progress.processed.addAndGet(outcome[0]);
+            progress.failed.addAndGet(outcome[1]);
+            try {
+                runStore.checkpoint(checkpoint, outcome[0], outcome[1]);
+            } catch (Exception e) {
+                log.warn("Could not checkpoint renewal run correlationId={}: {}", cid, e.toString());
+            }
+            log.info("Renewal chunk {} committed correlationId={} renewed={} failed={} deferred={} totalRenewed={} elapsedMs={}",
+                    chunk, cid, outcome[0], outcome[1], outcome[2], total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStarted));
+        }
+        throw new InterruptedException();
+    }
+
+    /**
+     * Opens the billing cycles of a claimed batch, charges them through the gateway and records the outcomes in
+     * one transaction. If that transaction fails the outcomes are recorded one by one, so the charges already made
+     * are not lost with the batch. A charge that still cannot be recorded leaves its cycle PENDING; the next claim
+     * of the subscription moves it to BILLING_REVIEW instead of charging it again.
+     * Subscriptions that could not be charged before {@code deadlineNanos}, or with less than the claim margin left
+     * on their lease, are released for the next claim.
+     * Returns {renewed, failed, skipped, parked}; parked charges have an unknown outcome and are in BILLING_REVIEW.
+     */
+    int[] renew(Claim claim, String cid, long deadlineNanos) throws InterruptedException {
+        return renew(claim, cid, deadlineNanos, false);
+    }
+
+    private int[] renew(Claim claim, String cid, long deadlineNanos, boolean onCallingThread) throws InterruptedException {
+        long chunkStarted = System.nanoTime();
+        List<SubscriptionEntity> batch;
+        try {
+            batch = subscriptionService.openCycles(claim.getToken(), claim.getIds());
+        } catch (RuntimeException ex) {
+            // nothing was opened (the transaction rolled back); let the rows go now rather than when the lease ends
+            claimer.release(claim.getToken(), claim.getIds());
+            throw ex;
+        }
+        long leftOnLease = Duration.between(Instant.now(), claim.getExpiresAt()).toMillis() - claimMarginMillis;
+        long chargeDeadline = Math.min(deadlineNanos, chunkStarted + TimeUnit.MILLISECONDS.toNanos(leftOnLease));
+        List<ChargeResult> results;
+        if (onCallingThread) {
+            results = new ArrayList<>(batch.size());
+            for (SubscriptionEntity s : batch) {
+                ChargeResult r = charger.chargeNow(s, chargeDeadline);
+                if (r != null) results.add(r);
+            }
+        } else {
+            results = charger.chargeAll(batch, chargeDeadline);
+        }
+
+        Set<String> attempted = new HashSet<>();
+        for (ChargeResult r : results) attempted.add(r.getSubscriptionId());
+        List<SubscriptionEntity> notCharged = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        for (SubscriptionEntity s : batch) {
+            if (attempted.contains(s.getId())) continue;
+            notCharged.add(s);
+            skipped.add(s.getId());
+        }
+        // drop their cycle intents before the claims, so nobody finds them PENDING and takes them for crashed charges
+        subscriptionService.abandonCycles(notCharged);
+        claimer.release(claim.getToken(), skipped);
+
+        int renewed = 0;
+        int failed = 0;
+        int parked = 0;
+        try {
+            RenewalChunk chunk = subscriptionService.recordCharges(claim.getToken(), results);
+            renewed = chunk.getRenewedIds().size();
+            failed = chunk.getFailedIds().size();
+            parked = chunk.getParkedIds().size();
+        } catch (Exception e) {
+            log.warn("Recording renewal chunk of {} failed, recording its charges one by one correlationId={}: {}",
+                    results.size(), cid, e.toString());
+            for (ChargeResult r : results) {
+                try {
+                    RenewalChunk one = subscriptionService.recordCharges(claim.getToken(), Collections.singletonList(r));
+                    renewed += one.getRenewedIds().size();
+                    failed += one.getFailedIds().size();
+                    parked += one.getParkedIds().size();
+                } catch (Exception ex) {
+                    failed++;
+                    log.error("Subscription {} charge (outcome={} transId={}) could not be recorded correlationId={}",
+                            r.getSubscriptionId(), r.getOutcome(), r.getGatewayTransactionId(), cid, ex);
+                }
+            }
+        }
+        chunkTimer.record(System.nanoTime() - chunkStarted, TimeUnit.NANOSECONDS);
+        count("subscription.renewal.renewed", renewed);
+        count("subscription.renewal.failed", failed);
+        count("subscription.renewal.deferred", skipped.size());
+        count("subscription.renewal.parked", parked);
+        return new int[]{renewed, failed, skipped.size(), parked};
+    }
+
+    private void count(String name, long amount) {
+        if (amount == 0) return;
+        try {
+            meterRegistry.counter(name).increment(amount);
+        } catch (Exception ignore) {}
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Live counters of one run. Cancelling stops the workers before their next claim; chunks already claimed are
+     * charged and recorded first, so a cancelled run never leaves a charge unrecorded.
+     */
+    public static final class Progress {
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicInteger chunks = new AtomicInteger();
+        volatile String runId;
+        volatile Instant cutoff;
+        volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() { return cancelled; }
+        public long getProcessed() { return processed.get(); }
+        public long getFailed() { return failed.get(); }
+        public int getChunks() { return chunks.get(); }
+        /** the renewal run (renewal_runs.id, also the log correlation id); null until the run has started */
+        public String getRunId() { return runId; }
+        public Instant getCutoff() { return cutoff; }
     }
 }
@@ -0,0 +1,137 @@
+package com.example.payment.jobs;
+
+import com.example.payment.persistence.SubscriptionEntity;
+import com.example.payment.service.SubscriptionService;
+import com.example.payment.service.SubscriptionService.ChargeOutcome;
+import com.example.payment.service.SubscriptionService.ChargeResult;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Submits renewal charges to the gateway with at most {@code subscription.renewal.charge.concurrency} in flight
+ * and at most {@code subscription.renewal.charge.rate-per-second} gateway calls started per second on this node,
+ * shared by all renewal workers. A charge is two calls (authorize and capture) and takes two permits; the void
+ * after a failed capture is not metered. The gateway limit is per merchant account, so the per-node rate should be
+ * the account limit divided by the number of nodes. Charges that cannot start before the run's deadline are not attempted.
+ */
+@Component
+public class RenewalCharger {
+
+    static final int CALLS_PER_CHARGE = 2;
+
+    private final SubscriptionService subscriptionService;
+    private final MeterRegistry meterRegistry;
+    private final RateLimiter rateLimiter;
+    private final Timer chargeTimer;
+    private final ExecutorService executor;
+
+    public RenewalCharger(SubscriptionService subscriptionService,
+                          RateLimiterRegistry rateLimiterRegistry,
+                          MeterRegistry meterRegistry,
+                          @Value("${subscription.renewal.charge.concurrency:8}") int concurrency,
+                          @Value("${subscription.renewal.charge.rate-per-second:20}") int ratePerSecond) {
+        this.subscriptionService = subscriptionService;
+        this.meterRegistry = meterRegistry;
+        this.rateLimiter = rateLimiterRegistry.rateLimiter("authorize-net-renewals", RateLimiterConfig.custom()
+                .limitForPeriod(Math.max(CALLS_PER_CHARGE, ratePerSecond))
+                .limitRefreshPeriod(Duration.ofSeconds(1))
+                .timeoutDuration(Duration.ofSeconds(1))
+                .build());
+        this.chargeTimer = Timer.builder("subscription.renewal.charge.latency")
+                .description("Gateway authorize+capture time of one renewal")
+                .register(meterRegistry);
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+            Thread t = new Thread(r, "renewal-charge-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Charges every subscription in {@code batch} that can be started before {@code deadlineNanos} (a
+     * {@link System#nanoTime()} value). Returns the results of the attempted charges; subscriptions left out were
+     * not charged.
+     */
+    public List<ChargeResult> chargeAll(List<SubscriptionEntity> batch, long deadlineNanos) throws InterruptedException {
+        String cid = MDC.get("correlationId");
+        List<Future<ChargeResult>> futures = new ArrayList<>(batch.size());
+        for (SubscriptionEntity s : batch) {
+            futures.add(executor.submit(() -> {
+                MDC.put("correlationId", cid);
+                try {
+                    return charge(s, deadlineNanos);
+                } finally {
+                    MDC.remove("correlationId");
+                }
+            }));
+        }
+        List<ChargeResult> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                ChargeResult r = futures.get(i).get();
+                if (r != null) results.add(r);
+            } catch (ExecutionException ex) {
+                // charge() does not throw, so this is an Error somewhere along the call: whether it billed is unknown
+                SubscriptionEntity s = batch.get(i);
+                results.add(new ChargeResult(s.getId(), SubscriptionService.cycleKey(s), s.getAmountCents() == null ? 0L : s.getAmountCents(),
+                        s.getCurrency(), ChargeOutcome.UNKNOWN, null, String.valueOf(ex.getCause())));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Charges {@code s} on the calling thread, under the same rate limit but without queueing behind batch charges
+     * on the pool. Returns null if no permit was available before {@code deadlineNanos}.
+     */
+    public ChargeResult chargeNow(SubscriptionEntity s, long deadlineNanos) {
+        return charge(s, deadlineNanos);
+    }
+
+    private ChargeResult charge(SubscriptionEntity s, long deadlineNanos) {
+        while (!rateLimiter.acquirePermission(CALLS_PER_CHARGE)) {
+            if (System.nanoTime() >= deadlineNanos || Thread.currentThread().isInterrupted()) {
+                count("skipped");
+                return null;
+            }
+        }
+        if (System.nanoTime() >= deadlineNanos) {
+            count("skipped");
+            return null;
+        }
+        long started = System.nanoTime();
+        ChargeResult r = subscriptionService.charge(s);
+        chargeTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        count(r.getOutcome() == ChargeOutcome.CHARGED ? "success" : r.getOutcome() == ChargeOutcome.DECLINED ? "failed" : "unknown");
+        return r;
+    }
+
+    private void count(String outcome) {
+        try {
+            meterRegistry.counter("subscription.renewal.charge", "outcome", outcome).increment();
+        } catch (Exception ignore) {}
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.payment.jobs;
+
+import com.example.payment.util.TimeOrderedIds;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Checkpoints of {@link ReconciliationJob} runs in {@code renewal_runs}. A run records its cutoff when it starts
+ * and its counters after every committed chunk. A RUNNING run whose last checkpoint is older than
+ * {@code subscription.renewal.run-stale-ms} belonged to a node that died; the next run on any node adopts it and
+ * carries on with the same cutoff, so the subscriptions the dead run already renewed are not looked at again.
+ * A live run never goes longer than {@code subscription.renewal.max-run-ms} without a checkpoint, so the stale
+ * threshold is kept above it; adopting a live run would release claims its workers still hold.
+ */
+@Component
+public class RenewalRunStore {
+
+    private static final String INSERT_SQL = "INSERT INTO renewal_runs (id, owner, cutoff, status, started_at, updated_at) "
+            + "VALUES (?, ?, ?, 'RUNNING', ?, ?)";
+    private static final String STALE_SQL = "SELECT id, cutoff FROM renewal_runs WHERE status = 'RUNNING' AND updated_at < ? "
+            + "ORDER BY started_at";
+    private static final String ADOPT_SQL = "UPDATE renewal_runs SET owner = ?, updated_at = ?, resumed = resumed + 1 "
+            + "WHERE id = ? AND status = 'RUNNING' AND updated_at < ?";
+    private static final String CHECKPOINT_SQL = "UPDATE renewal_runs SET chunks = chunks + 1, renewed = renewed + ?, failed = failed + ?, "
+            + "updated_at = ? WHERE id = ?";
+    private static final String FINISH_SQL = "UPDATE renewal_runs SET status = ?, updated_at = ?, finished_at = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long staleMillis;
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+
+    public RenewalRunStore(JdbcTemplate jdbcTemplate,
+                           @Value("${subscription.renewal.run-stale-ms:1200000}") long staleMillis,
+                           @Value("${subscription.renewal.max-run-ms:900000}") long maxRunMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.staleMillis = Math.max(staleMillis, maxRunMillis + 60_000);
+    }
+
+    /**
+     * Adopts the oldest abandoned run if there is one, otherwise starts a new run with {@code now} as cutoff.
+     */
+    public Run begin(Instant now) {
+        Timestamp ts = Timestamp.from(now);
+        Timestamp staleBefore = Timestamp.from(now.minusMillis(staleMillis));
+        List<Object[]> stale = jdbcTemplate.query(STALE_SQL, (rs, n) -> new Object[]{rs.getString(1), rs.getTimestamp(2)}, staleBefore);
+        for (Object[] r : stale) {
+            String id = (String) r[0];
+            if (jdbcTemplate.update(ADOPT_SQL, owner, ts, id, staleBefore) == 1) {
+                return new Run(id, ((Timestamp) r[1]).toInstant(), true);
+            }
+        }
+        String id = TimeOrderedIds.next();
+        jdbcTemplate.update(INSERT_SQL, id, owner, ts, ts, ts);
+        return new Run(id, now, false);
+    }
+
+    public void checkpoint(Run run, int renewed, int failed) {
+        jdbcTemplate.update(CHECKPOINT_SQL, renewed, failed, Timestamp.from(Instant.now()), run.getId());
+    }
+
+    public void finish(Run run, String status) {
+        Timestamp ts = Timestamp.from(Instant.now());
+        jdbcTemplate.update(FINISH_SQL, status, ts, ts, run.getId());
+    }
+
+    public static final class Run {
+        private final String id;
+        private final Instant cutoff;
+        private final boolean resumed;
+
+        Run(String id, Instant cutoff, boolean resumed) {
+            this.id = id;
+            this.cutoff = cutoff;
+            this.resumed = resumed;
+        }
+
+        public String getId() { return id; }
+        /** subscriptions due at this instant belong to the run; those renewed since are done */
+        public Instant getCutoff() { return cutoff; }
+        public boolean isResumed() { return resumed; }
+    }
+}
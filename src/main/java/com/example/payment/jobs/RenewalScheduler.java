@@ -0,0 +1,206 @@
+package com.example.payment.jobs;
+
+import com.example.payment.cluster.JobLeaseManager;
+import com.example.payment.events.SubscriptionChargedEvent;
+import com.example.payment.events.SubscriptionCreatedEvent;
+import com.example.payment.jobs.SubscriptionClaimer.Claim;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fires subscription renewals at their nextBillingAt (second precision) from an in-memory {@link TimingWheel}
+ * instead of polling the table every minute.
+ *
+ * Once per look-ahead horizon ({@code subscription.renewal.wheel.horizon-ms}) the scheduler has the leader run
+ * {@link ReconciliationJob#sweep()} to renew anything overdue, then loads every ACTIVE subscription due before the end of
+ * the next horizon into the wheel. In between, created and renewed subscriptions are added from their events after
+ * commit. Every node keeps its wheel current, but only the holder of the {@code subscription-renewal} lease renews
+ * what fires: the ticker hands fired ids in chunks to {@code subscription.renewal.workers} threads, so a busy second
+ * does not hold up the wheel. A node that takes the lease over first sweeps, to renew what fired while it was not
+ * the leader. Fired ids are claimed like any other batch, so a run overlapping a lease handoff still renews each
+ * subscription once.
+ */
+@Component
+public class RenewalScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(RenewalScheduler.class);
+
+    private static final String LEASE = "subscription-renewal";
+
+    private static final String LOAD_SQL = "SELECT id, next_billing_at FROM subscriptions WHERE status = 'ACTIVE' "
+            + "AND next_billing_at > ? AND next_billing_at <= ?";
+
+    private final SubscriptionClaimer claimer;
+    private final ReconciliationJob reconciliationJob;
+    private final JobLeaseManager leases;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long horizonMillis;
+    private final long slackMillis;
+    private final int chunkSize;
+    private final long maxRunMillis;
+    private final TimingWheel wheel;
+    private final JobGuard loadGuard;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "renewal-wheel");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService workers;
+
+    /** subscriptions due up to here are in the wheel; later ones wait for the next horizon load */
+    private volatile long loadedUntil;
+    /** whether the last tick held the lease; only touched by the ticker thread */
+    private boolean leader;
+
+    public RenewalScheduler(SubscriptionClaimer claimer,
+                            ReconciliationJob reconciliationJob,
+                            JobLeaseManager leases,
+                            JdbcTemplate jdbcTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${subscription.renewal.wheel.enabled:true}") boolean enabled,
+                            @Value("${subscription.renewal.wheel.horizon-ms:3600000}") long horizonMillis,
+                            @Value("${subscription.renewal.chunk-size:500}") int chunkSize,
+                            @Value("${subscription.renewal.max-run-ms:900000}") long maxRunMillis,
+                            @Value("${subscription.renewal.workers:4}") int workers) {
+        this.claimer = claimer;
+        this.reconciliationJob = reconciliationJob;
+        this.leases = leases;
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.horizonMillis = Math.max(60_000, horizonMillis);
+        // loads overlap a little so nothing falls between the end of one horizon and the next load
+        this.slackMillis = this.horizonMillis / 10;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxRunMillis = maxRunMillis;
+        this.loadGuard = new JobGuard("renewal-wheel-load", meterRegistry);
+        this.wheel = new TimingWheel(1000, this.horizonMillis + 2 * slackMillis, System.currentTimeMillis());
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "renewal-wheel-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        if (enabled) {
+            ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+            Gauge.builder("subscription.renewal.wheel.size", wheel, TimingWheel::size)
+                    .description("Subscriptions scheduled in the renewal timing wheel").register(meterRegistry);
+        }
+    }
+
+    /**
+     * Horizon boundary: sweep overdue subscriptions, then load the next horizon into the wheel.
+     */
+    @Scheduled(fixedDelayString = "${subscription.renewal.wheel.horizon-ms:3600000}")
+    public void boundary() {
+        if (!enabled) return;
+        reconciliationJob.sweep();
+        loadGuard.run(this::load);
+    }
+
+    private long load() {
+        long now = System.currentTimeMillis();
+        long until = now + horizonMillis + slackMillis;
+        int[] loaded = {0};
+        try {
+            jdbcTemplate.query(LOAD_SQL, rs -> {
+                if (wheel.schedule(rs.getString(1), rs.getTimestamp(2).getTime())) loaded[0]++;
+            }, new Timestamp(now), new Timestamp(until));
+            loadedUntil = until;
+            log.info("renewal wheel loaded {} subscriptions due before {}", loaded[0], Instant.ofEpochMilli(until));
+        } catch (Exception ex) {
+            log.error("renewal wheel load failed after {} subscriptions", loaded[0], ex);
+        }
+        return loaded[0];
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCreated(SubscriptionCreatedEvent event) {
+        track(event.getSubscriptionId(), event.getNextBillingAt());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCharged(SubscriptionChargedEvent event) {
+        track(event.getSubscriptionId(), event.getNextBillingAt());
+    }
+
+    private void track(String id, Instant nextBillingAt) {
+        if (!enabled || id == null) return;
+        if (nextBillingAt != null && nextBillingAt.toEpochMilli() <= loadedUntil) {
+            wheel.schedule(id, nextBillingAt.toEpochMilli());
+        } else {
+            wheel.cancel(id);
+        }
+    }
+
+    void tick() {
+        try {
+            List<String> due = wheel.advance(System.currentTimeMillis());
+            boolean wasLeader = leader;
+            leader = leases.tryAcquire(LEASE);
+            if (!leader) return;
+            if (!wasLeader) workers.execute(reconciliationJob::sweep);
+            if (due.isEmpty()) return;
+            count(due.size());
+            String cid = UUID.randomUUID().toString();
+            Instant cutoff = Instant.now();
+            for (int from = 0; from < due.size(); from += chunkSize) {
+                List<String> chunk = due.subList(from, Math.min(due.size(), from + chunkSize));
+                workers.execute(() -> renew(chunk, cutoff, cid, due.size()));
+            }
+        } catch (Exception ex) {
+            // subscriptions that were not renewed are still due and picked up at the next horizon boundary
+            log.error("renewal wheel tick failed", ex);
+        }
+    }
+
+    private void renew(List<String> ids, Instant cutoff, String cid, int fired) {
+        MDC.put("correlationId", cid);
+        try {
+            Claim claim = claimer.claimIds("wheel", ids, cutoff);
+            if (claim.getIds().isEmpty()) return;
+            int[] outcome = reconciliationJob.renew(claim, cid, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxRunMillis));
+            log.info("renewal wheel fired correlationId={} due={} claimed={} renewed={} failed={} deferred={}",
+                    cid, fired, claim.getIds().size(), outcome[0], outcome[1], outcome[2]);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("renewal wheel chunk failed correlationId={}", cid, ex);
+        } finally {
+            MDC.remove("correlationId");
+        }
+    }
+
+    private void count(int fired) {
+        try {
+            meterRegistry.counter("subscription.renewal.wheel.fired").increment(fired);
+        } catch (Exception ignore) {}
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        workers.shutdownNow();
+    }
+}
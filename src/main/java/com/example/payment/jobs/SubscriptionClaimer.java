@@ -0,0 +1,195 @@
+package com.example.payment.jobs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Claims batches of due subscriptions for one renewal worker. A claim stamps {@code renewal_claimed_by} and a
+ * lease ({@code renewal_claimed_until}) on the rows in a short transaction, so workers on any node get disjoint
+ * batches and nobody holds row locks while the batch is renewed.
+ *
+ * On PostgreSQL the candidates are selected with {@code FOR UPDATE SKIP LOCKED}: concurrent claimers skip each
+ * other's rows instead of queueing on them. Databases without SKIP LOCKED (H2 for local runs) fall back to a
+ * conditional update per candidate, which is still safe but lets concurrent claimers collide on candidates.
+ */
+@Component
+public class SubscriptionClaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(SubscriptionClaimer.class);
+
+    private static final String CANDIDATES_SQL = "SELECT id FROM subscriptions WHERE status = 'ACTIVE' AND next_billing_at <= ? "
+            + "AND (last_renewed_at IS NULL OR last_renewed_at < ?) "
+            + "AND (renewal_claimed_until IS NULL OR renewal_claimed_until < ?) "
+            + "ORDER BY next_billing_at, id LIMIT ?";
+    private static final String RETRY_CANDIDATES_SQL = "SELECT id FROM subscriptions WHERE status = 'PAST_DUE' AND next_retry_at <= ? "
+            + "AND (renewal_claimed_until IS NULL OR renewal_claimed_until < ?) "
+            + "ORDER BY next_retry_at, id LIMIT ?";
+    private static final String CLAIM_SQL = "UPDATE subscriptions SET renewal_claimed_by = ?, renewal_claimed_until = ?, version = version + 1 "
+            + "WHERE id = ? AND (renewal_claimed_until IS NULL OR renewal_claimed_until < ?)";
+    private static final String CLAIM_DUE_SQL = "UPDATE subscriptions SET renewal_claimed_by = ?, renewal_claimed_until = ?, version = version + 1 "
+            + "WHERE id = ? AND status = 'ACTIVE' AND next_billing_at <= ? "
+            + "AND (renewal_claimed_until IS NULL OR renewal_claimed_until < ?)";
+    private static final String CLAIM_ONE_SQL = "UPDATE subscriptions SET renewal_claimed_by = ?, renewal_claimed_until = ?, version = version + 1 "
+            + "WHERE id = ? AND status IN ('ACTIVE', 'PAST_DUE') AND (renewal_claimed_until IS NULL OR renewal_claimed_until < ?)";
+    private static final String RELEASE_SQL = "UPDATE subscriptions SET renewal_claimed_by = NULL, renewal_claimed_until = NULL, "
+            + "version = version + 1 WHERE id = ? AND renewal_claimed_by = ?";
+    private static final String COUNT_DUE_SQL = "SELECT "
+            + "(SELECT COUNT(*) FROM subscriptions WHERE status = 'ACTIVE' AND next_billing_at <= ? "
+            + "AND (last_renewed_at IS NULL OR last_renewed_at < ?)) + "
+            + "(SELECT COUNT(*) FROM subscriptions WHERE status = 'PAST_DUE' AND next_retry_at <= ?)";
+    private static final String CLAIMED_SQL = "SELECT id FROM subscriptions WHERE renewal_claimed_by = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long leaseSeconds;
+    private final boolean skipLocked;
+
+    public SubscriptionClaimer(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${subscription.renewal.claim-lease-seconds:300}") long leaseSeconds,
+                               @Value("${subscription.renewal.claim-strategy:auto}") String strategy) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaseSeconds = leaseSeconds;
+        this.skipLocked = "skip-locked".equalsIgnoreCase(strategy)
+                || ("auto".equalsIgnoreCase(strategy) && supportsSkipLocked(jdbcTemplate));
+        log.info("subscription renewal claims use {}", skipLocked ? "FOR UPDATE SKIP LOCKED" : "conditional updates");
+    }
+
+    /**
+     * Claims, for {@code owner} (a renewal run), up to {@code size} ACTIVE subscriptions due at {@code cutoff} that
+     * were not renewed since {@code renewedBefore}. Returns the claim token and the claimed ids.
+     */
+    public Claim claim(String owner, Instant cutoff, Instant renewedBefore, int size) {
+        Instant now = Instant.now();
+        return claimCandidates(owner, CANDIDATES_SQL, now, Timestamp.from(cutoff), Timestamp.from(renewedBefore), Timestamp.from(now), size);
+    }
+
+    /**
+     * Claims up to {@code size} PAST_DUE subscriptions whose dunning retry is due at {@code cutoff}.
+     */
+    public Claim claimRetries(String owner, Instant cutoff, int size) {
+        Instant now = Instant.now();
+        return claimCandidates(owner, RETRY_CANDIDATES_SQL, now, Timestamp.from(cutoff), Timestamp.from(now), size);
+    }
+
+    private Claim claimCandidates(String owner, String candidatesSql, Instant now, Object... candidateArgs) {
+        String token = token(owner);
+        Instant expiresAt = now.plusSeconds(leaseSeconds);
+        Timestamp until = Timestamp.from(expiresAt);
+        List<String> ids = transactionTemplate.execute(status -> {
+            String sql = skipLocked ? candidatesSql + " FOR UPDATE SKIP LOCKED" : candidatesSql;
+            List<String> candidates = jdbcTemplate.queryForList(sql, String.class, candidateArgs);
+            if (candidates.isEmpty()) return Collections.<String>emptyList();
+            List<Object[]> args = new ArrayList<>(candidates.size());
+            for (String id : candidates) args.add(new Object[]{token, until, id, Timestamp.from(now)});
+            jdbcTemplate.batchUpdate(CLAIM_SQL, args);
+            // whatever carries our token is ours, independent of how the driver reports batch counts
+            return skipLocked ? candidates : jdbcTemplate.queryForList(CLAIMED_SQL, String.class, token);
+        });
+        return new Claim(token, ids == null ? Collections.<String>emptyList() : ids, expiresAt);
+    }
+
+    /**
+     * Claims those of {@code ids} that are ACTIVE, due at {@code cutoff} and not claimed by anyone else. Used when
+     * the ids are already known (timing wheel), so every node may try the same ids and only one wins each row.
+     */
+    public Claim claimIds(String owner, List<String> ids, Instant cutoff) {
+        String token = token(owner);
+        Instant now = Instant.now();
+        Instant expiresAt = now.plusSeconds(leaseSeconds);
+        Timestamp until = Timestamp.from(expiresAt);
+        List<Object[]> args = new ArrayList<>(ids.size());
+        for (String id : ids) args.add(new Object[]{token, until, id, Timestamp.from(cutoff), Timestamp.from(now)});
+        List<String> claimed = transactionTemplate.execute(status -> {
+            jdbcTemplate.batchUpdate(CLAIM_DUE_SQL, args);
+            return jdbcTemplate.queryForList(CLAIMED_SQL, String.class, token);
+        });
+        return new Claim(token, claimed == null ? Collections.<String>emptyList() : claimed, expiresAt);
+    }
+
+    /**
+     * Claims subscription {@code id} for an out-of-schedule renewal, whether due or not, unless a renewal worker
+     * holds it or it is neither ACTIVE nor PAST_DUE; the returned claim is then empty.
+     */
+    public Claim claimOne(String owner, String id) {
+        String token = token(owner);
+        Instant now = Instant.now();
+        Instant expiresAt = now.plusSeconds(leaseSeconds);
+        int n = jdbcTemplate.update(CLAIM_ONE_SQL, token, Timestamp.from(expiresAt), id, Timestamp.from(now));
+        return new Claim(token, n == 1 ? Collections.singletonList(id) : Collections.<String>emptyList(), expiresAt);
+    }
+
+    /**
+     * How many renewals and dunning retries due at {@code cutoff} are still open, claimed or not.
+     */
+    public long countDue(Instant cutoff) {
+        Timestamp ts = Timestamp.from(cutoff);
+        Long n = jdbcTemplate.queryForObject(COUNT_DUE_SQL, Long.class, ts, ts, ts);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Gives up the claim on {@code ids} so they can be claimed again right away.
+     */
+    public void release(String token, List<String> ids) {
+        if (ids.isEmpty()) return;
+        List<Object[]> args = new ArrayList<>(ids.size());
+        for (String id : ids) args.add(new Object[]{id, token});
+        jdbcTemplate.batchUpdate(RELEASE_SQL, args);
+    }
+
+    /**
+     * Gives up every claim taken under {@code owner}, e.g. the claims of a run that died, so they can be claimed
+     * again without waiting for the lease.
+     */
+    public int releaseOwner(String owner) {
+        return jdbcTemplate.update("UPDATE subscriptions SET renewal_claimed_by = NULL, renewal_claimed_until = NULL, "
+                + "version = version + 1 WHERE renewal_claimed_by LIKE ?", owner + "/%");
+    }
+
+    /** claim tokens are {@code <owner>/<uuid>}: unique per batch, and traceable to the run that took them */
+    private static String token(String owner) {
+        return owner + "/" + UUID.randomUUID();
+    }
+
+    private static boolean supportsSkipLocked(JdbcTemplate jdbcTemplate) {
+        try {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+            return product != null && product.toLowerCase().contains("postgres");
+        } catch (Exception ex) {
+            log.warn("could not determine database product, using conditional-update claims", ex);
+            return false;
+        }
+    }
+
+    public static final class Claim {
+        private final String token;
+        private final List<String> ids;
+        private final Instant expiresAt;
+
+        Claim(String token, List<String> ids, Instant expiresAt) {
+            this.token = token;
+            this.ids = ids;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() { return token; }
+        public List<String> getIds() { return ids; }
+        /** when the lease on the claimed rows runs out and another worker may claim them */
+        public Instant getExpiresAt() { return expiresAt; }
+    }
+}
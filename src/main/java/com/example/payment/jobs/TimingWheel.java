@@ -0,0 +1,133 @@
+package com.example.payment.jobs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hierarchical hashed timing wheel keyed by id. Level 0 has one slot per tick; every further level has slots
+ * {@value #SLOTS} times as wide, and its entries cascade down a level when the wheel reaches their slot. Scheduling,
+ * rescheduling and cancelling are O(1); advancing costs one slot per elapsed tick plus the entries that cascade or
+ * expire. Ids scheduled at or before the current tick expire on the next {@link #advance}.
+ */
+final class TimingWheel {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final int levels;
+    private final List<List<Set<Entry>>> wheel;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<Entry> overdue = new LinkedHashSet<>();
+    private long currentTick;
+
+    /**
+     * @param rangeMillis how far ahead of the current time ids can be scheduled
+     */
+    TimingWheel(long tickMillis, long rangeMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        long ticks = Math.max(1, rangeMillis / tickMillis);
+        int n = 1;
+        while (n * BITS < 63 && ticks >= 1L << (n * BITS)) n++;
+        this.levels = n;
+        this.wheel = new ArrayList<>(levels);
+        for (int l = 0; l < levels; l++) {
+            List<Set<Entry>> slots = new ArrayList<>(SLOTS);
+            for (int i = 0; i < SLOTS; i++) slots.add(new LinkedHashSet<>());
+            wheel.add(slots);
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules (or reschedules) {@code id} to expire at {@code dueMillis}. Returns false, leaving any earlier
+     * schedule of the id cancelled, if the time is beyond the wheel's range.
+     */
+    synchronized boolean schedule(String id, long dueMillis) {
+        cancel(id);
+        Entry e = new Entry(id, dueMillis / tickMillis);
+        if (!place(e)) return false;
+        entries.put(id, e);
+        return true;
+    }
+
+    synchronized void cancel(String id) {
+        Entry e = entries.remove(id);
+        if (e != null && e.slot != null) e.slot.remove(e);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Moves the wheel to {@code nowMillis} and returns the ids that expired on the way, in expiry order.
+     */
+    synchronized List<String> advance(long nowMillis) {
+        List<String> expired = new ArrayList<>();
+        drain(overdue, expired);
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            for (int l = levels - 1; l > 0; l--) {
+                if ((currentTick & ((1L << (l * BITS)) - 1)) == 0) cascade(wheel.get(l).get(slotIndex(currentTick, l)));
+            }
+            drain(wheel.get(0).get(slotIndex(currentTick, 0)), expired);
+            drain(overdue, expired);
+        }
+        return expired;
+    }
+
+    private void cascade(Set<Entry> slot) {
+        if (slot.isEmpty()) return;
+        List<Entry> moving = new ArrayList<>(slot);
+        slot.clear();
+        for (Entry e : moving) place(e);
+    }
+
+    private void drain(Set<Entry> slot, List<String> expired) {
+        if (slot.isEmpty()) return;
+        for (Entry e : slot) {
+            entries.remove(e.id);
+            expired.add(e.id);
+        }
+        slot.clear();
+    }
+
+    private boolean place(Entry e) {
+        long delta = e.dueTick - currentTick;
+        if (delta <= 0) {
+            e.slot = overdue;
+            overdue.add(e);
+            return true;
+        }
+        for (int l = 0; l < levels; l++) {
+            if (delta < 1L << ((l + 1) * BITS)) {
+                e.slot = wheel.get(l).get(slotIndex(e.dueTick, l));
+                e.slot.add(e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int slotIndex(long tick, int level) {
+        return (int) ((tick >>> (level * BITS)) & MASK);
+    }
+
+    private static final class Entry {
+        final String id;
+        final long dueTick;
+        Set<Entry> slot;
+
+        Entry(String id, long dueTick) {
+            this.id = id;
+            this.dueTick = dueTick;
+        }
+    }
+}
@@ -39,6 +39,20 @@ public class SubscriptionEntity {
 
     @Column(name = "updated_at")
     private Instant updatedAt;
+    @Column(name = "dunning_attempts")
+    private Integer dunningAttempts = 0;
+
+    @Column(name = "past_due_since")
+    private Instant pastDueSince;
+
+    @Column(name = "next_retry_at")
+    private Instant nextRetryAt;
+
+    @Column(name = "renewal_claimed_by")
+    private String renewalClaimedBy;
+
+    @Column(name = "renewal_claimed_until")
+    private Instant renewalClaimedUntil;
     @Version
     private Long version;
 
@@ -65,6 +79,16 @@ public class SubscriptionEntity {
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+    public Integer getDunningAttempts() { return dunningAttempts; }
+    public void setDunningAttempts(Integer dunningAttempts) { this.dunningAttempts = dunningAttempts; }
+    public Instant getPastDueSince() { return pastDueSince; }
+    public void setPastDueSince(Instant pastDueSince) { this.pastDueSince = pastDueSince; }
+    public Instant getNextRetryAt() { return nextRetryAt; }
+    public void setNextRetryAt(Instant nextRetryAt) { this.nextRetryAt = nextRetryAt; }
+    public String getRenewalClaimedBy() { return renewalClaimedBy; }
+    public void setRenewalClaimedBy(String renewalClaimedBy) { this.renewalClaimedBy = renewalClaimedBy; }
+    public Instant getRenewalClaimedUntil() { return renewalClaimedUntil; }
+    public void setRenewalClaimedUntil(Instant renewalClaimedUntil) { this.renewalClaimedUntil = renewalClaimedUntil; }
     public Long getVersion() { return version; }
     public void setVersion(Long version) { this.version = version; }
 }
@@ -49,6 +49,9 @@ public class TransactionEntity {
     @Column(name = "gateway_message")
     private String gatewayMessage;
 
+    @Column(name = "billing_cycle_key")
+    private String billingCycleKey;
+
     // getters and setters
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
@@ -76,4 +79,6 @@ public class TransactionEntity {
     public void setGatewayResponse(String gatewayResponse) { this.gatewayResponse = gatewayResponse; }
     public String getGatewayMessage() { return gatewayMessage; }
     public void setGatewayMessage(String gatewayMessage) { this.gatewayMessage = gatewayMessage; }
+    public String getBillingCycleKey() { return billingCycleKey; }
+    public void setBillingCycleKey(String billingCycleKey) { this.billingCycleKey = billingCycleKey; }
 }
@@ -7,4 +7,9 @@ import org.springframework.stereotype.Repository;
 public interface TransactionRepository extends CrudRepository<TransactionEntity, String> {
 	java.util.List<TransactionEntity> findByOrderIdAndTypeOrderByCreatedAtDesc(String orderId, com.example.payment.persistence.enums.TransactionType type);
 	java.util.List<TransactionEntity> findByOrderIdOrderByCreatedAtDesc(String orderId);
+	java.util.List<TransactionEntity> findByOrderIdIn(java.util.Collection<String> orderIds);
+	java.util.List<TransactionEntity> findByGatewayTransactionIdOrderByCreatedAtAsc(String gatewayTransactionId);
+	java.util.Optional<TransactionEntity> findByBillingCycleKey(String billingCycleKey);
+	java.util.List<TransactionEntity> findByBillingCycleKeyIn(java.util.Collection<String> billingCycleKeys);
+	java.util.List<TransactionEntity> findByGatewayTransactionIdIn(java.util.Collection<String> gatewayTransactionIds);
 }
@@ -15,7 +15,8 @@ public class WebhookEventEntity {
     @Column(name = "source")
     private String source;
 
-    @Column(name = "payload", columnDefinition = "CLOB")
+    /** stored compressed in webhook_payloads (see WebhookPayloadStore), not on this row */
+    @Transient
     private String payload;
 
     @Enumerated(EnumType.STRING)
@@ -28,6 +29,21 @@ public class WebhookEventEntity {
     @Column(name = "processed_at")
     private Instant processedAt;
 
+    @Column(name = "correlation_id")
+    private String correlationId;
+
+    @Column(name = "notification_id")
+    private String notificationId;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
     @Version
     private Long version;
 
@@ -43,6 +59,16 @@ public class WebhookEventEntity {
     public void setReceivedAt(Instant receivedAt) { this.receivedAt = receivedAt; }
     public Instant getProcessedAt() { return processedAt; }
     public void setProcessedAt(Instant processedAt) { this.processedAt = processedAt; }
+    public String getCorrelationId() { return correlationId; }
+    public void setCorrelationId(String correlationId) { this.correlationId = correlationId; }
+    public String getNotificationId() { return notificationId; }
+    public void setNotificationId(String notificationId) { this.notificationId = notificationId; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public Instant getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Instant nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
     public Long getVersion() { return version; }
     public void setVersion(Long version) { this.version = version; }
 }
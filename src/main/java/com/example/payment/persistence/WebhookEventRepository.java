@@ -1,9 +1,57 @@
 package com.example.payment.persistence;
 
+import com.example.payment.persistence.enums.WebhookEventStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface WebhookEventRepository extends CrudRepository<WebhookEventEntity, String> {
 
+    @Query("select e.id from WebhookEventEntity e where e.status = :status and e.receivedAt < :before order by e.receivedAt")
+    List<String> findIdsByStatusReceivedBefore(@Param("status") WebhookEventStatus status, @Param("before") Instant before, Pageable page);
+
+    @Query("select min(e.receivedAt) from WebhookEventEntity e where e.status = :status")
+    Instant findOldestReceivedAt(@Param("status") WebhookEventStatus status);
+
+    @Query("select e.id from WebhookEventEntity e where e.notificationId = :notificationId")
+    Optional<String> findIdByNotificationId(@Param("notificationId") String notificationId);
+
+    @Query("select e.id from WebhookEventEntity e where e.status in :statuses and e.nextAttemptAt <= :now order by e.nextAttemptAt")
+    List<String> findIdsDueForRetry(@Param("statuses") Collection<WebhookEventStatus> statuses, @Param("now") Instant now, Pageable page);
+
+    /**
+     * Moves an event that is RECEIVED, or FAILED or PROCESSING with {@code next_attempt_at} reached, to PROCESSING
+     * until {@code leaseUntil}. Returns 1 for the one caller that gets to process it, 0 for everybody else.
+     */
+    @Transactional
+    @Modifying
+    @Query("update WebhookEventEntity e set e.status = com.example.payment.persistence.enums.WebhookEventStatus.PROCESSING, "
+            + "e.nextAttemptAt = :leaseUntil, e.version = e.version + 1 "
+            + "where e.id = :id and (e.status = com.example.payment.persistence.enums.WebhookEventStatus.RECEIVED "
+            + "or (e.status in (com.example.payment.persistence.enums.WebhookEventStatus.FAILED, "
+            + "com.example.payment.persistence.enums.WebhookEventStatus.PROCESSING) and e.nextAttemptAt <= :now))")
+    int claim(@Param("id") String id, @Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil);
+
+    /**
+     * Moves dead-lettered events received in [from, to) back to FAILED with a fresh attempt budget, due now.
+     */
+    @Transactional
+    @Modifying
+    @Query("update WebhookEventEntity e set e.status = :to, e.attempts = 0, e.nextAttemptAt = :now, e.version = e.version + 1 "
+            + "where e.status = :from and e.receivedAt >= :receivedFrom and e.receivedAt < :receivedTo")
+    int requeue(@Param("from") WebhookEventStatus from, @Param("to") WebhookEventStatus to, @Param("now") Instant now,
+                @Param("receivedFrom") Instant receivedFrom, @Param("receivedTo") Instant receivedTo);
+
+    @Query("select e.status, count(e) from WebhookEventEntity e group by e.status")
+    List<Object[]> countByStatus();
 }
@@ -0,0 +1,12 @@
+package com.example.payment.service;
+
+import com.example.payment.api.dto.SubscriptionForecastResponse;
+
+public interface SubscriptionForecastService {
+    /**
+     * What ACTIVE subscriptions will bill over the next {@code days} days (today included), per currency.
+     *
+     * @throws IllegalArgumentException if {@code days} is outside 1..{@code subscription.forecast.max-days}
+     */
+    SubscriptionForecastResponse forecast(int days);
+}
@@ -0,0 +1,17 @@
+package com.example.payment.service;
+
+import com.example.payment.api.dto.SubscriptionImportResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface SubscriptionImportService {
+
+    enum Format { CSV, NDJSON }
+
+    /**
+     * Creates ACTIVE subscriptions from {@code in}, one per CSV row or NDJSON line, reading the stream once.
+     * Invalid rows are reported and skipped; the rest are inserted in batches.
+     */
+    SubscriptionImportResponse importSubscriptions(InputStream in, Format format) throws IOException;
+}
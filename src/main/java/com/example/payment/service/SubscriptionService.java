@@ -2,11 +2,122 @@ package com.example.payment.service;
 
 import com.example.payment.persistence.SubscriptionEntity;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface SubscriptionService {
+
+    /**
+     * A subscription whose current cycle may or may not have been charged (a PENDING cycle transaction left by a
+     * crash); renewals skip it until {@link #resolveCycle} records what the gateway shows.
+     */
+    String BILLING_REVIEW = "BILLING_REVIEW";
+
     SubscriptionEntity createSubscription(SubscriptionEntity req);
     Optional<SubscriptionEntity> getSubscription(String id);
-    void renewDueSubscriptions();
-    void renewSubscription(String id);
+
+    /**
+     * Idempotency key of the billing cycle {@code s} is due for: {@code <subscriptionId>:<nextBillingAt>}.
+     * At most one PENDING or COMPLETED renewal transaction carries a given key (unique index).
+     */
+    static String cycleKey(SubscriptionEntity s) {
+        return s.getId() + ":" + s.getNextBillingAt();
+    }
+
+    /**
+     * Opens the current billing cycle of each subscription in {@code ids} still claimed by {@code claimToken}
+     * and returns those that need charging; cycles found already billed are completed without a charge, and
+     * cycles with an earlier attempt of unknown outcome are moved to {@link #BILLING_REVIEW} without a charge.
+     */
+    List<SubscriptionEntity> openCycles(String claimToken, List<String> ids);
+
+    /**
+     * Removes the PENDING cycle transactions {@link #openCycles} created for subscriptions that were then not
+     * charged at all (e.g. the run ran out of time), so their next claim opens and charges the cycle normally.
+     * Must only be given subscriptions whose charge never reached the gateway.
+     */
+    void abandonCycles(List<SubscriptionEntity> notCharged);
+
+    /**
+     * Closes the current cycle of a subscription in {@link #BILLING_REVIEW} after it was checked at the gateway:
+     * {@code charged} completes the cycle transaction with {@code gatewayTransactionId} and advances the
+     * subscription; otherwise the attempt is marked FAILED and the cycle is charged again by the next renewal.
+     *
+     * @throws IllegalArgumentException if there is no such subscription
+     * @throws IllegalStateException if the subscription is not in review
+     */
+    SubscriptionEntity resolveCycle(String id, boolean charged, String gatewayTransactionId);
+
+    /**
+     * Charges one billing cycle of {@code s} through the payment gateway (authorize, then capture; an authorization
+     * that is not captured is voided). Never throws: a decline comes back {@link ChargeOutcome#DECLINED}, an error
+     * after which the gateway may have billed the card comes back {@link ChargeOutcome#UNKNOWN}. Does not touch
+     * the database.
+     */
+    ChargeResult charge(SubscriptionEntity s);
+
+    /**
+     * Records, in a single transaction, the outcome of charging subscriptions claimed by {@code claimToken} on
+     * the cycle transactions opened by {@link #openCycles} (COMPLETED or FAILED); successful charges advance the billing date and end
+     * dunning, declined ones move the subscription to PAST_DUE with its next retry, and unknown outcomes move it to
+     * {@link #BILLING_REVIEW} with the cycle transaction UNKNOWN. Claims are released either way.
+     * Results for rows no longer claimed by the token only update the cycle transaction.
+     */
+    RenewalChunk recordCharges(String claimToken, List<ChargeResult> results);
+
+    enum ChargeOutcome {
+        CHARGED,
+        /** the gateway answered and did not bill: declined, or the authorization was voided */
+        DECLINED,
+        /** the call failed in a way that leaves open whether the card was billed (timeout, lost response) */
+        UNKNOWN
+    }
+
+    class ChargeResult {
+        private final String subscriptionId;
+        private final String cycleKey;
+        private final long amountCents;
+        private final String currency;
+        private final ChargeOutcome outcome;
+        private final String gatewayTransactionId;
+        private final String message;
+
+        public ChargeResult(String subscriptionId, String cycleKey, long amountCents, String currency, ChargeOutcome outcome,
+                            String gatewayTransactionId, String message) {
+            this.subscriptionId = subscriptionId;
+            this.cycleKey = cycleKey;
+            this.amountCents = amountCents;
+            this.currency = currency;
+            this.outcome = outcome;
+            this.gatewayTransactionId = gatewayTransactionId;
+            this.message = message;
+        }
+
+        public String getSubscriptionId() { return subscriptionId; }
+        public String getCycleKey() { return cycleKey; }
+        public long getAmountCents() { return amountCents; }
+        public String getCurrency() { return currency; }
+        public ChargeOutcome getOutcome() { return outcome; }
+        public boolean isSuccess() { return outcome == ChargeOutcome.CHARGED; }
+        public String getGatewayTransactionId() { return gatewayTransactionId; }
+        public String getMessage() { return message; }
+    }
+
+    class RenewalChunk {
+        private final List<String> renewedIds;
+        private final List<String> failedIds;
+        private final List<String> parkedIds;
+
+        public RenewalChunk(List<String> renewedIds, List<String> failedIds, List<String> parkedIds) {
+            this.renewedIds = renewedIds;
+            this.failedIds = failedIds;
+            this.parkedIds = parkedIds;
+        }
+
+        public List<String> getRenewedIds() { return renewedIds; }
+        /** subscriptions whose charge was declined, recorded as FAILED and put into dunning */
+        public List<String> getFailedIds() { return failedIds; }
+        /** subscriptions whose charge outcome is unknown, moved to BILLING_REVIEW */
+        public List<String> getParkedIds() { return parkedIds; }
+    }
 }
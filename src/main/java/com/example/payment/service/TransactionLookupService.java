@@ -0,0 +1,10 @@
+package com.example.payment.service;
+
+import com.example.payment.api.dto.GatewayTransactionLookupResponse;
+
+public interface TransactionLookupService {
+    /**
+     * Order and transactions recorded for an Authorize.Net transId, or null if we have none.
+     */
+    GatewayTransactionLookupResponse findByGatewayTransactionId(String gatewayTransactionId);
+}
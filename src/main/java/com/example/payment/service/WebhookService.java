@@ -1,5 +1,18 @@
 package com.example.payment.service;
 
 public interface WebhookService {
-    String handleWebhook(String payload, String source, String signatureHeader, String correlationId);
+    Receipt handleWebhook(String payload, String source, String signatureHeader, String correlationId);
+
+    class Receipt {
+        private final String id;
+        private final boolean duplicate;
+
+        public Receipt(String id, boolean duplicate) {
+            this.id = id;
+            this.duplicate = duplicate;
+        }
+
+        public String getId() { return id; }
+        public boolean isDuplicate() { return duplicate; }
+    }
 }
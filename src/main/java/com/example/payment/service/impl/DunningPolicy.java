@@ -0,0 +1,62 @@
+package com.example.payment.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Retry schedule for subscriptions whose renewal charge failed. {@code subscription.dunning.schedule} lists
+ * offsets from the first failed charge, e.g. {@code 1d,3d,7d}: retry one, three and seven days after it went
+ * PAST_DUE. When the last retry fails the subscription moves to {@code subscription.dunning.final-status}.
+ */
+@Component
+public class DunningPolicy {
+
+    public static final String PAST_DUE = "PAST_DUE";
+
+    private final List<Duration> schedule;
+    private final String finalStatus;
+
+    public DunningPolicy(@Value("${subscription.dunning.schedule:1d,3d,7d}") String schedule,
+                         @Value("${subscription.dunning.final-status:UNPAID}") String finalStatus) {
+        this.schedule = parse(schedule);
+        this.finalStatus = finalStatus;
+    }
+
+    /**
+     * When to retry after {@code failedAttempts} failed charges of a subscription that went PAST_DUE at
+     * {@code pastDueSince}; null once the schedule is used up.
+     */
+    public Instant nextRetryAt(Instant pastDueSince, int failedAttempts) {
+        if (failedAttempts < 1 || failedAttempts > schedule.size()) return null;
+        return pastDueSince.plus(schedule.get(failedAttempts - 1));
+    }
+
+    public String getFinalStatus() { return finalStatus; }
+
+    public List<Duration> getSchedule() { return schedule; }
+
+    static List<Duration> parse(String spec) {
+        List<Duration> out = new ArrayList<>();
+        if (spec == null) return out;
+        for (String part : spec.split(",")) {
+            String p = part.trim().toLowerCase();
+            if (p.isEmpty()) continue;
+            long n = Long.parseLong(p.substring(0, p.length() - 1));
+            switch (p.charAt(p.length() - 1)) {
+                case 'd': out.add(Duration.ofDays(n)); break;
+                case 'h': out.add(Duration.ofHours(n)); break;
+                case 'm': out.add(Duration.ofMinutes(n)); break;
+                case 's': out.add(Duration.ofSeconds(n)); break;
+                default: throw new IllegalArgumentException("bad dunning schedule entry '" + part + "', expected e.g. 3d, 12h, 30m");
+            }
+        }
+        Collections.sort(out);
+        return Collections.unmodifiableList(out);
+    }
+}
@@ -14,8 +14,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import com.example.payment.service.InvalidOrderStateException;
-import java.util.UUID;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
 import io.micrometer.core.instrument.MeterRegistry;
 
 import com.example.payment.gateway.mapper.AuthorizeNetRequest;
@@ -24,6 +24,7 @@ import com.example.payment.persistence.TransactionEntity;
 import com.example.payment.persistence.TransactionRepository;
 import com.example.payment.service.PaymentService;
 import com.example.payment.persistence.enums.TransactionType;
+import com.example.payment.util.TimeOrderedIds;
 
 @Service
 public class OrderServiceImpl implements OrderService {
@@ -51,7 +52,7 @@ public class OrderServiceImpl implements OrderService {
     @Override
     public OrderResponse createOrder(OrderRequest req) {
         OrderEntity e = new OrderEntity();
-        e.setId(UUID.randomUUID().toString());
+        e.setId(TimeOrderedIds.next());
         e.setExternalOrderId(req.getExternalOrderId());
         e.setCustomerId(req.getCustomerId());
         e.setAmountCents(req.getAmountCents());
@@ -87,7 +88,7 @@ public class OrderServiceImpl implements OrderService {
                         // persist a transaction record if repo available
                         if (transactionRepository != null) {
                             TransactionEntity t = new TransactionEntity();
-                            t.setId(UUID.randomUUID().toString());
+                            t.setId(TimeOrderedIds.next());
                             t.setOrderId(e.getId());
                             t.setAmountCents(e.getAmountCents());
                             t.setCurrency(e.getCurrency());
@@ -124,9 +125,10 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public OrderResponse getOrder(String id) {
         if (orderRepository == null) return null;
-        return orderRepository.findById(id).map(this::toResponse).orElse(null);
+        return orderRepository.findById(id).map(OrderServiceImpl::toResponse).orElse(null);
     }
 
     @Override
@@ -157,7 +159,7 @@ public class OrderServiceImpl implements OrderService {
             if (auth != null && auth.isSuccess()) {
                 if (transactionRepository != null) {
                     TransactionEntity t = new TransactionEntity();
-                    t.setId(UUID.randomUUID().toString());
+                    t.setId(TimeOrderedIds.next());
                     t.setOrderId(e.getId());
                     t.setAmountCents(e.getAmountCents());
                     t.setCurrency(e.getCurrency());
@@ -221,7 +223,7 @@ public class OrderServiceImpl implements OrderService {
             if (cap != null && cap.isSuccess()) {
                 if (transactionRepository != null) {
                     TransactionEntity t = new TransactionEntity();
-                    t.setId(UUID.randomUUID().toString());
+                    t.setId(TimeOrderedIds.next());
                     t.setOrderId(e.getId());
                     t.setAmountCents(e.getAmountCents());
                     t.setCurrency(e.getCurrency());
@@ -284,7 +286,7 @@ public class OrderServiceImpl implements OrderService {
             if (v != null && v.isSuccess()) {
                 if (transactionRepository != null) {
                     TransactionEntity t = new TransactionEntity();
-                    t.setId(UUID.randomUUID().toString());
+                    t.setId(TimeOrderedIds.next());
                     t.setOrderId(e.getId());
                     t.setAmountCents(0L);
                     t.setCurrency(e.getCurrency());
@@ -348,7 +350,7 @@ public class OrderServiceImpl implements OrderService {
             if (ref != null && ref.isSuccess()) {
                 if (transactionRepository != null) {
                     TransactionEntity t = new TransactionEntity();
-                    t.setId(UUID.randomUUID().toString());
+                    t.setId(TimeOrderedIds.next());
                     t.setOrderId(e.getId());
                     t.setAmountCents(refundAmount);
                     t.setCurrency(e.getCurrency());
@@ -387,7 +389,8 @@ public class OrderServiceImpl implements OrderService {
         return toResponse(e);
     }
 
-    private OrderResponse toResponse(OrderEntity e) {
+    /** the API view of an order; also used by the gateway transaction lookup */
+    static OrderResponse toResponse(OrderEntity e) {
         OrderResponse r = new OrderResponse();
         r.setId(e.getId());
         r.setExternalOrderId(e.getExternalOrderId());
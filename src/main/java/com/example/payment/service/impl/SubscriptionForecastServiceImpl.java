@@ -0,0 +1,124 @@
+package com.example.payment.service.impl;
+
+import com.example.payment.api.dto.SubscriptionForecastResponse;
+import com.example.payment.api.dto.SubscriptionForecastResponse.CurrencyForecast;
+import com.example.payment.service.SubscriptionForecastService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Billing forecast without loading subscriptions: the database groups ACTIVE subscriptions due in the window by
+ * (currency, interval, billing day) and returns counts and amounts per group, and the recurrences of each group
+ * inside the window are projected here. The result has at most currencies x intervals x days groups whatever
+ * the number of subscriptions, and the query is answered from idx_subscriptions_forecast alone.
+ *
+ * Projections follow {@code SubscriptionServiceImpl.markCharged}: a subscription without an interval renews every
+ * 30 days, and a charge moves nextBillingAt one interval past the billing date it paid, not past the day it ran.
+ * An overdue subscription is therefore counted once on the first day, when the next renewal run bills it, and
+ * then from its missed billing date onwards. Results are cached per window for
+ * {@code subscription.forecast.cache-ttl-ms}.
+ */
+@Service
+public class SubscriptionForecastServiceImpl implements SubscriptionForecastService {
+
+    private static final String AGGREGATE_SQL = "SELECT currency, interval_days, CAST(next_billing_at AS DATE) AS billing_day, "
+            + "COUNT(*), COALESCE(SUM(amount_cents), 0) FROM subscriptions WHERE status = 'ACTIVE' AND next_billing_at < ? "
+            + "GROUP BY currency, interval_days, CAST(next_billing_at AS DATE)";
+
+    /** interval of subscriptions without interval_days, as in markCharged */
+    static final int DEFAULT_INTERVAL_DAYS = 30;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int maxDays;
+    private final long ttlMs;
+    private final Map<Integer, Cached> cache = new ConcurrentHashMap<>();
+
+    public SubscriptionForecastServiceImpl(JdbcTemplate jdbcTemplate,
+                                           @Value("${subscription.forecast.max-days:366}") int maxDays,
+                                           @Value("${subscription.forecast.cache-ttl-ms:60000}") long ttlMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxDays = maxDays;
+        this.ttlMs = ttlMs;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SubscriptionForecastResponse forecast(int days) {
+        if (days < 1 || days > maxDays) throw new IllegalArgumentException("days must be between 1 and " + maxDays);
+        long now = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        Cached hit = cache.get(days);
+        if (hit != null && hit.expiresAt > now && hit.response.getFrom().equals(today)) return hit.response;
+
+        SubscriptionForecastResponse response = compute(today, days);
+        if (ttlMs > 0) cache.put(days, new Cached(response, now + ttlMs));
+        return response;
+    }
+
+    private SubscriptionForecastResponse compute(LocalDate today, int days) {
+        LocalDate end = today.plusDays(days);
+        Map<String, CurrencyForecast> byCurrency = new TreeMap<>();
+        jdbcTemplate.query(AGGREGATE_SQL, rs -> {
+            String currency = rs.getString(1);
+            int interval = rs.getInt(2);
+            Integer intervalDays = rs.wasNull() ? null : interval;
+            Date billingDay = rs.getDate(3);
+            long count = rs.getLong(4);
+            long amount = rs.getLong(5);
+            long offset = billingDay == null ? 0 : ChronoUnit.DAYS.between(today, billingDay.toLocalDate());
+            long cycles = cycles(offset, intervalDays, days);
+            if (cycles == 0) return;
+            CurrencyForecast f = byCurrency.computeIfAbsent(currency == null ? "" : currency, c -> {
+                CurrencyForecast cf = new CurrencyForecast();
+                cf.setCurrency(c);
+                return cf;
+            });
+            f.setSubscriptions(f.getSubscriptions() + count);
+            f.setRenewals(f.getRenewals() + count * cycles);
+            f.setAmountCents(f.getAmountCents() + amount * cycles);
+        }, Timestamp.valueOf(end.atStartOfDay()));
+
+        SubscriptionForecastResponse r = new SubscriptionForecastResponse();
+        r.setDays(days);
+        r.setFrom(today);
+        r.setTo(end);
+        r.setGeneratedAt(Instant.now());
+        r.setCurrencies(new ArrayList<>(byCurrency.values()));
+        return r;
+    }
+
+    /**
+     * Billing cycles in days [0, days) of a subscription due on day {@code offset} and every {@code intervalDays}
+     * days after ({@link #DEFAULT_INTERVAL_DAYS} if null, a single charge if 0 or less). A negative offset is an
+     * overdue subscription: it is charged on day 0 and its next cycle is due {@code offset + intervalDays}.
+     */
+    static long cycles(long offset, Integer intervalDays, int days) {
+        if (offset >= days) return 0;
+        int interval = intervalDays == null ? DEFAULT_INTERVAL_DAYS : intervalDays;
+        if (interval <= 0) return 1;
+        // overdue: the charge on day 0 stands in for the one at offset, so the count is the same
+        return (days - 1 - offset) / interval + 1;
+    }
+
+    private static final class Cached {
+        final SubscriptionForecastResponse response;
+        final long expiresAt;
+
+        Cached(SubscriptionForecastResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.payment.service.impl;
+
+import com.example.payment.api.dto.SubscriptionImportResponse;
+import com.example.payment.api.dto.SubscriptionImportResponse.RowError;
+import com.example.payment.events.SubscriptionCreatedEvent;
+import com.example.payment.service.SubscriptionImportService;
+import com.example.payment.util.TimeOrderedIds;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk creation of subscriptions for migrations. The input is read line by line and rows are inserted with
+ * JDBC batches of {@code subscription.import.batch-size}, each committed on its own, so memory stays flat
+ * however large the file and a failure late in the file does not undo what was already imported.
+ *
+ * Rows carry customerId, planId, amountCents, currency and optionally id, intervalDays (default 30) and
+ * nextBillingAt (ISO-8601, default now + interval). A row that fails validation is reported and skipped. A batch
+ * the database rejects (e.g. an id imported before) is retried row by row to find the rows at fault, so a file
+ * with ids can be imported again after an interrupted load. With {@code subscription.import.require-uuid-ids}
+ * (set it when keys are stored as native uuid, see db/optional/postgres-uuid) a given id must be a UUID.
+ */
+@Service
+public class SubscriptionImportServiceImpl implements SubscriptionImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(SubscriptionImportServiceImpl.class);
+
+    static final String INSERT_SQL = "INSERT INTO subscriptions (id, customer_id, plan_id, amount_cents, currency, status, "
+            + "interval_days, next_billing_at, created_at, updated_at, version) VALUES (?, ?, ?, ?, ?, 'ACTIVE', ?, ?, ?, ?, 0)";
+
+    private static final int MAX_INTERVAL_DAYS = 3660;
+    private static final String[] REQUIRED_COLUMNS = {"customerid", "amountcents", "currency"};
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int batchSize;
+    private final int maxReportedErrors;
+    private final boolean requireUuidIds;
+    @Autowired(required = false)
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    public SubscriptionImportServiceImpl(JdbcTemplate jdbcTemplate,
+                                         PlatformTransactionManager transactionManager,
+                                         @Value("${subscription.import.batch-size:500}") int batchSize,
+                                         @Value("${subscription.import.max-reported-errors:1000}") int maxReportedErrors,
+                                         @Value("${subscription.import.require-uuid-ids:false}") boolean requireUuidIds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxReportedErrors = Math.max(0, maxReportedErrors);
+        this.requireUuidIds = requireUuidIds;
+    }
+
+    @Override
+    public SubscriptionImportResponse importSubscriptions(InputStream in, Format format) throws IOException {
+        long started = System.nanoTime();
+        SubscriptionImportResponse report = new SubscriptionImportResponse();
+        report.setFormat(format.name());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        List<Row> batch = new ArrayList<>(batchSize);
+        String[] header = null;
+        long lineNo = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            if (lineNo == 1 && line.startsWith("\uFEFF")) line = line.substring(1);
+            if (line.trim().isEmpty()) continue;
+            if (format == Format.CSV && header == null) {
+                try {
+                    header = normalize(splitCsv(line));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("invalid CSV header: " + ex.getMessage());
+                }
+                for (String required : REQUIRED_COLUMNS) {
+                    if (!Arrays.asList(header).contains(required)) {
+                        throw new IllegalArgumentException("CSV header has no " + required + " column");
+                    }
+                }
+                continue;
+            }
+            report.setRows(report.getRows() + 1);
+            Map<String, String> fields = null;
+            try {
+                fields = format == Format.CSV ? csvFields(header, line) : jsonFields(line);
+                batch.add(toRow(lineNo, fields));
+            } catch (IllegalArgumentException ex) {
+                reject(report, lineNo, fields == null ? null : fields.get("id"), ex.getMessage());
+            }
+            if (batch.size() >= batchSize) {
+                insert(batch, report);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) insert(batch, report);
+        report.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("Subscription import ({}) finished rows={} imported={} rejected={} tookMs={} correlationId={}", format,
+                report.getRows(), report.getImported(), report.getRejected(), report.getDurationMs(), MDC.get("correlationId"));
+        return report;
+    }
+
+    private void insert(List<Row> batch, SubscriptionImportResponse report) {
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Row r : batch) args.add(r.args);
+        try {
+            transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(INSERT_SQL, args));
+            for (Row r : batch) imported(report, r);
+        } catch (DataAccessException batchFailed) {
+            // the batch was rolled back as a whole; find the rows at fault one by one
+            for (Row r : batch) {
+                try {
+                    jdbcTemplate.update(INSERT_SQL, r.args);
+                    imported(report, r);
+                } catch (DuplicateKeyException ex) {
+                    reject(report, r.line, r.id, "subscription " + r.id + " already exists");
+                } catch (DataAccessException ex) {
+                    reject(report, r.line, r.id, String.valueOf(ex.getMostSpecificCause().getMessage()));
+                }
+            }
+        }
+    }
+
+    private void imported(SubscriptionImportResponse report, Row r) {
+        report.setImported(report.getImported() + 1);
+        count("imported");
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(new SubscriptionCreatedEvent(r.id, r.nextBillingAt, MDC.get("correlationId"), Instant.now(), "1.0"));
+        }
+    }
+
+    private void reject(SubscriptionImportResponse report, long line, String id, String error) {
+        report.setRejected(report.getRejected() + 1);
+        count("rejected");
+        if (report.getErrors().size() < maxReportedErrors) {
+            report.getErrors().add(new RowError(line, id, error));
+        } else {
+            report.setErrorsTruncated(true);
+        }
+    }
+
+    Row toRow(long line, Map<String, String> f) {
+        String id = blankToNull(f.get("id"));
+        if (id == null) id = TimeOrderedIds.next();
+        else if (id.length() > 255) throw new IllegalArgumentException("id is longer than 255 characters");
+        else if (requireUuidIds && !UUID_PATTERN.matcher(id).matches()) throw new IllegalArgumentException("id must be a UUID");
+        String customerId = blankToNull(f.get("customerid"));
+        if (customerId == null) throw new IllegalArgumentException("customerId is required");
+        String planId = blankToNull(f.get("planid"));
+        long amountCents = parseLong(f.get("amountcents"), "amountCents");
+        if (amountCents <= 0) throw new IllegalArgumentException("amountCents must be positive");
+        String currency = blankToNull(f.get("currency"));
+        if (currency == null || !currency.matches("[A-Za-z]{3}")) throw new IllegalArgumentException("currency must be a 3-letter code");
+        String interval = blankToNull(f.get("intervaldays"));
+        long intervalDays = interval == null ? 30 : parseLong(interval, "intervalDays");
+        if (intervalDays < 1 || intervalDays > MAX_INTERVAL_DAYS) {
+            throw new IllegalArgumentException("intervalDays must be between 1 and " + MAX_INTERVAL_DAYS);
+        }
+        Instant now = Instant.now();
+        String next = blankToNull(f.get("nextbillingat"));
+        Instant nextBillingAt;
+        try {
+            nextBillingAt = next == null ? now.plusSeconds(intervalDays * 24 * 3600) : Instant.parse(next);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("nextBillingAt must be an ISO-8601 instant");
+        }
+        Timestamp ts = Timestamp.from(now);
+        Object[] args = {id, customerId, planId, amountCents, currency.toUpperCase(Locale.ROOT), (int) intervalDays,
+                Timestamp.from(nextBillingAt), ts, ts};
+        return new Row(line, id, nextBillingAt, args);
+    }
+
+    private Map<String, String> csvFields(String[] header, String line) {
+        List<String> values = splitCsv(line);
+        if (values.size() != header.length) {
+            throw new IllegalArgumentException("expected " + header.length + " fields, got " + values.size());
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < header.length; i++) fields.put(header[i], values.get(i));
+        return fields;
+    }
+
+    private Map<String, String> jsonFields(String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("malformed JSON");
+        }
+        if (node == null || !node.isObject()) throw new IllegalArgumentException("expected a JSON object");
+        Map<String, String> fields = new HashMap<>();
+        node.fields().forEachRemaining(e -> {
+            if (!e.getValue().isNull()) fields.put(key(e.getKey()), e.getValue().asText());
+        });
+        return fields;
+    }
+
+    /**
+     * Splits one CSV record (RFC 4180 quoting, but a record cannot span lines).
+     */
+    static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                out.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        out.add(field.toString());
+        return out;
+    }
+
+    private static String[] normalize(List<String> header) {
+        String[] keys = new String[header.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = key(header.get(i));
+        return keys;
+    }
+
+    /** column and property names match case-insensitively, with or without underscores (customer_id, customerId) */
+    private static String key(String name) {
+        return name.trim().replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static long parseLong(String value, String name) {
+        String v = blankToNull(value);
+        if (v == null) throw new IllegalArgumentException(name + " is required");
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.trim().isEmpty() ? null : s.trim();
+    }
+
+    private void count(String outcome) {
+        if (meterRegistry == null) return;
+        try {
+            meterRegistry.counter("subscription.import.rows", "outcome", outcome).increment();
+        } catch (Exception ignore) {}
+    }
+
+    static final class Row {
+        final long line;
+        final String id;
+        final Instant nextBillingAt;
+        final Object[] args;
+
+        Row(long line, String id, Instant nextBillingAt, Object[] args) {
+            this.line = line;
+            this.id = id;
+            this.nextBillingAt = nextBillingAt;
+            this.args = args;
+        }
+    }
+}
@@ -1,24 +1,35 @@
 package com.example.payment.service.impl;
 
+import com.example.payment.gateway.mapper.AuthorizeNetRequest;
+import com.example.payment.gateway.mapper.AuthorizeNetResponse;
 import com.example.payment.persistence.SubscriptionEntity;
 import com.example.payment.persistence.SubscriptionRepository;
 import com.example.payment.persistence.TransactionEntity;
 import com.example.payment.persistence.TransactionRepository;
 import com.example.payment.persistence.enums.TransactionType;
+import com.example.payment.service.PaymentService;
 import com.example.payment.service.SubscriptionService;
+import com.example.payment.service.SubscriptionService.ChargeOutcome;
+import com.example.payment.util.TimeOrderedIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import io.micrometer.core.instrument.MeterRegistry;
 
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 @Service
 public class SubscriptionServiceImpl implements SubscriptionService {
@@ -26,20 +37,39 @@ public class SubscriptionServiceImpl implements SubscriptionService {
     private final Logger log = LoggerFactory.getLogger(SubscriptionServiceImpl.class);
     private final SubscriptionRepository subscriptionRepository;
     private final TransactionRepository transactionRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PaymentService paymentService;
+    private final DunningPolicy dunningPolicy;
     @Autowired(required = false)
     private ApplicationEventPublisher eventPublisher;
     @Autowired(required = false)
     private MeterRegistry meterRegistry;
 
-    public SubscriptionServiceImpl(SubscriptionRepository subscriptionRepository, TransactionRepository transactionRepository) {
+    static final String INSERT_INTENT_SQL = "INSERT INTO transactions (id, order_id, amount_cents, currency, type, status, "
+            + "created_at, updated_at, gateway, billing_cycle_key, version) VALUES (?, ?, ?, ?, ?, 'PENDING', ?, ?, 'authorize_net', ?, 0)";
+    static final String COMPLETE_INTENT_SQL = "UPDATE transactions SET status = 'COMPLETED', gateway_transaction_id = ?, gateway_message = ?, "
+            + "updated_at = ?, version = version + 1 WHERE billing_cycle_key = ?";
+    // a failed attempt gives the cycle key up so the dunning retry of the same cycle can take it
+    // the charge of this cycle may have gone through; the cycle key stays so nothing charges it again
+    static final String PARK_INTENT_SQL = "UPDATE transactions SET status = 'UNKNOWN', gateway_transaction_id = COALESCE(?, gateway_transaction_id), "
+            + "gateway_message = ?, updated_at = ?, version = version + 1 WHERE billing_cycle_key = ? AND status IN ('PENDING', 'UNKNOWN')";
+    static final String ABANDON_INTENT_SQL = "DELETE FROM transactions WHERE billing_cycle_key = ? AND status = 'PENDING'";
+    static final String FAIL_INTENT_SQL = "UPDATE transactions SET status = 'FAILED', gateway_transaction_id = ?, gateway_message = ?, "
+            + "updated_at = ?, billing_cycle_key = NULL, version = version + 1 WHERE billing_cycle_key = ?";
+
+    public SubscriptionServiceImpl(SubscriptionRepository subscriptionRepository, TransactionRepository transactionRepository,
+                                   JdbcTemplate jdbcTemplate, PaymentService paymentService, DunningPolicy dunningPolicy) {
         this.subscriptionRepository = subscriptionRepository;
         this.transactionRepository = transactionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentService = paymentService;
+        this.dunningPolicy = dunningPolicy;
     }
 
     @Override
     @Transactional
     public SubscriptionEntity createSubscription(SubscriptionEntity req) {
-        String id = UUID.randomUUID().toString();
+        String id = TimeOrderedIds.next();
         req.setId(id);
         req.setStatus("ACTIVE");
         Instant now = Instant.now();
@@ -50,6 +80,9 @@ public class SubscriptionServiceImpl implements SubscriptionService {
         req.setNextBillingAt(now.plusSeconds( (long)interval * 24 * 3600 ));
         subscriptionRepository.save(req);
         log.info("Created subscription {} for customer {} correlationId={}", id, req.getCustomerId(), MDC.get("correlationId"));
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(new com.example.payment.events.SubscriptionCreatedEvent(id, req.getNextBillingAt(), MDC.get("correlationId"), now, "1.0"));
+        }
 
         if (meterRegistry != null) {
             try {
@@ -60,58 +93,305 @@ public class SubscriptionServiceImpl implements SubscriptionService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Optional<SubscriptionEntity> getSubscription(String id) {
         return subscriptionRepository.findById(id);
     }
 
+    /**
+     * Commits a PENDING renewal transaction carrying the cycle key for every claimed subscription before it is
+     * charged. A cycle that already has one is either COMPLETED (billed before a crash; the subscription is
+     * advanced here without charging) or PENDING/UNKNOWN: a charge whose outcome was never recorded, which may
+     * have gone through at the gateway. Those are not charged again; the subscription goes to BILLING_REVIEW
+     * until {@link #resolveCycle} is called.
+     */
     @Override
     @Transactional
-    public void renewDueSubscriptions() {
+    public List<SubscriptionEntity> openCycles(String claimToken, List<String> ids) {
+        Map<String, SubscriptionEntity> byKey = new LinkedHashMap<>();
+        for (SubscriptionEntity s : subscriptionRepository.findAllById(ids)) {
+            if (claimToken.equals(s.getRenewalClaimedBy())) byKey.put(SubscriptionService.cycleKey(s), s);
+        }
+        if (byKey.isEmpty()) return Collections.emptyList();
+
+        Map<String, String> existing = new HashMap<>();
+        for (TransactionEntity t : transactionRepository.findByBillingCycleKeyIn(byKey.keySet())) {
+            existing.put(t.getBillingCycleKey(), t.getStatus());
+        }
         Instant now = Instant.now();
-        List<SubscriptionEntity> due = subscriptionRepository.findDueSubscriptions(now);
-        for (SubscriptionEntity s : due) {
-            try {
-                renewSubscription(s.getId());
-            } catch (Exception e) {
-                log.error("Failed to renew subscription {}", s.getId(), e);
+        Timestamp ts = Timestamp.from(now);
+        List<Object[]> intents = new ArrayList<>(byKey.size());
+        List<Object[]> parked = new ArrayList<>();
+        List<SubscriptionEntity> toCharge = new ArrayList<>(byKey.size());
+        for (Map.Entry<String, SubscriptionEntity> e : byKey.entrySet()) {
+            SubscriptionEntity s = e.getValue();
+            String status = existing.get(e.getKey());
+            if ("COMPLETED".equals(status)) {
+                markCharged(s, now);
+                log.warn("Subscription {} cycle {} was already billed, advancing without charging correlationId={}",
+                        s.getId(), e.getKey(), MDC.get("correlationId"));
+                count("subscription.renewal.cycles", "already_billed");
+                continue;
             }
+            if (status != null) {
+                parked.add(park(s, e.getKey(), null, "earlier attempt did not record its outcome", now));
+                continue;
+            }
+            intents.add(new Object[]{TimeOrderedIds.next(), s.getId(), s.getAmountCents(), s.getCurrency(),
+                    TransactionType.CAPTURE.name(), ts, ts, e.getKey()});
+            toCharge.add(s);
         }
+        if (!intents.isEmpty()) jdbcTemplate.batchUpdate(INSERT_INTENT_SQL, intents);
+        if (!parked.isEmpty()) jdbcTemplate.batchUpdate(PARK_INTENT_SQL, parked);
+        return toCharge;
     }
 
+    @Override
+    public ChargeResult charge(SubscriptionEntity s) {
+        long cents = s.getAmountCents() == null ? 0L : s.getAmountCents();
+        String key = SubscriptionService.cycleKey(s);
+        if (paymentService == null) return result(s, key, ChargeOutcome.DECLINED, null, "no payment service");
+        AuthorizeNetRequest req = new AuthorizeNetRequest();
+        req.setAmount(String.format("%.2f", cents / 100.0));
+        req.setCurrency(s.getCurrency());
+        req.setCustomerId(s.getCustomerId());
+        // the cycle key identifies the charge at the gateway too, for reconciling an interrupted attempt
+        req.setExternalId(key);
+        AuthorizeNetResponse auth;
+        try {
+            auth = paymentService.authorize(req);
+        } catch (Exception ex) {
+            // e.g. a read timeout: the gateway may have authorized without us getting the transId
+            log.warn("Renewal authorization for subscription {} has no definite outcome correlationId={}: {}",
+                    s.getId(), MDC.get("correlationId"), ex.toString());
+            return result(s, key, ChargeOutcome.UNKNOWN, null, "authorize: " + ex.getMessage());
+        }
+        if (auth == null || !auth.isSuccess()) {
+            return result(s, key, ChargeOutcome.DECLINED, auth == null ? null : auth.getTransactionId(),
+                    auth == null ? "no gateway response" : auth.getMessage());
+        }
+        AuthorizeNetResponse cap;
+        try {
+            cap = paymentService.capture(auth.getTransactionId());
+        } catch (Exception ex) {
+            log.warn("Renewal capture for subscription {} has no definite outcome correlationId={}: {}",
+                    s.getId(), MDC.get("correlationId"), ex.toString());
+            return voidAuthorization(s, key, auth.getTransactionId(), "capture: " + ex.getMessage(), ChargeOutcome.UNKNOWN);
+        }
+        if (cap == null || !cap.isSuccess()) {
+            return voidAuthorization(s, key, auth.getTransactionId(),
+                    "authorized but not captured: " + (cap == null ? "no gateway response" : cap.getMessage()), ChargeOutcome.DECLINED);
+        }
+        String transId = cap.getTransactionId() != null ? cap.getTransactionId() : auth.getTransactionId();
+        return result(s, key, ChargeOutcome.CHARGED, transId, cap.getMessage());
+    }
+
+    /**
+     * Voids an authorization that was not captured, so its hold does not stay on the card (and pile up with each
+     * dunning retry). A void also cancels a capture that went through unnoticed, so a voided charge is certainly
+     * not billed; if the void fails the result is {@code ifNotVoided}.
+     */
+    private ChargeResult voidAuthorization(SubscriptionEntity s, String key, String authTransId, String reason, ChargeOutcome ifNotVoided) {
+        String voidMessage;
+        try {
+            AuthorizeNetResponse v = paymentService.voidTransaction(authTransId);
+            if (v != null && v.isSuccess()) return result(s, key, ChargeOutcome.DECLINED, authTransId, reason + "; authorization voided");
+            voidMessage = v == null ? "no gateway response" : v.getMessage();
+        } catch (Exception ex) {
+            voidMessage = ex.getMessage();
+        }
+        log.warn("Authorization {} of subscription {} could not be voided, its hold stays until it expires correlationId={}: {}",
+                authTransId, s.getId(), MDC.get("correlationId"), voidMessage);
+        return result(s, key, ifNotVoided, authTransId, reason + "; void failed: " + voidMessage);
+    }
+
+    private static ChargeResult result(SubscriptionEntity s, String key, ChargeOutcome outcome, String transId, String message) {
+        long cents = s.getAmountCents() == null ? 0L : s.getAmountCents();
+        return new ChargeResult(s.getId(), key, cents, s.getCurrency(), outcome, transId, message);
+    }
+
+    /**
+     * Records the charge outcomes of a claimed batch on their PENDING cycle transactions with one JDBC batch per
+     * outcome, and updates the subscriptions in place (flushed by Hibernate at commit), all in one transaction:
+     * charged ones are advanced, declined ones enter or continue dunning, unknown ones go to BILLING_REVIEW.
+     */
     @Override
     @Transactional
-    public void renewSubscription(String id) {
-        SubscriptionEntity s = subscriptionRepository.findById(id).orElseThrow(() -> new IllegalArgumentException("not found"));
-        // create a capture transaction representing billing
-        TransactionEntity t = new TransactionEntity();
-        t.setId(UUID.randomUUID().toString());
-        t.setOrderId(s.getId());
-        t.setAmountCents(s.getAmountCents());
-        t.setCurrency(s.getCurrency());
-        t.setType(TransactionType.CAPTURE);
-        t.setStatus("COMPLETED");
-        t.setCreatedAt(Instant.now());
-        transactionRepository.save(t);
-        // advance nextBillingAt and update timestamps
-        int interval = s.getIntervalDays() == null ? 30 : s.getIntervalDays();
+    public RenewalChunk recordCharges(String claimToken, List<ChargeResult> results) {
+        if (results.isEmpty()) return new RenewalChunk(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        List<String> ids = new ArrayList<>(results.size());
+        for (ChargeResult r : results) ids.add(r.getSubscriptionId());
+        Map<String, SubscriptionEntity> claimed = new HashMap<>();
+        for (SubscriptionEntity s : subscriptionRepository.findAllById(ids)) {
+            if (claimToken.equals(s.getRenewalClaimedBy())) claimed.put(s.getId(), s);
+        }
+
         Instant now = Instant.now();
-        s.setLastRenewedAt(now);
-        s.setUpdatedAt(now);
-        s.setNextBillingAt(s.getNextBillingAt() == null ? now.plusSeconds((long)interval * 24 * 3600) : s.getNextBillingAt().plusSeconds((long)interval * 24 * 3600));
-        subscriptionRepository.save(s);
+        Timestamp ts = Timestamp.from(now);
+        List<Object[]> completed = new ArrayList<>(results.size());
+        List<Object[]> declined = new ArrayList<>();
+        List<Object[]> unknown = new ArrayList<>();
+        List<String> renewed = new ArrayList<>(results.size());
+        List<String> failed = new ArrayList<>();
+        List<String> parked = new ArrayList<>();
+        for (ChargeResult r : results) {
+            Object[] row = {r.getGatewayTransactionId(), truncate(r.getMessage()), ts, r.getCycleKey()};
+            switch (r.getOutcome()) {
+                case CHARGED: completed.add(row); break;
+                case DECLINED: declined.add(row); break;
+                default: unknown.add(row);
+            }
+            SubscriptionEntity s = claimed.get(r.getSubscriptionId());
+            if (s == null) {
+                // the cycle transaction still records the charge; whoever holds the claim now will see it
+                log.error("Subscription {} was charged (outcome={} transId={}) after its claim was lost correlationId={}",
+                        r.getSubscriptionId(), r.getOutcome(), r.getGatewayTransactionId(), MDC.get("correlationId"));
+                continue;
+            }
+            switch (r.getOutcome()) {
+                case CHARGED:
+                    markCharged(s, now);
+                    renewed.add(s.getId());
+                    break;
+                case DECLINED:
+                    markFailed(s, now);
+                    failed.add(s.getId());
+                    break;
+                default:
+                    park(s, r.getCycleKey(), r.getGatewayTransactionId(), truncate(r.getMessage()), now);
+                    parked.add(s.getId());
+            }
+        }
+        if (!completed.isEmpty()) jdbcTemplate.batchUpdate(COMPLETE_INTENT_SQL, completed);
+        if (!declined.isEmpty()) jdbcTemplate.batchUpdate(FAIL_INTENT_SQL, declined);
+        if (!unknown.isEmpty()) jdbcTemplate.batchUpdate(PARK_INTENT_SQL, unknown);
 
-        // publish domain event for charged subscription
         if (eventPublisher != null) {
             String cid = MDC.get("correlationId");
-            eventPublisher.publishEvent(new com.example.payment.events.SubscriptionChargedEvent(s.getId(), s.getAmountCents(), cid, Instant.now(), "1.0"));
+            for (String id : renewed) {
+                SubscriptionEntity s = claimed.get(id);
+                eventPublisher.publishEvent(new com.example.payment.events.SubscriptionChargedEvent(s.getId(), s.getAmountCents(), s.getNextBillingAt(), cid, now, "1.1"));
+            }
         }
+        count("subscription_renewed_total", renewed.size());
+        count("subscription_renewal_failed_total", failed.size());
+        return new RenewalChunk(renewed, failed, parked);
+    }
 
-        log.info("Renewed subscription {} and created transaction {} correlationId={}", s.getId(), t.getId(), MDC.get("correlationId"));
+    @Override
+    @Transactional
+    public void abandonCycles(List<SubscriptionEntity> notCharged) {
+        if (notCharged.isEmpty()) return;
+        List<Object[]> args = new ArrayList<>(notCharged.size());
+        for (SubscriptionEntity s : notCharged) args.add(new Object[]{SubscriptionService.cycleKey(s)});
+        jdbcTemplate.batchUpdate(ABANDON_INTENT_SQL, args);
+    }
 
-        if (meterRegistry != null) {
-            try {
-                meterRegistry.counter("subscription_renewed_total").increment();
-            } catch (Exception ignore) {}
+    @Override
+    @Transactional
+    public SubscriptionEntity resolveCycle(String id, boolean charged, String gatewayTransactionId) {
+        SubscriptionEntity s = subscriptionRepository.findById(id).orElseThrow(() -> new IllegalArgumentException("not found"));
+        if (!BILLING_REVIEW.equals(s.getStatus())) {
+            throw new IllegalStateException("Subscription " + id + " is " + s.getStatus() + ", not in " + BILLING_REVIEW);
+        }
+        String key = SubscriptionService.cycleKey(s);
+        Instant now = Instant.now();
+        Timestamp ts = Timestamp.from(now);
+        // back to where the cycle was opened from: still in dunning if it had failed charges before
+        s.setStatus(s.getPastDueSince() != null ? DunningPolicy.PAST_DUE : "ACTIVE");
+        if (charged) {
+            jdbcTemplate.update(COMPLETE_INTENT_SQL, gatewayTransactionId, "resolved as charged", ts, key);
+            markCharged(s, now);
+            if (eventPublisher != null) {
+                eventPublisher.publishEvent(new com.example.payment.events.SubscriptionChargedEvent(s.getId(), s.getAmountCents(), s.getNextBillingAt(), MDC.get("correlationId"), now, "1.1"));
+            }
+        } else {
+            jdbcTemplate.update(FAIL_INTENT_SQL, gatewayTransactionId, "resolved as not charged", ts, key);
+            s.setUpdatedAt(now);
+        }
+        subscriptionRepository.save(s);
+        log.info("Subscription {} cycle {} resolved charged={} transId={} correlationId={}", id, key, charged, gatewayTransactionId, MDC.get("correlationId"));
+        count("subscription.renewal.cycles", charged ? "resolved_charged" : "resolved_not_charged");
+        return s;
+    }
+
+    /**
+     * Takes a subscription whose cycle {@code key} may already have been charged out of renewal, and returns the
+     * PARK_INTENT_SQL arguments that mark its cycle transaction UNKNOWN.
+     */
+    private Object[] park(SubscriptionEntity s, String key, String transId, String reason, Instant now) {
+        s.setStatus(BILLING_REVIEW);
+        s.setUpdatedAt(now);
+        s.setRenewalClaimedBy(null);
+        s.setRenewalClaimedUntil(null);
+        log.error("Subscription {} cycle {} may already be charged ({}); moved to {} for reconciliation with the gateway "
+                + "(externalId={}) correlationId={}", s.getId(), key, reason, BILLING_REVIEW, key, MDC.get("correlationId"));
+        count("subscription.renewal.cycles", "parked");
+        return new Object[]{transId, reason, Timestamp.from(now), key};
+    }
+
+    /**
+     * A successful charge advances nextBillingAt by one interval and ends any dunning.
+     */
+    private void markCharged(SubscriptionEntity s, Instant now) {
+        int interval = s.getIntervalDays() == null ? 30 : s.getIntervalDays();
+        if (DunningPolicy.PAST_DUE.equals(s.getStatus())) {
+            s.setStatus("ACTIVE");
+            count("subscription.dunning.retries", "success");
+            log.info("Subscription {} recovered after {} failed charges correlationId={}", s.getId(), s.getDunningAttempts(), MDC.get("correlationId"));
+        }
+        s.setDunningAttempts(0);
+        s.setPastDueSince(null);
+        s.setNextRetryAt(null);
+        s.setLastRenewedAt(now);
+        s.setUpdatedAt(now);
+        s.setRenewalClaimedBy(null);
+        s.setRenewalClaimedUntil(null);
+        s.setNextBillingAt(s.getNextBillingAt() == null ? now.plusSeconds((long) interval * 24 * 3600) : s.getNextBillingAt().plusSeconds((long) interval * 24 * 3600));
+    }
+
+    /**
+     * A failed charge moves the subscription to PAST_DUE with its next retry from the dunning schedule, or to the
+     * final status once the schedule is used up. nextBillingAt stays on the unpaid cycle.
+     */
+    private void markFailed(SubscriptionEntity s, Instant now) {
+        boolean retry = DunningPolicy.PAST_DUE.equals(s.getStatus());
+        int attempts = retry && s.getDunningAttempts() != null ? s.getDunningAttempts() + 1 : 1;
+        Instant since = retry && s.getPastDueSince() != null ? s.getPastDueSince() : now;
+        Instant next = dunningPolicy.nextRetryAt(since, attempts);
+        s.setDunningAttempts(attempts);
+        s.setPastDueSince(since);
+        s.setNextRetryAt(next);
+        s.setUpdatedAt(now);
+        s.setRenewalClaimedBy(null);
+        s.setRenewalClaimedUntil(null);
+        if (next == null) {
+            s.setStatus(dunningPolicy.getFinalStatus());
+            count("subscription.dunning.retries", "exhausted");
+            log.warn("Subscription {} moved to {} after {} failed charges correlationId={}", s.getId(), s.getStatus(), attempts, MDC.get("correlationId"));
+        } else {
+            s.setStatus(DunningPolicy.PAST_DUE);
+            if (retry) count("subscription.dunning.retries", "failed");
+            else count("subscription.dunning.entered", 1);
+            log.info("Subscription {} is PAST_DUE, attempt {} failed, next retry at {} correlationId={}", s.getId(), attempts, next, MDC.get("correlationId"));
         }
     }
+
+    private void count(String name, String outcome) {
+        if (meterRegistry == null) return;
+        try {
+            meterRegistry.counter(name, "outcome", outcome).increment();
+        } catch (Exception ignore) {}
+    }
+
+    private void count(String name, long amount) {
+        if (meterRegistry == null || amount == 0) return;
+        try {
+            meterRegistry.counter(name).increment(amount);
+        } catch (Exception ignore) {}
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 1024 ? message.substring(0, 1024) : message;
+    }
 }
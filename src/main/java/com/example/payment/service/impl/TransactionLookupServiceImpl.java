@@ -0,0 +1,116 @@
+package com.example.payment.service.impl;
+
+import com.example.payment.api.dto.GatewayTransactionLookupResponse;
+import com.example.payment.persistence.OrderEntity;
+import com.example.payment.persistence.OrderRepository;
+import com.example.payment.persistence.TransactionEntity;
+import com.example.payment.persistence.TransactionRepository;
+import com.example.payment.service.TransactionLookupService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reverse lookup from an Authorize.Net transId to our order. Support tools ask for the same ids repeatedly,
+ * so results are kept in a small LRU cache; entries expire after {@code transactions.lookup.cache.ttl-ms}
+ * because the order keeps changing state (captures, webhooks) after the first lookup. Misses are not cached.
+ */
+@Service
+public class TransactionLookupServiceImpl implements TransactionLookupService {
+
+    private final TransactionRepository transactionRepository;
+    private final OrderRepository orderRepository;
+    private final long ttlMs;
+    private final Map<String, CachedLookup> cache;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    public TransactionLookupServiceImpl(TransactionRepository transactionRepository,
+                                        OrderRepository orderRepository,
+                                        @Value("${transactions.lookup.cache.max-entries:1000}") int maxEntries,
+                                        @Value("${transactions.lookup.cache.ttl-ms:30000}") long ttlMs) {
+        this.transactionRepository = transactionRepository;
+        this.orderRepository = orderRepository;
+        this.ttlMs = ttlMs;
+        this.cache = new LinkedHashMap<String, CachedLookup>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLookup> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GatewayTransactionLookupResponse findByGatewayTransactionId(String gatewayTransactionId) {
+        if (gatewayTransactionId == null || gatewayTransactionId.isEmpty()) return null;
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedLookup hit = cache.get(gatewayTransactionId);
+            if (hit != null && hit.expiresAt > now) {
+                count("hit");
+                return hit.response;
+            }
+            if (hit != null) cache.remove(gatewayTransactionId);
+        }
+        count("miss");
+
+        GatewayTransactionLookupResponse response = load(gatewayTransactionId);
+        if (response != null && ttlMs > 0) {
+            synchronized (cache) {
+                cache.put(gatewayTransactionId, new CachedLookup(response, now + ttlMs));
+            }
+        }
+        return response;
+    }
+
+    private GatewayTransactionLookupResponse load(String gatewayTransactionId) {
+        List<TransactionEntity> matches = transactionRepository.findByGatewayTransactionIdOrderByCreatedAtAsc(gatewayTransactionId);
+        if (matches.isEmpty()) return null;
+        OrderEntity order = orderRepository.findById(matches.get(0).getOrderId()).orElse(null);
+        if (order == null) return null;
+
+        GatewayTransactionLookupResponse r = new GatewayTransactionLookupResponse();
+        r.setGatewayTransactionId(gatewayTransactionId);
+        r.setOrder(OrderServiceImpl.toResponse(order));
+        List<GatewayTransactionLookupResponse.TransactionSummary> summaries = new ArrayList<>();
+        for (TransactionEntity t : transactionRepository.findByOrderIdOrderByCreatedAtDesc(order.getId())) {
+            GatewayTransactionLookupResponse.TransactionSummary s = new GatewayTransactionLookupResponse.TransactionSummary();
+            s.setId(t.getId());
+            s.setType(t.getType() == null ? null : t.getType().name());
+            s.setStatus(t.getStatus());
+            s.setAmountCents(t.getAmountCents());
+            s.setCurrency(t.getCurrency());
+            s.setGatewayMessage(t.getGatewayMessage());
+            s.setCreatedAt(t.getCreatedAt());
+            summaries.add(s);
+        }
+        r.setTransactions(summaries);
+        return r;
+    }
+
+    private void count(String result) {
+        if (meterRegistry == null) return;
+        try {
+            meterRegistry.counter("transactions.lookup.cache", "result", result).increment();
+        } catch (Exception ignore) {}
+    }
+
+    private static final class CachedLookup {
+        final GatewayTransactionLookupResponse response;
+        final long expiresAt;
+
+        CachedLookup(GatewayTransactionLookupResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,92 +1,123 @@
 package com.example.payment.service.impl;
 
-import com.example.payment.events.WebhookReceivedEvent;
 import com.example.payment.persistence.WebhookEventEntity;
 import com.example.payment.persistence.WebhookEventRepository;
 import com.example.payment.persistence.enums.WebhookEventStatus;
 import com.example.payment.service.WebhookService;
+import com.example.payment.util.TimeOrderedIds;
+import com.example.payment.webhook.NotificationDeduplicator;
+import com.example.payment.webhook.WebhookEventWriter;
+import com.example.payment.webhook.WebhookNotificationFields;
+import com.example.payment.webhook.WebhookProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
-import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import io.micrometer.core.instrument.MeterRegistry;
 
 import java.time.Instant;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class WebhookServiceImpl implements WebhookService {
 
     private static final Logger log = LoggerFactory.getLogger(WebhookServiceImpl.class);
 
+    private final WebhookEventWriter writer;
+    private final WebhookProcessor processor;
+    private final NotificationDeduplicator deduplicator;
     private final WebhookEventRepository repository;
-    private final ApplicationEventPublisher publisher;
 
     @Autowired(required = false)
     private MeterRegistry meterRegistry;
 
-    public WebhookServiceImpl(WebhookEventRepository repository, ApplicationEventPublisher publisher) {
+    @Value("${webhook.writer.timeout-ms:5000}")
+    private long writeTimeoutMs;
+
+    public WebhookServiceImpl(WebhookEventWriter writer, WebhookProcessor processor,
+                              NotificationDeduplicator deduplicator, WebhookEventRepository repository) {
+        this.writer = writer;
+        this.processor = processor;
+        this.deduplicator = deduplicator;
         this.repository = repository;
-        this.publisher = publisher;
     }
 
+    /**
+     * Stores the event as RECEIVED (a single insert, group-committed with concurrent requests) and hands
+     * it to the background workers. Listeners run in {@link WebhookProcessor}, after the caller has been answered.
+     * A redelivered notification (same Authorize.Net {@code notificationId}) is not stored again; the receipt
+     * then carries the id of the original event.
+     */
     @Override
-    public String handleWebhook(String payload, String source, String signatureHeader, String correlationId) {
-        String id = UUID.randomUUID().toString();
+    public Receipt handleWebhook(String payload, String source, String signatureHeader, String correlationId) {
+        String id = TimeOrderedIds.next();
         try {
             MDC.put("correlationId", correlationId);
+            String notificationId = WebhookNotificationFields.parse(payload).getNotificationId();
+            Optional<String> existing = deduplicator.findExisting(notificationId);
+            if (existing.isPresent()) return duplicate(existing.get(), notificationId);
+
             WebhookEventEntity ent = new WebhookEventEntity();
             ent.setId(id);
             ent.setSource(source);
             ent.setPayload(payload);
             ent.setStatus(WebhookEventStatus.RECEIVED);
             ent.setReceivedAt(Instant.now());
-            repository.save(ent);
-
-            if (meterRegistry != null) {
-                try {
-                    meterRegistry.counter("webhook_received_total").increment();
-                } catch (Exception ignore) {}
+            ent.setCorrelationId(correlationId);
+            ent.setNotificationId(notificationId);
+            try {
+                awaitInsert(ent);
+            } catch (DataIntegrityViolationException ex) {
+                // concurrent or post-restart redelivery that the filter could not know about
+                if (notificationId == null) throw ex;
+                existing = repository.findIdByNotificationId(notificationId);
+                if (!existing.isPresent()) throw ex;
+                deduplicator.remember(notificationId);
+                return duplicate(existing.get(), notificationId);
             }
-
-            // synchronous processing (placeholder) - mark processing and processed
-            ent.setStatus(WebhookEventStatus.PROCESSING);
-            repository.save(ent);
-
-            // publish domain event for listeners
-            publisher.publishEvent(new WebhookReceivedEvent(id, source, payload, correlationId, Instant.now(), "1.0"));
-
-            ent.setStatus(WebhookEventStatus.PROCESSED);
-            ent.setProcessedAt(Instant.now());
-            repository.save(ent);
+            deduplicator.remember(notificationId);
 
             if (meterRegistry != null) {
                 try {
-                    meterRegistry.counter("webhook_processed_total").increment();
+                    meterRegistry.counter("webhook_received_total").increment();
                 } catch (Exception ignore) {}
             }
 
-            log.info("webhook processed id={} source={} correlationId={}", id, source, correlationId);
-            return id;
+            processor.submit(id);
+            log.info("webhook accepted id={} source={} correlationId={}", id, source, correlationId);
+            return new Receipt(id, false);
         } catch (Exception ex) {
-            log.error("webhook processing failed correlationId={}", correlationId, ex);
-            try {
-                WebhookEventEntity ent = new WebhookEventEntity();
-                ent.setId(id);
-                ent.setSource(source);
-                ent.setPayload(payload);
-                ent.setStatus(WebhookEventStatus.FAILED);
-                ent.setReceivedAt(Instant.now());
-                ent.setProcessedAt(Instant.now());
-                repository.save(ent);
-            } catch (Exception e) {
-                log.error("failed to persist failed webhook record", e);
-            }
+            log.error("webhook could not be stored correlationId={}", correlationId, ex);
             throw ex;
         } finally {
             MDC.remove("correlationId");
         }
     }
+
+    private Receipt duplicate(String existingId, String notificationId) {
+        deduplicator.recordDuplicate();
+        log.info("webhook duplicate dropped notificationId={} existingId={}", notificationId, existingId);
+        return new Receipt(existingId, true);
+    }
+
+    private void awaitInsert(WebhookEventEntity ent) {
+        try {
+            writer.submit(ent).get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while storing webhook " + ent.getId(), ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("failed to store webhook " + ent.getId(), cause);
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("timed out storing webhook " + ent.getId(), ex);
+        }
+    }
 }
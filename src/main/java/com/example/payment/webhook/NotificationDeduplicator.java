@@ -0,0 +1,64 @@
+package com.example.payment.webhook;
+
+import com.example.payment.persistence.WebhookEventRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Detects redelivered Authorize.Net notifications by {@code notificationId}. A sliding Bloom filter answers
+ * "definitely new" for almost every first delivery without touching the database; only filter hits (real
+ * redeliveries plus the configured false-positive rate) are confirmed with an indexed lookup. The unique index
+ * on {@code webhook_events.notification_id} stays the source of truth, e.g. for redeliveries after a restart.
+ */
+@Component
+public class NotificationDeduplicator {
+
+    private final WebhookEventRepository repository;
+    private final MeterRegistry meterRegistry;
+    private final SlidingBloomFilter filter;
+
+    public NotificationDeduplicator(WebhookEventRepository repository,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${webhook.dedup.expected-per-window:100000}") long expectedPerWindow,
+                                    @Value("${webhook.dedup.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.filter = new SlidingBloomFilter(expectedPerWindow, falsePositiveRate);
+    }
+
+    /**
+     * Id of the already stored event for this notification, if any.
+     */
+    public Optional<String> findExisting(String notificationId) {
+        if (notificationId == null || !filter.mightContain(notificationId)) return Optional.empty();
+        Optional<String> existing = repository.findIdByNotificationId(notificationId);
+        if (!existing.isPresent()) increment("webhook.dedup.filter.false_positive");
+        return existing;
+    }
+
+    public void remember(String notificationId) {
+        if (notificationId != null) filter.put(notificationId);
+    }
+
+    public void recordDuplicate() {
+        increment("webhook.duplicates.dropped");
+    }
+
+    /**
+     * Starts a new filter generation; a notification stays in the filter for one to two windows.
+     */
+    @Scheduled(fixedDelayString = "${webhook.dedup.window-ms:3600000}", initialDelayString = "${webhook.dedup.window-ms:3600000}")
+    public void rotate() {
+        filter.rotate();
+    }
+
+    private void increment(String name) {
+        try {
+            meterRegistry.counter(name).increment();
+        } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.payment.webhook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding of stored webhook payloads. Payloads are gzip-compressed unless they are too small for that to
+ * pay off, in which case they are stored as plain UTF-8 ("identity"). The encoding is stored with each row.
+ */
+public final class PayloadCodec {
+
+    public static final String GZIP = "gzip";
+    public static final String IDENTITY = "identity";
+
+    /** below this size the gzip header and trailer outweigh the savings */
+    private static final int MIN_COMPRESS_BYTES = 256;
+
+    private PayloadCodec() {
+    }
+
+    public static Encoded encode(String payload) {
+        if (payload == null) return null;
+        byte[] raw = payload.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < MIN_COMPRESS_BYTES) return new Encoded(IDENTITY, raw, raw.length);
+        byte[] compressed = gzip(raw);
+        return compressed.length < raw.length
+                ? new Encoded(GZIP, compressed, raw.length)
+                : new Encoded(IDENTITY, raw, raw.length);
+    }
+
+    public static String decode(String encoding, byte[] data) {
+        if (data == null) return null;
+        if (GZIP.equals(encoding)) return new String(gunzip(data), StandardCharsets.UTF_8);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] gunzip(byte[] data) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("corrupt gzip payload", ex);
+        }
+    }
+
+    public static final class Encoded {
+        private final String encoding;
+        private final byte[] bytes;
+        private final int rawLength;
+
+        Encoded(String encoding, byte[] bytes, int rawLength) {
+            this.encoding = encoding;
+            this.bytes = bytes;
+            this.rawLength = rawLength;
+        }
+
+        public String getEncoding() { return encoding; }
+        public byte[] getBytes() { return bytes; }
+        public int getRawLength() { return rawLength; }
+    }
+}
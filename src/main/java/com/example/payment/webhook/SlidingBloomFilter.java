@@ -0,0 +1,91 @@
+package com.example.payment.webhook;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over a sliding time window, built from two generations: inserts go to the current one,
+ * lookups consult both, and {@link #rotate()} drops the older generation. A key therefore stays visible for
+ * at least one and at most two rotation periods. Lock-free; bits are set with CAS.
+ */
+final class SlidingBloomFilter {
+
+    private final int bits;
+    private final int hashes;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+
+    SlidingBloomFilter(long expectedInsertionsPerWindow, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertionsPerWindow);
+        double p = Math.min(0.5, Math.max(1e-6, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        this.current = new AtomicLongArray((bits + 63) >>> 6);
+        this.previous = new AtomicLongArray((bits + 63) >>> 6);
+    }
+
+    boolean mightContain(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1L;
+        return contains(current, h1, h2) || contains(previous, h1, h2);
+    }
+
+    void put(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1L;
+        AtomicLongArray words = current;
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1 + i * h2);
+            int word = bit >>> 6;
+            long mask = 1L << (bit & 63);
+            long old;
+            do {
+                old = words.get(word);
+                if ((old & mask) != 0) break;
+            } while (!words.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    void rotate() {
+        previous = current;
+        current = new AtomicLongArray((bits + 63) >>> 6);
+    }
+
+    int bitSize() {
+        return bits;
+    }
+
+    int hashCount() {
+        return hashes;
+    }
+
+    private boolean contains(AtomicLongArray words, long h1, long h2) {
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((words.get(bit >>> 6) & (1L << (bit & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    private int index(long combined) {
+        return (int) ((combined & Long.MAX_VALUE) % bits);
+    }
+
+    private static long hash(String key, long seed) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        long h = seed ^ (data.length * 0xFF51AFD7ED558CCDL);
+        for (byte b : data) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001B3L;
+            h = Long.rotateLeft(h, 27);
+        }
+        // final avalanche (murmur3 fmix64)
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
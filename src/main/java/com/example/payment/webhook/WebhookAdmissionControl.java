@@ -0,0 +1,232 @@
+package com.example.payment.webhook;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admission control for the webhook endpoint. A request is turned away with 429 when
+ * <ul>
+ *   <li>the processing backlog (worker queue plus insert queue) is above {@code webhook.admission.max-backlog},</li>
+ *   <li>more than {@code webhook.admission.max-pool-waiters} threads are waiting for a database connection, or</li>
+ *   <li>its {@code X-Source} has used up its own token bucket, so one noisy source cannot take the capacity
+ *       the others need.</li>
+ * </ul>
+ * The first two are checked by {@link #admit()} before any work is done. The per-source bucket is only taken by
+ * {@link #admitSource(String)} once the signature has been verified, so unauthenticated requests cannot create
+ * buckets; buckets that have refilled completely are evicted, since a new one would be the same.
+ * Retry-After is derived from the measured drain rate of the backlog (or the bucket refill time), so Authorize.Net
+ * redelivers roughly when there is room again.
+ */
+@Component
+public class WebhookAdmissionControl {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookAdmissionControl.class);
+
+    static final String UNKNOWN_SOURCE = "unknown";
+    /** sources beyond this many share one bucket, so arbitrary header values cannot grow the map */
+    private static final int MAX_TRACKED_SOURCES = 256;
+    private static final String OVERFLOW_SOURCE = "_other";
+
+    private final WebhookProcessor processor;
+    private final WebhookEventWriter writer;
+    private final HikariDataSource hikari;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxBacklog;
+    private final int maxPoolWaiters;
+    private final double sourceRatePerSecond;
+    private final double sourceBurst;
+    private final long maxRetryAfterSeconds;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private volatile double drainRatePerSecond;
+    private long lastCompleted = -1;
+    private long lastSampleNanos;
+
+    public WebhookAdmissionControl(WebhookProcessor processor,
+                                   WebhookEventWriter writer,
+                                   DataSource dataSource,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${webhook.admission.enabled:true}") boolean enabled,
+                                   @Value("${webhook.admission.max-backlog:800}") int maxBacklog,
+                                   @Value("${webhook.admission.max-pool-waiters:8}") int maxPoolWaiters,
+                                   @Value("${webhook.admission.per-source.rate-per-second:200}") double sourceRatePerSecond,
+                                   @Value("${webhook.admission.per-source.burst:400}") double sourceBurst,
+                                   @Value("${webhook.admission.max-retry-after-seconds:120}") long maxRetryAfterSeconds) {
+        this.processor = processor;
+        this.writer = writer;
+        this.hikari = hikari(dataSource);
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxBacklog = maxBacklog;
+        this.maxPoolWaiters = maxPoolWaiters;
+        this.sourceRatePerSecond = sourceRatePerSecond;
+        this.sourceBurst = Math.max(1, sourceBurst);
+        this.maxRetryAfterSeconds = Math.max(1, maxRetryAfterSeconds);
+
+        Gauge.builder("webhook.admission.threshold", this, c -> c.maxBacklog).tag("kind", "backlog")
+                .description("Configured webhook admission threshold").register(meterRegistry);
+        Gauge.builder("webhook.admission.threshold", this, c -> c.maxPoolWaiters).tag("kind", "pool_waiters")
+                .description("Configured webhook admission threshold").register(meterRegistry);
+        Gauge.builder("webhook.admission.threshold", this, c -> c.sourceRatePerSecond).tag("kind", "source_rate")
+                .description("Configured webhook admission threshold").register(meterRegistry);
+        Gauge.builder("webhook.admission.backlog", this, c -> c.backlog())
+                .description("Webhook events waiting to be stored or processed").register(meterRegistry);
+        Gauge.builder("webhook.admission.drain.rate", this, c -> c.drainRatePerSecond)
+                .description("Webhook events completed per second (smoothed)").register(meterRegistry);
+        Gauge.builder("webhook.admission.sources", buckets, Map::size)
+                .description("Webhook sources with a rate bucket").register(meterRegistry);
+    }
+
+    /**
+     * Decide whether there is capacity for another webhook at all. Cheap and independent of the request, so it
+     * runs before the signature is verified.
+     */
+    public Decision admit() {
+        if (!enabled) return Decision.ACCEPT;
+        int backlog = backlog();
+        if (backlog > maxBacklog) {
+            return reject("backlog", null, drainSeconds(backlog - maxBacklog / 2));
+        }
+        HikariPoolMXBean pool = hikari == null ? null : hikari.getHikariPoolMXBean();
+        if (pool != null && pool.getThreadsAwaitingConnection() > maxPoolWaiters) {
+            return reject("db_pool", null, 1);
+        }
+        return Decision.ACCEPT;
+    }
+
+    /**
+     * Decide whether {@code source} is within its rate. Only call this for a request whose signature was verified;
+     * pass null for one that was let through unsigned, which then counts against the shared unknown source.
+     */
+    public Decision admitSource(String source) {
+        if (!enabled || sourceRatePerSecond <= 0) return Decision.ACCEPT;
+        long waitMillis = bucketFor(source).tryAcquire();
+        if (waitMillis > 0) return reject("source_rate", source, (waitMillis + 999) / 1000);
+        return Decision.ACCEPT;
+    }
+
+    int backlog() {
+        return processor.queueDepth() + writer.queueDepth();
+    }
+
+    /**
+     * Samples the processor's completion count to keep an exponentially smoothed drain rate.
+     */
+    @Scheduled(fixedRate = 1000)
+    public synchronized void sampleDrainRate() {
+        long now = System.nanoTime();
+        long completed = processor.completedCount();
+        if (lastCompleted >= 0) {
+            double seconds = (now - lastSampleNanos) / 1e9;
+            if (seconds > 0) {
+                double rate = (completed - lastCompleted) / seconds;
+                drainRatePerSecond = drainRatePerSecond == 0 ? rate : 0.7 * drainRatePerSecond + 0.3 * rate;
+            }
+        }
+        lastCompleted = completed;
+        lastSampleNanos = now;
+    }
+
+    /**
+     * Drops the buckets of sources that have been quiet long enough to refill; they are recreated full on demand.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictIdleSources() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(b -> b.isFull(now));
+    }
+
+    private long drainSeconds(int events) {
+        double rate = drainRatePerSecond;
+        if (rate < 1) return maxRetryAfterSeconds;
+        return (long) Math.ceil(events / rate);
+    }
+
+    private TokenBucket bucketFor(String source) {
+        String key = source == null || source.isEmpty() ? UNKNOWN_SOURCE : source;
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) return bucket;
+        if (buckets.size() >= MAX_TRACKED_SOURCES) key = OVERFLOW_SOURCE;
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(sourceRatePerSecond, sourceBurst));
+    }
+
+    private Decision reject(String reason, String source, long retryAfterSeconds) {
+        long retryAfter = Math.max(1, Math.min(maxRetryAfterSeconds, retryAfterSeconds));
+        try {
+            meterRegistry.counter("webhook.admission.rejected", "reason", reason).increment();
+        } catch (Exception ignore) {}
+        log.debug("webhook rejected reason={} source={} retryAfter={}s", reason, source, retryAfter);
+        return new Decision(false, reason, retryAfter);
+    }
+
+    private static HikariDataSource hikari(DataSource dataSource) {
+        try {
+            if (dataSource != null && dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class);
+            }
+        } catch (SQLException ex) {
+            log.warn("cannot read connection pool state, pool saturation will not be considered", ex);
+        }
+        return null;
+    }
+
+    public static final class Decision {
+        static final Decision ACCEPT = new Decision(true, null, 0);
+
+        private final boolean accepted;
+        private final String reason;
+        private final long retryAfterSeconds;
+
+        Decision(boolean accepted, String reason, long retryAfterSeconds) {
+            this.accepted = accepted;
+            this.reason = reason;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isAccepted() { return accepted; }
+        public String getReason() { return reason; }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    private static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerNano = ratePerSecond / 1e9;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        /** 0 if a token was taken, otherwise milliseconds until one is available */
+        synchronized long tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerNano / 1e6));
+        }
+
+        synchronized boolean isFull(long now) {
+            return tokens + (now - refilledAt) * ratePerNano >= capacity;
+        }
+    }
+}
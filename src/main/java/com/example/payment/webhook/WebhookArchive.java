@@ -0,0 +1,265 @@
+package com.example.payment.webhook;
+
+import com.example.payment.cluster.ClusterSingleton;
+import com.example.payment.jobs.JobGuard;
+import com.example.payment.persistence.enums.WebhookEventStatus;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Moves PROCESSED webhook events older than {@code webhook.archive.retention-days} and DEAD_LETTER events older
+ * than {@code webhook.archive.dead-letter-retention-days} out of the database into daily segment files
+ * ({@code webhooks-yyyy-MM-dd.seg}, by receivedAt) under {@code webhook.archive.dir}, so the hot tables only hold
+ * recent events. Dead letters can be replayed until they are archived; after that they are only readable through
+ * {@link #find}.
+ *
+ * A segment is a sequence of {@code [int length][int crc32][gzip(JSON event)]} records. The position of every
+ * record is kept in {@code webhook_archive_index} for point lookups. Records are appended and forced to disk
+ * before the index rows are written and the hot rows deleted; a crash in between only leaves an unreferenced
+ * record behind, and the event is archived again on the next run.
+ *
+ * The job runs on whichever node holds the {@code webhook-archive} lease, and the hot rows are gone once their
+ * records are written, so {@code webhook.archive.dir} must be a volume shared by every node (NFS, EFS, ...). A
+ * node that does not see the segment most recently archived refuses to archive, rather than scattering segments
+ * across local disks, and a lookup whose segment is missing fails with {@link SegmentUnavailableException}.
+ * Export and replay only cover events still in the database.
+ */
+@Component
+public class WebhookArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookArchive.class);
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final DateTimeFormatter SEGMENT_DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+    private static final int HEADER_BYTES = 8;
+
+    private static final String SELECT_SQL = "SELECT e.id, e.source, e.status, e.received_at, e.processed_at, e.correlation_id, "
+            + "e.notification_id, e.attempts, e.last_error, p.encoding, p.payload "
+            + "FROM webhook_events e LEFT JOIN webhook_payloads p ON p.event_id = e.id "
+            + "WHERE e.status = ? AND e.received_at < ? ORDER BY e.received_at, e.id LIMIT ";
+    private static final String INDEX_SQL = "INSERT INTO webhook_archive_index (event_id, segment, segment_offset, record_length, "
+            + "received_at, archived_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String LOOKUP_SQL = "SELECT segment, segment_offset, record_length FROM webhook_archive_index WHERE event_id = ?";
+    private static final String LAST_SEGMENT_SQL = "SELECT segment FROM webhook_archive_index ORDER BY archived_at DESC LIMIT 1";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path dir;
+    private final boolean enabled;
+    private final int retentionDays;
+    private final int deadLetterRetentionDays;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final JobGuard guard;
+
+    public WebhookArchive(JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${webhook.archive.dir:./data/webhook-archive}") String dir,
+                          @Value("${webhook.archive.enabled:true}") boolean enabled,
+                          @Value("${webhook.archive.retention-days:30}") int retentionDays,
+                          @Value("${webhook.archive.dead-letter-retention-days:90}") int deadLetterRetentionDays,
+                          @Value("${webhook.archive.batch-size:1000}") int batchSize,
+                          @Value("${webhook.archive.max-batches-per-run:100}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dir = Paths.get(dir);
+        this.enabled = enabled;
+        this.retentionDays = retentionDays;
+        this.deadLetterRetentionDays = deadLetterRetentionDays;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.guard = new JobGuard("webhook-archive", meterRegistry);
+        if (enabled && !this.dir.isAbsolute()) {
+            log.warn("webhook.archive.dir {} is relative; it must be a volume shared by all nodes or archived events "
+                    + "are only readable on the node that archived them", dir);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.archive.interval-ms:3600000}", initialDelayString = "${webhook.archive.initial-delay-ms:60000}")
+    @ClusterSingleton("webhook-archive")
+    public void run() {
+        if (!enabled) return;
+        guard.run(this::archiveExpired);
+    }
+
+    private long archiveExpired() {
+        List<String> last = jdbcTemplate.queryForList(LAST_SEGMENT_SQL, String.class);
+        if (!last.isEmpty() && !Files.exists(dir.resolve(last.get(0)))) {
+            log.error("segment {} archived last is not in {}; webhook.archive.dir is not shared with the node that wrote it, "
+                    + "not archiving", last.get(0), dir.toAbsolutePath());
+            return 0;
+        }
+        Instant now = Instant.now();
+        return archiveExpired(WebhookEventStatus.PROCESSED, now.minus(retentionDays, ChronoUnit.DAYS))
+                + archiveExpired(WebhookEventStatus.DEAD_LETTER, now.minus(deadLetterRetentionDays, ChronoUnit.DAYS));
+    }
+
+    private long archiveExpired(WebhookEventStatus status, Instant cutoff) {
+        long archived = 0;
+        try {
+            for (int i = 0; i < maxBatchesPerRun; i++) {
+                int n = archiveBatch(status, cutoff);
+                archived += n;
+                if (n < batchSize) break;
+            }
+        } catch (Exception ex) {
+            log.error("webhook archive run failed after {} {} events", archived, status, ex);
+        }
+        if (archived > 0) log.info("archived {} {} webhook events received before {}", archived, status, cutoff);
+        return archived;
+    }
+
+    /**
+     * Archives up to one batch of {@code status} events received before {@code cutoff}; returns how many were archived.
+     */
+    int archiveBatch(WebhookEventStatus status, Instant cutoff) throws IOException {
+        List<Map<String, Object>> rows = jdbcTemplate.query(SELECT_SQL + batchSize, (rs, n) -> {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("id", rs.getString("id"));
+            r.put("source", rs.getString("source"));
+            r.put("status", rs.getString("status"));
+            r.put("receivedAt", rs.getTimestamp("received_at"));
+            r.put("processedAt", rs.getTimestamp("processed_at"));
+            r.put("correlationId", rs.getString("correlation_id"));
+            r.put("notificationId", rs.getString("notification_id"));
+            r.put("attempts", rs.getInt("attempts"));
+            r.put("lastError", rs.getString("last_error"));
+            r.put("payload", PayloadCodec.decode(rs.getString("encoding"), rs.getBytes("payload")));
+            return r;
+        }, status.name(), Timestamp.from(cutoff));
+        if (rows.isEmpty()) return 0;
+
+        Files.createDirectories(dir);
+        Map<String, List<Map<String, Object>>> bySegment = new LinkedHashMap<>();
+        for (Map<String, Object> r : rows) {
+            Timestamp received = (Timestamp) r.get("receivedAt");
+            String segment = "webhooks-" + SEGMENT_DAY.format(received == null ? Instant.EPOCH : received.toInstant()) + ".seg";
+            bySegment.computeIfAbsent(segment, k -> new ArrayList<>()).add(r);
+        }
+        List<Object[]> index = new ArrayList<>(rows.size());
+        Timestamp now = Timestamp.from(Instant.now());
+        for (Map.Entry<String, List<Map<String, Object>>> e : bySegment.entrySet()) {
+            try (FileChannel ch = FileChannel.open(dir.resolve(e.getKey()),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long offset = ch.size();
+                for (Map<String, Object> r : e.getValue()) {
+                    byte[] record = encodeRecord(r);
+                    ByteBuffer buf = ByteBuffer.wrap(record);
+                    while (buf.hasRemaining()) ch.write(buf);
+                    index.add(new Object[]{r.get("id"), e.getKey(), offset, record.length, r.get("receivedAt"), now});
+                    offset += record.length;
+                }
+                ch.force(false);
+            }
+        }
+
+        List<Object[]> ids = new ArrayList<>(rows.size());
+        for (Map<String, Object> r : rows) ids.add(new Object[]{r.get("id")});
+        transactionTemplate.executeWithoutResult(tx -> {
+            // an event re-archived after a crash replaces its earlier, unreferenced record
+            jdbcTemplate.batchUpdate("DELETE FROM webhook_archive_index WHERE event_id = ?", ids);
+            jdbcTemplate.batchUpdate(INDEX_SQL, index);
+            jdbcTemplate.batchUpdate("DELETE FROM webhook_payloads WHERE event_id = ?", ids);
+            jdbcTemplate.batchUpdate("DELETE FROM webhook_events WHERE id = ?", ids);
+        });
+        return rows.size();
+    }
+
+    /**
+     * The archived event as JSON (same fields as the NDJSON export), if it was archived.
+     *
+     * @throws SegmentUnavailableException if the event was archived into a segment this node cannot see
+     */
+    public Optional<String> find(String eventId) throws IOException {
+        List<Object[]> hits = jdbcTemplate.query(LOOKUP_SQL,
+                (rs, n) -> new Object[]{rs.getString(1), rs.getLong(2), rs.getInt(3)}, eventId);
+        if (hits.isEmpty()) return Optional.empty();
+        String segment = (String) hits.get(0)[0];
+        long offset = (Long) hits.get(0)[1];
+        int length = (Integer) hits.get(0)[2];
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try (FileChannel ch = FileChannel.open(dir.resolve(segment), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) throw new IOException("truncated archive record for " + eventId);
+            }
+        } catch (NoSuchFileException ex) {
+            throw new SegmentUnavailableException(eventId, segment);
+        }
+        buf.flip();
+        int bodyLength = buf.getInt();
+        int crc = buf.getInt();
+        if (bodyLength != length - HEADER_BYTES) throw new IOException("archive record length mismatch for " + eventId);
+        byte[] body = new byte[bodyLength];
+        buf.get(body);
+        CRC32 check = new CRC32();
+        check.update(body, 0, body.length);
+        if ((int) check.getValue() != crc) throw new IOException("archive record checksum mismatch for " + eventId);
+        return Optional.of(new String(PayloadCodec.gunzip(body), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] encodeRecord(Map<String, Object> r) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream(512);
+        try (JsonGenerator g = JSON.createGenerator(json)) {
+            g.writeStartObject();
+            for (Map.Entry<String, Object> f : r.entrySet()) {
+                Object v = f.getValue();
+                if (v == null) g.writeNullField(f.getKey());
+                else if (v instanceof Integer) g.writeNumberField(f.getKey(), (Integer) v);
+                else if (v instanceof Timestamp) g.writeStringField(f.getKey(), ((Timestamp) v).toInstant().toString());
+                else g.writeStringField(f.getKey(), v.toString());
+            }
+            g.writeEndObject();
+        }
+        byte[] body = PayloadCodec.gzip(json.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length);
+        record.putInt((int) crc.getValue());
+        record.put(body);
+        return record.array();
+    }
+
+    /**
+     * An event is indexed as archived but its segment file is not in {@code webhook.archive.dir} on this node.
+     */
+    public static class SegmentUnavailableException extends IOException {
+        public SegmentUnavailableException(String eventId, String segment) {
+            super("webhook event " + eventId + " is archived in segment " + segment
+                    + ", which is not available on this node; webhook.archive.dir must be shared by all nodes");
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.payment.webhook;
+
+import com.example.payment.persistence.WebhookEventEntity;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for webhook event inserts. Concurrent requests enqueue their row and wait on a future; a
+ * flusher thread collects rows for up to {@code webhook.writer.window-ms} or {@code webhook.writer.max-batch}
+ * rows, writes them as one JDBC batch in one transaction and then completes every caller's future.
+ * Under bursts one commit is shared by many requests instead of each paying the commit latency.
+ * The payload goes to {@code webhook_payloads} in the same transaction, compressed by {@link PayloadCodec}.
+ */
+@Component
+public class WebhookEventWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookEventWriter.class);
+
+    static final String INSERT_SQL = "INSERT INTO webhook_events (id, source, status, received_at, processed_at, correlation_id, notification_id, version) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingInsert> queue;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final int flushers;
+    private final DistributionSummary batchSizes;
+    private final Timer flushTimer;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    public WebhookEventWriter(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${webhook.writer.max-batch:100}") int maxBatch,
+                              @Value("${webhook.writer.window-ms:2}") long windowMs,
+                              @Value("${webhook.writer.queue-capacity:10000}") int queueCapacity,
+                              @Value("${webhook.writer.flushers:1}") int flushers) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        this.flushers = Math.max(1, flushers);
+        this.batchSizes = DistributionSummary.builder("webhook.writer.batch.size")
+                .description("Webhook events written per group commit")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("webhook.writer.flush")
+                .description("Duration of one webhook group commit")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < flushers; i++) {
+            Thread t = new Thread(this::flushLoop, "webhook-writer-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread t : threads) t.interrupt();
+        for (Thread t : threads) t.join(5000);
+        List<PendingInsert> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) flush(rest);
+    }
+
+    /**
+     * Queue a row for the next group commit. The future completes once the row is committed.
+     */
+    public CompletableFuture<WebhookEventEntity> submit(WebhookEventEntity entity) {
+        PendingInsert pending = new PendingInsert(entity);
+        if (!running || !queue.offer(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("webhook writer queue is full"));
+        }
+        return pending.future;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    private void flushLoop() {
+        List<PendingInsert> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                PendingInsert first = queue.take();
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    PendingInsert next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException ex) {
+                if (!batch.isEmpty()) flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingInsert> batch) {
+        long started = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(batch));
+            for (PendingInsert p : batch) p.future.complete(p.entity);
+        } catch (DataIntegrityViolationException ex) {
+            // typically a redelivered notificationId; retry row by row so only the offending rows fail
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(ex);
+            } else {
+                log.debug("webhook group commit of {} rows hit a constraint, retrying rows individually", batch.size());
+                flushIndividually(batch);
+            }
+        } catch (Exception ex) {
+            log.error("webhook group commit of {} rows failed", batch.size(), ex);
+            for (PendingInsert p : batch) p.future.completeExceptionally(ex);
+        } finally {
+            batchSizes.record(batch.size());
+            flushTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushIndividually(List<PendingInsert> batch) {
+        for (PendingInsert p : batch) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertBatch(Collections.singletonList(p)));
+                p.future.complete(p.entity);
+            } catch (Exception ex) {
+                p.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private void insertBatch(List<PendingInsert> batch) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, p) -> {
+            WebhookEventEntity e = p.entity;
+            ps.setString(1, e.getId());
+            ps.setString(2, e.getSource());
+            ps.setString(3, e.getStatus() == null ? null : e.getStatus().name());
+            ps.setTimestamp(4, e.getReceivedAt() == null ? null : Timestamp.from(e.getReceivedAt()));
+            if (e.getProcessedAt() == null) ps.setNull(5, Types.TIMESTAMP);
+            else ps.setTimestamp(5, Timestamp.from(e.getProcessedAt()));
+            ps.setString(6, e.getCorrelationId());
+            ps.setString(7, e.getNotificationId());
+        });
+        List<PendingInsert> withPayload = new ArrayList<>(batch.size());
+        for (PendingInsert p : batch) {
+            if (p.payload != null) withPayload.add(p);
+        }
+        if (withPayload.isEmpty()) return;
+        jdbcTemplate.batchUpdate(WebhookPayloadStore.INSERT_SQL, withPayload, withPayload.size(), (ps, p) -> {
+            ps.setString(1, p.entity.getId());
+            ps.setString(2, p.payload.getEncoding());
+            ps.setInt(3, p.payload.getRawLength());
+            ps.setBytes(4, p.payload.getBytes());
+        });
+    }
+
+    private static final class PendingInsert {
+        final WebhookEventEntity entity;
+        final PayloadCodec.Encoded payload;
+        final CompletableFuture<WebhookEventEntity> future = new CompletableFuture<>();
+
+        PendingInsert(WebhookEventEntity entity) {
+            this.entity = entity;
+            // compress on the caller's thread, not on the single flusher
+            this.payload = PayloadCodec.encode(entity.getPayload());
+        }
+    }
+}
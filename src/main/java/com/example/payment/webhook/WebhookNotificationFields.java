@@ -0,0 +1,100 @@
+package com.example.payment.webhook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * The few Authorize.Net notification fields the pipeline routes on, read with a streaming parser instead of
+ * binding the whole payload. Unknown objects and arrays are skipped without materialising them.
+ *
+ * <pre>
+ * {"notificationId":"...","eventType":"net.authorize.payment.authcapture.created","eventDate":"...",
+ *  "webhookId":"...","payload":{"responseCode":1,"authAmount":45.00,"entityName":"transaction","id":"60020981676"}}
+ * </pre>
+ */
+public final class WebhookNotificationFields {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private String notificationId;
+    private String eventType;
+    private String entityName;
+    private String entityId;
+    private String refTransId;
+    private Integer responseCode;
+    private BigDecimal authAmount;
+
+    private WebhookNotificationFields() {
+    }
+
+    /**
+     * Never throws; fields that cannot be read (including a malformed payload) are left null.
+     */
+    public static WebhookNotificationFields parse(String payload) {
+        WebhookNotificationFields f = new WebhookNotificationFields();
+        if (payload == null || payload.isEmpty()) return f;
+        try (JsonParser p = JSON.createParser(payload)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return f;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if ("notificationId".equals(name) && value.isScalarValue()) {
+                    f.notificationId = p.getValueAsString();
+                } else if ("eventType".equals(name) && value.isScalarValue()) {
+                    f.eventType = p.getValueAsString();
+                } else if ("payload".equals(name) && value == JsonToken.START_OBJECT) {
+                    readPayload(p, f);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // partial result is still useful; callers treat missing fields as unknown
+        }
+        return f;
+    }
+
+    private static void readPayload(JsonParser p, WebhookNotificationFields f) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            if ("id".equals(name) && value.isScalarValue()) {
+                f.entityId = p.getValueAsString();
+            } else if ("refTransId".equals(name) && value.isScalarValue()) {
+                f.refTransId = p.getValueAsString();
+            } else if ("entityName".equals(name) && value.isScalarValue()) {
+                f.entityName = p.getValueAsString();
+            } else if ("responseCode".equals(name) && value.isScalarValue()) {
+                BigDecimal code = toDecimal(p.getValueAsString());
+                f.responseCode = code == null ? null : code.intValue();
+            } else if ("authAmount".equals(name) && value.isScalarValue()) {
+                f.authAmount = toDecimal(p.getValueAsString());
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private static BigDecimal toDecimal(String s) {
+        if (s == null) return null;
+        try {
+            return new BigDecimal(s.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    public String getNotificationId() { return notificationId; }
+    public String getEventType() { return eventType; }
+    public String getEntityName() { return entityName; }
+    public String getEntityId() { return entityId; }
+    /** the transaction a refund or void refers to, when the notification carries it */
+    public String getRefTransId() { return refTransId; }
+    /** 1 approved, 2 declined, 3 error, 4 held for review */
+    public Integer getResponseCode() { return responseCode; }
+    public BigDecimal getAuthAmount() { return authAmount; }
+}
@@ -0,0 +1,32 @@
+package com.example.payment.webhook;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Reads webhook payloads from {@code webhook_payloads}. Rows are written together with their event by
+ * {@link WebhookEventWriter}; nothing else on the hot path touches them.
+ */
+@Component
+public class WebhookPayloadStore {
+
+    static final String INSERT_SQL = "INSERT INTO webhook_payloads (event_id, encoding, size_bytes, payload) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_SQL = "SELECT encoding, payload FROM webhook_payloads WHERE event_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WebhookPayloadStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * The decoded payload of a stored event, or null if there is none (e.g. the event was archived).
+     */
+    public String load(String eventId) {
+        List<String> rows = jdbcTemplate.query(SELECT_SQL,
+                (rs, n) -> PayloadCodec.decode(rs.getString(1), rs.getBytes(2)), eventId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+}
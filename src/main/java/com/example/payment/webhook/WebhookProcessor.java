@@ -0,0 +1,422 @@
+package com.example.payment.webhook;
+
+import com.example.payment.cluster.ClusterSingleton;
+import com.example.payment.events.WebhookReceivedEvent;
+import com.example.payment.jobs.JobGuard;
+import com.example.payment.persistence.WebhookEventEntity;
+import com.example.payment.persistence.WebhookEventRepository;
+import com.example.payment.persistence.enums.WebhookEventStatus;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background processing of stored webhook events. The HTTP request only inserts the RECEIVED row and hands
+ * its id over; a bounded worker pool runs the listeners and writes the final status once. Events that do not
+ * fit into the queue (or were received before a restart) stay RECEIVED and are picked up by the sweeper.
+ *
+ * Every node sweeps, so a worker first claims the event with a conditional update to PROCESSING; only the one
+ * that wins runs the listeners. The claim is a lease in {@code next_attempt_at}: if the node dies while
+ * processing, the retry scheduler picks the event up again once {@code webhook.processing.lease-ms} has passed.
+ *
+ * A listener may hand back a future ({@link WebhookReceivedEvent#completeLater}) instead of blocking the worker;
+ * the event is then finished on a separate completion pool once all of them are done, and stays in flight
+ * (and PROCESSING) until then.
+ *
+ * A failed event is retried with exponential backoff and jitter: it stays FAILED with {@code next_attempt_at}
+ * set, and the retry scheduler picks due events up in batches. After {@code webhook.retry.max-attempts} the
+ * event is moved to DEAD_LETTER, from where it can be replayed in bulk.
+ */
+@Component
+public class WebhookProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookProcessor.class);
+    private static final List<WebhookEventStatus> RETRYABLE = Arrays.asList(WebhookEventStatus.FAILED, WebhookEventStatus.PROCESSING);
+
+    private final WebhookEventRepository repository;
+    private final WebhookPayloadStore payloadStore;
+    private final ApplicationEventPublisher publisher;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor completions;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder completed = new LongAdder();
+    private final Timer processingLag;
+    private final int sweepBatchSize;
+    private final long sweepGraceMs;
+    private final long leaseMs;
+    private final int maxAttempts;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final int retryBatchSize;
+
+    private final Map<WebhookEventStatus, Long> statusCounts = new ConcurrentHashMap<>();
+    private volatile Instant oldestPendingAt;
+    private final JobGuard retryGuard;
+    private final JobGuard sweepGuard;
+    private final JobGuard statsGuard;
+
+    public WebhookProcessor(WebhookEventRepository repository,
+                            WebhookPayloadStore payloadStore,
+                            ApplicationEventPublisher publisher,
+                            MeterRegistry meterRegistry,
+                            @Value("${webhook.processing.workers:4}") int workers,
+                            @Value("${webhook.processing.queue-capacity:1000}") int queueCapacity,
+                            @Value("${webhook.processing.sweep-batch-size:200}") int sweepBatchSize,
+                            @Value("${webhook.processing.sweep-grace-ms:2000}") long sweepGraceMs,
+                            @Value("${webhook.processing.lease-ms:300000}") long leaseMs,
+                            @Value("${webhook.retry.max-attempts:8}") int maxAttempts,
+                            @Value("${webhook.retry.base-delay-ms:30000}") long retryBaseDelayMs,
+                            @Value("${webhook.retry.max-delay-ms:3600000}") long retryMaxDelayMs,
+                            @Value("${webhook.retry.batch-size:100}") int retryBatchSize) {
+        this.repository = repository;
+        this.payloadStore = payloadStore;
+        this.publisher = publisher;
+        this.meterRegistry = meterRegistry;
+        this.sweepBatchSize = sweepBatchSize;
+        this.sweepGraceMs = sweepGraceMs;
+        this.leaseMs = Math.max(1, leaseMs);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseDelayMs = Math.max(1, retryBaseDelayMs);
+        this.retryMaxDelayMs = Math.max(this.retryBaseDelayMs, retryMaxDelayMs);
+        this.retryBatchSize = retryBatchSize;
+        this.retryGuard = new JobGuard("webhook-retry", meterRegistry);
+        this.sweepGuard = new JobGuard("webhook-sweep", meterRegistry);
+        this.statsGuard = new JobGuard("webhook-stats", meterRegistry);
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "webhook-worker-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        // unbounded: it only ever holds events that already passed the bounded worker queue
+        AtomicInteger completionIds = new AtomicInteger();
+        this.completions = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "webhook-completion-" + completionIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        this.processingLag = Timer.builder("webhook.processing.lag")
+                .description("Time from webhook receipt to completed processing")
+                .register(meterRegistry);
+        Gauge.builder("webhook.queue.depth", executor, e -> e.getQueue().size())
+                .description("Webhook events queued for a worker")
+                .register(meterRegistry);
+        Gauge.builder("webhook.inflight", inFlight, Set::size)
+                .description("Webhook events queued or being processed on this node")
+                .register(meterRegistry);
+        Gauge.builder("webhook.pending.age.seconds", this, p -> p.pendingAgeSeconds())
+                .description("Age of the oldest RECEIVED webhook event")
+                .register(meterRegistry);
+        for (WebhookEventStatus status : WebhookEventStatus.values()) {
+            statusCounts.put(status, 0L);
+            Gauge.builder("webhook.events", statusCounts, m -> m.getOrDefault(status, 0L))
+                    .tag("status", status.name())
+                    .description("Stored webhook events by status")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Queue a stored RECEIVED event for processing. Returns false when the queue is full; the event then
+     * stays RECEIVED until the sweeper resubmits it.
+     */
+    public boolean submit(String eventId) {
+        if (!inFlight.add(eventId)) return true;
+        try {
+            executor.execute(() -> process(eventId));
+            return true;
+        } catch (RejectedExecutionException ex) {
+            inFlight.remove(eventId);
+            try {
+                meterRegistry.counter("webhook.queue.rejected").increment();
+            } catch (Exception ignore) {}
+            log.warn("webhook queue full, deferring event id={} to sweeper", eventId);
+            return false;
+        }
+    }
+
+    void process(String eventId) {
+        boolean deferred = false;
+        try {
+            Instant now = Instant.now();
+            if (repository.claim(eventId, now, now.plusMillis(leaseMs)) == 0) return;
+            WebhookEventEntity ent = repository.findById(eventId).orElse(null);
+            if (ent == null) return;
+            if (ent.getCorrelationId() != null) MDC.put("correlationId", ent.getCorrelationId());
+            try {
+                String payload = payloadStore.load(ent.getId());
+                WebhookReceivedEvent event = new WebhookReceivedEvent(ent.getId(), ent.getSource(), payload, ent.getCorrelationId(), Instant.now(), "1.0");
+                publisher.publishEvent(event);
+                List<CompletableFuture<?>> pending = event.getPending();
+                if (!pending.isEmpty()) {
+                    deferred = true;
+                    CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                            .whenComplete((ignored, error) -> completeLater(ent, error));
+                    return;
+                }
+                finish(ent, null);
+            } catch (Exception ex) {
+                finish(ent, ex);
+            }
+        } catch (Exception ex) {
+            log.error("webhook worker error id={}", eventId, ex);
+        } finally {
+            if (!deferred) done(eventId);
+            MDC.remove("correlationId");
+        }
+    }
+
+    /**
+     * Called on the thread that completed the listeners' futures (e.g. the reconciliation flusher), so the
+     * database work is handed over to the completion pool.
+     */
+    private void completeLater(WebhookEventEntity ent, Throwable error) {
+        try {
+            completions.execute(() -> {
+                if (ent.getCorrelationId() != null) MDC.put("correlationId", ent.getCorrelationId());
+                try {
+                    finish(ent, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                } catch (Exception ex) {
+                    log.error("webhook worker error id={}", ent.getId(), ex);
+                } finally {
+                    done(ent.getId());
+                    MDC.remove("correlationId");
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            done(ent.getId());
+            log.warn("webhook completion pool stopped; event id={} is retried once its lease runs out", ent.getId());
+        }
+    }
+
+    private void finish(WebhookEventEntity ent, Throwable error) {
+        if (error == null) {
+            ent.setStatus(WebhookEventStatus.PROCESSED);
+            ent.setProcessedAt(Instant.now());
+            ent.setNextAttemptAt(null);
+            repository.save(ent);
+            increment("webhook_processed_total");
+            log.info("webhook processed id={} source={} correlationId={}", ent.getId(), ent.getSource(), ent.getCorrelationId());
+        } else {
+            log.error("webhook processing failed id={} correlationId={} attempt={}", ent.getId(), ent.getCorrelationId(), ent.getAttempts() + 1, error);
+            recordFailure(ent, error);
+            repository.save(ent);
+            increment("webhook_failed_total");
+        }
+        if (ent.getReceivedAt() != null) {
+            processingLag.record(Duration.between(ent.getReceivedAt(), ent.getProcessedAt()));
+        }
+    }
+
+    private void done(String eventId) {
+        inFlight.remove(eventId);
+        completed.increment();
+    }
+
+    private void recordFailure(WebhookEventEntity ent, Throwable ex) {
+        int attempts = ent.getAttempts() + 1;
+        Instant now = Instant.now();
+        String error = String.valueOf(ex);
+        ent.setAttempts(attempts);
+        ent.setLastError(error.length() > 1024 ? error.substring(0, 1024) : error);
+        ent.setProcessedAt(now);
+        if (attempts >= maxAttempts) {
+            ent.setStatus(WebhookEventStatus.DEAD_LETTER);
+            ent.setNextAttemptAt(null);
+            increment("webhook.dead_lettered");
+            log.warn("webhook dead-lettered id={} after {} attempts", ent.getId(), attempts);
+        } else {
+            ent.setStatus(WebhookEventStatus.FAILED);
+            ent.setNextAttemptAt(now.plusMillis(backoffMillis(attempts)));
+        }
+    }
+
+    /**
+     * base * 2^(attempt-1), capped, with "equal jitter": half fixed, half random, so events failing together
+     * (e.g. during a database outage) do not come back in lockstep.
+     */
+    long backoffMillis(int attempt) {
+        long delay = retryBaseDelayMs << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > retryMaxDelayMs) delay = retryMaxDelayMs;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Submits FAILED events whose backoff has elapsed, and PROCESSING events whose lease ran out because their
+     * node died; one indexed query per run instead of per-event timers. Runs on the leader only, so the events are
+     * not read by every node (the claim would still let only one of them process each).
+     */
+    @Scheduled(fixedDelayString = "${webhook.retry.interval-ms:10000}")
+    @ClusterSingleton("webhook-retry")
+    public void retryDue() {
+        retryGuard.run(this::submitDueRetries);
+    }
+
+    private long submitDueRetries() {
+        try {
+            int capacity = executor.getQueue().remainingCapacity();
+            if (capacity <= 0) return 0;
+            List<String> ids = repository.findIdsDueForRetry(RETRYABLE, Instant.now(),
+                    PageRequest.of(0, Math.min(capacity, retryBatchSize)));
+            int submitted = 0;
+            for (String id : ids) {
+                if (inFlight.contains(id)) continue;
+                if (!submit(id)) break;
+                submitted++;
+            }
+            if (submitted > 0) {
+                try {
+                    meterRegistry.counter("webhook.retry.submitted").increment(submitted);
+                } catch (Exception ignore) {}
+                log.info("webhook retry scheduler submitted {} failed events", submitted);
+            }
+            return submitted;
+        } catch (Exception ex) {
+            log.error("webhook retry run failed", ex);
+            return 0;
+        }
+    }
+
+    /**
+     * Puts dead-lettered events received in [from, to) back into the retry cycle with a fresh attempt budget.
+     */
+    public int replayDeadLetters(Instant from, Instant to) {
+        int requeued = repository.requeue(WebhookEventStatus.DEAD_LETTER, WebhookEventStatus.FAILED, Instant.now(), from, to);
+        log.info("requeued {} dead-lettered webhook events received between {} and {}", requeued, from, to);
+        return requeued;
+    }
+
+    /**
+     * Resubmits RECEIVED events that never reached a worker. Runs on every node, which is safe because workers
+     * claim an event before processing it.
+     */
+    @Scheduled(fixedDelayString = "${webhook.processing.sweep-interval-ms:5000}")
+    public void sweep() {
+        sweepGuard.run(this::resubmitPending);
+    }
+
+    private long resubmitPending() {
+        int resubmitted = 0;
+        try {
+            int capacity = executor.getQueue().remainingCapacity();
+            if (capacity > 0) {
+                Instant before = Instant.now().minusMillis(sweepGraceMs);
+                List<String> ids = repository.findIdsByStatusReceivedBefore(WebhookEventStatus.RECEIVED, before,
+                        PageRequest.of(0, Math.min(capacity, sweepBatchSize)));
+                for (String id : ids) {
+                    if (inFlight.contains(id)) continue;
+                    if (!submit(id)) break;
+                    resubmitted++;
+                }
+                if (resubmitted > 0) log.info("webhook sweeper resubmitted {} pending events", resubmitted);
+            }
+        } catch (Exception ex) {
+            log.error("webhook sweep failed", ex);
+        }
+        return resubmitted;
+    }
+
+    /**
+     * Refreshes the backlog gauges ({@code webhook.events}, {@code webhook.pending.age.seconds}). The status count
+     * scans the whole table, so it runs on its own, slower schedule rather than with every sweep.
+     */
+    @Scheduled(fixedDelayString = "${webhook.processing.stats-interval-ms:60000}")
+    public void refreshStats() {
+        statsGuard.run(this::refreshBacklog);
+    }
+
+    private long refreshBacklog() {
+        try {
+            Map<WebhookEventStatus, Long> counts = new EnumMap<>(WebhookEventStatus.class);
+            for (WebhookEventStatus status : WebhookEventStatus.values()) counts.put(status, 0L);
+            for (Object[] row : repository.countByStatus()) {
+                if (row[0] != null) counts.put((WebhookEventStatus) row[0], ((Number) row[1]).longValue());
+            }
+            statusCounts.putAll(counts);
+            oldestPendingAt = repository.findOldestReceivedAt(WebhookEventStatus.RECEIVED);
+        } catch (Exception ex) {
+            log.error("webhook stats refresh failed", ex);
+        }
+        return 0;
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** events finished since startup, whatever the outcome */
+    public long completedCount() {
+        return completed.sum();
+    }
+
+    public double pendingAgeSeconds() {
+        Instant oldest = oldestPendingAt;
+        return oldest == null ? 0.0 : Math.max(0L, Duration.between(oldest, Instant.now()).toMillis()) / 1000.0;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queueDepth", queueDepth());
+        m.put("inFlight", inFlight.size());
+        m.put("activeWorkers", executor.getActiveCount());
+        m.put("oldestPendingAgeSeconds", pendingAgeSeconds());
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (WebhookEventStatus status : WebhookEventStatus.values()) counts.put(status.name(), statusCounts.getOrDefault(status, 0L));
+        m.put("events", counts);
+        return m;
+    }
+
+    private void increment(String name) {
+        try {
+            meterRegistry.counter(name).increment();
+        } catch (Exception ignore) {}
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("webhook workers did not finish within 10s; remaining events stay RECEIVED");
+            executor.shutdownNow();
+        }
+        completions.shutdown();
+        if (!completions.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("webhook completions did not finish within 10s; remaining events are retried once their lease runs out");
+            completions.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.payment.webhook;
+
+import com.example.payment.persistence.enums.WebhookEventStatus;
+import com.example.payment.util.TimeOrderedIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Re-runs stored webhook events through {@link WebhookProcessor} at a fixed rate, e.g. after an incident.
+ * The range is walked with keyset pagination on (received_at, id), so neither a long-lived cursor nor the full
+ * id list is held while a replay runs for hours. Each event is reset to RECEIVED and submitted; events the
+ * worker queue cannot take are left RECEIVED for the sweeper. An event a worker is still processing (PROCESSING
+ * with an unexpired lease) is skipped, so its listeners never run twice at once. One replay runs at a time.
+ */
+@Component
+public class WebhookReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookReplayer.class);
+
+    private static final String PAGE_SQL = "SELECT id, received_at FROM webhook_events WHERE received_at >= ? AND received_at < ? "
+            + "AND (received_at > ? OR (received_at = ? AND id > ?))";
+    private static final String REQUEUE_SQL = "UPDATE webhook_events SET status = ?, attempts = 0, next_attempt_at = NULL, "
+            + "version = version + 1 WHERE id = ? AND (status <> 'PROCESSING' OR next_attempt_at IS NULL OR next_attempt_at <= ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WebhookProcessor processor;
+    private final int pageSize;
+    private final double maxRatePerSecond;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "webhook-replay");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicReference<Run> current = new AtomicReference<>();
+
+    public WebhookReplayer(JdbcTemplate jdbcTemplate,
+                           WebhookProcessor processor,
+                           @Value("${webhook.replay.page-size:500}") int pageSize,
+                           @Value("${webhook.replay.max-rate-per-second:500}") double maxRatePerSecond) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.processor = processor;
+        this.pageSize = Math.max(1, pageSize);
+        this.maxRatePerSecond = maxRatePerSecond;
+    }
+
+    /**
+     * Starts replaying events received in [from, to), optionally only those with {@code status}.
+     *
+     * @throws IllegalStateException if a replay is already running
+     */
+    public Map<String, Object> start(Instant from, Instant to, WebhookEventStatus status, double ratePerSecond) {
+        if (ratePerSecond <= 0 || ratePerSecond > maxRatePerSecond) {
+            throw new IllegalArgumentException("ratePerSecond must be in (0, " + maxRatePerSecond + "]");
+        }
+        Run run = new Run(from, to, status, ratePerSecond);
+        Run previous = current.get();
+        if (previous != null && !previous.isDone()) throw new IllegalStateException("replay " + previous.id + " is still running");
+        if (!current.compareAndSet(previous, run)) throw new IllegalStateException("another replay was started concurrently");
+        executor.execute(() -> replay(run));
+        return run.toMap();
+    }
+
+    public Map<String, Object> status() {
+        Run run = current.get();
+        return run == null ? null : run.toMap();
+    }
+
+    public boolean cancel() {
+        Run run = current.get();
+        if (run == null || run.isDone()) return false;
+        run.cancelled = true;
+        return true;
+    }
+
+    private void replay(Run run) {
+        log.info("webhook replay {} started from={} to={} status={} rate={}/s", run.id, run.from, run.to, run.status, run.rate);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / run.rate);
+        long nextAt = System.nanoTime();
+        Timestamp lastReceived = new Timestamp(0);
+        String lastId = TimeOrderedIds.NIL;
+        try {
+            while (!run.cancelled) {
+                List<Object[]> page = nextPage(run, lastReceived, lastId);
+                if (page.isEmpty()) break;
+                for (Object[] row : page) {
+                    if (run.cancelled) break;
+                    long wait = nextAt - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    nextAt = Math.max(nextAt + intervalNanos, System.nanoTime() - intervalNanos);
+
+                    String id = (String) row[0];
+                    if (jdbcTemplate.update(REQUEUE_SQL, WebhookEventStatus.RECEIVED.name(), id, Timestamp.from(Instant.now())) == 1) {
+                        if (!processor.submit(id)) run.deferred++;
+                        run.replayed++;
+                    } else {
+                        run.inFlight++;
+                    }
+                    lastId = id;
+                    lastReceived = (Timestamp) row[1];
+                    run.position = lastReceived.toInstant();
+                }
+            }
+            run.state = run.cancelled ? "CANCELLED" : "COMPLETED";
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            run.state = "CANCELLED";
+        } catch (Exception ex) {
+            log.error("webhook replay {} failed after {} events", run.id, run.replayed, ex);
+            run.error = String.valueOf(ex);
+            run.state = "FAILED";
+        }
+        run.finishedAt = Instant.now();
+        log.info("webhook replay {} {}: replayed={} deferredToSweeper={} skippedInFlight={}", run.id, run.state, run.replayed,
+                run.deferred, run.inFlight);
+    }
+
+    private List<Object[]> nextPage(Run run, Timestamp lastReceived, String lastId) {
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.from(run.from));
+        args.add(Timestamp.from(run.to));
+        args.add(lastReceived);
+        args.add(lastReceived);
+        args.add(lastId);
+        String sql = PAGE_SQL;
+        if (run.status != null) {
+            sql += " AND status = ?";
+            args.add(run.status.name());
+        }
+        sql += " ORDER BY received_at, id LIMIT " + pageSize;
+        return jdbcTemplate.query(sql, (rs, n) -> new Object[]{rs.getString(1), rs.getTimestamp(2)}, args.toArray());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private static final class Run {
+        final String id = UUID.randomUUID().toString();
+        final Instant from;
+        final Instant to;
+        final WebhookEventStatus status;
+        final double rate;
+        final Instant startedAt = Instant.now();
+        volatile Instant finishedAt;
+        volatile Instant position;
+        volatile long replayed;
+        volatile long deferred;
+        /** PROCESSING under a live lease (or gone) when reached; left to the worker that holds it */
+        volatile long inFlight;
+        volatile String state = "RUNNING";
+        volatile String error;
+        volatile boolean cancelled;
+
+        Run(Instant from, Instant to, WebhookEventStatus status, double rate) {
+            this.from = from;
+            this.to = to;
+            this.status = status;
+            this.rate = rate;
+        }
+
+        boolean isDone() {
+            return !"RUNNING".equals(state);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", id);
+            m.put("state", state);
+            m.put("from", from.toString());
+            m.put("to", to.toString());
+            m.put("status", status == null ? null : status.name());
+            m.put("ratePerSecond", rate);
+            m.put("replayed", replayed);
+            m.put("deferredToSweeper", deferred);
+            m.put("skippedInFlight", inFlight);
+            m.put("position", position == null ? null : position.toString());
+            m.put("startedAt", startedAt.toString());
+            m.put("finishedAt", finishedAt == null ? null : finishedAt.toString());
+            if (error != null) m.put("error", error);
+            return m;
+        }
+    }
+}
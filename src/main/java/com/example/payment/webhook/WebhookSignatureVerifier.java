@@ -1,56 +1,137 @@
 package com.example.payment.webhook;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.security.GeneralSecurityException;
 
+/**
+ * Verifies the Authorize.Net {@code X-ANET-Signature} header (HMAC-SHA512 over the raw request body).
+ *
+ * Keys are hex-decoded once; every thread keeps its own initialized {@link Mac} per key, so a verification
+ * is one HMAC over the body bytes and a constant-time comparison against the header's hex digits, with no
+ * per-request allocation. During a key rotation the previous key is accepted as well.
+ *
+ * Keys come from configuration only, so every node verifies with the same pair. To rotate, set
+ * {@code previous-signature-key} to the current key and {@code signature-key} to the new one, restart the nodes one
+ * by one, then regenerate the key in the Authorize.Net merchant interface. Once notifications signed with the old
+ * key have drained, clear {@code previous-signature-key} with another rolling restart.
+ */
 @Component
 public class WebhookSignatureVerifier {
 
-    @Value("${authorize-net.webhook.signature-key:}")
-    private String signatureKeyHex;
+    private static final Logger log = LoggerFactory.getLogger(WebhookSignatureVerifier.class);
+
+    private static final String ALGORITHM = "HmacSHA512";
+    private static final String HEADER_PREFIX = "SHA512";
+    private static final int DIGEST_LENGTH = 64;
+    private static final ThreadLocal<byte[]> DIGEST_BUFFER = ThreadLocal.withInitial(() -> new byte[DIGEST_LENGTH]);
+
+    /** current key first, then the previous one */
+    private final SigningKey[] keys;
+
+    public WebhookSignatureVerifier(@Value("${authorize-net.webhook.signature-key:}") String signatureKeyHex,
+                                    @Value("${authorize-net.webhook.previous-signature-key:}") String previousSignatureKeyHex) {
+        this.keys = keysOf(SigningKey.of(signatureKeyHex), SigningKey.of(previousSignatureKeyHex));
+        if (keys.length == 0) log.warn("no webhook signature key configured; all signatures will be rejected");
+    }
 
     /**
      * Verify Authorize.Net signature header of the form: SHA512=<hexDigest>
      * Returns true/false and must NOT throw.
      */
-    public boolean verify(String payload, String headerSignature) {
-        if (signatureKeyHex == null || signatureKeyHex.isEmpty()) return false;
-        if (headerSignature == null || headerSignature.isEmpty()) return false;
-
+    public boolean verify(byte[] payload, String headerSignature) {
+        if (payload == null || headerSignature == null) return false;
+        if (keys.length == 0) return false;
         try {
-            // header format: SHA512=<hex>
-            String hs = headerSignature.trim();
-            int eq = hs.indexOf('=');
-            String algPart = eq > 0 ? hs.substring(0, eq) : hs;
-            String sigHex = eq > 0 ? hs.substring(eq + 1) : "";
-            if (!algPart.equalsIgnoreCase("SHA512") || sigHex.isEmpty()) return false;
-
-            // decode signature key hex -> bytes
-            byte[] keyBytes = hexDecode(signatureKeyHex.trim());
-            if (keyBytes == null || keyBytes.length == 0) return false;
-
-            Mac mac = Mac.getInstance("HmacSHA512");
-            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "HmacSHA512");
-            mac.init(keySpec);
-            byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
-
-            // decode provided signature hex into bytes and compare raw bytes
-            byte[] providedBytes = hexDecode(sigHex.trim());
-            if (providedBytes == null || providedBytes.length != digest.length) return false;
-
-            // constant-time compare raw bytes
-            return MessageDigest.isEqual(digest, providedBytes);
+            int start = 0;
+            int end = headerSignature.length();
+            while (start < end && headerSignature.charAt(start) <= ' ') start++;
+            while (end > start && headerSignature.charAt(end - 1) <= ' ') end--;
+            int sigStart = start + HEADER_PREFIX.length() + 1;
+            if (end - sigStart != DIGEST_LENGTH * 2) return false;
+            if (!headerSignature.regionMatches(true, start, HEADER_PREFIX, 0, HEADER_PREFIX.length())) return false;
+            if (headerSignature.charAt(sigStart - 1) != '=') return false;
+
+            byte[] digest = DIGEST_BUFFER.get();
+            for (SigningKey key : keys) {
+                Mac mac = key.mac();
+                mac.update(payload);
+                mac.doFinal(digest, 0);
+                if (matchesHex(digest, headerSignature, sigStart)) return true;
+            }
+            return false;
         } catch (Exception ex) {
             return false;
         }
     }
 
-    private byte[] hexDecode(String hex) {
+    /**
+     * Convenience for callers that only have the decoded body; prefer {@link #verify(byte[], String)}.
+     */
+    public boolean verify(String payload, String headerSignature) {
+        return payload != null && verify(payload.getBytes(StandardCharsets.UTF_8), headerSignature);
+    }
+
+    /**
+     * Constant-time comparison of the digest with the hex digits starting at {@code offset}.
+     */
+    private static boolean matchesHex(byte[] digest, String hex, int offset) {
+        int diff = 0;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            int hi = Character.digit(hex.charAt(offset + 2 * i), 16);
+            int lo = Character.digit(hex.charAt(offset + 2 * i + 1), 16);
+            // an invalid digit (-1) sets bits outside the low byte
+            diff |= ((hi << 4) | lo) ^ (digest[i] & 0xFF);
+            diff |= (hi | lo) & ~0xF;
+        }
+        return diff == 0;
+    }
+
+    private static SigningKey[] keysOf(SigningKey current, SigningKey previous) {
+        if (current == null) return previous == null ? new SigningKey[0] : new SigningKey[]{previous};
+        return previous == null ? new SigningKey[]{current} : new SigningKey[]{current, previous};
+    }
+
+    private static final class SigningKey {
+        private final SecretKeySpec spec;
+        private final ThreadLocal<Mac> macs;
+
+        private SigningKey(SecretKeySpec spec) {
+            this.spec = spec;
+            this.macs = ThreadLocal.withInitial(this::newMac);
+        }
+
+        static SigningKey of(String hex) {
+            byte[] bytes = hexDecode(hex);
+            if (bytes == null || bytes.length == 0) return null;
+            SigningKey key = new SigningKey(new SecretKeySpec(bytes, ALGORITHM));
+            key.newMac(); // fail fast on a provider problem at startup rather than on the first webhook
+            return key;
+        }
+
+        /** doFinal resets the Mac, so the per-thread instance is ready for the next request */
+        Mac mac() {
+            return macs.get();
+        }
+
+        private Mac newMac() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(spec);
+                return mac;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("cannot initialise " + ALGORITHM, ex);
+            }
+        }
+    }
+
+    private static byte[] hexDecode(String hex) {
         if (hex == null) return null;
         String s = hex.trim();
         if (s.length() % 2 != 0) return null;
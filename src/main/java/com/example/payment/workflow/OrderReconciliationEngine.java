@@ -0,0 +1,383 @@
+package com.example.payment.workflow;
+
+import com.example.payment.persistence.OrderEntity;
+import com.example.payment.persistence.OrderRepository;
+import com.example.payment.persistence.OrderStatus;
+import com.example.payment.persistence.TransactionEntity;
+import com.example.payment.persistence.TransactionRepository;
+import com.example.payment.persistence.enums.TransactionType;
+import com.example.payment.util.TimeOrderedIds;
+import com.example.payment.webhook.WebhookNotificationFields;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies Authorize.Net payment notifications to {@code orders} and {@code transactions}. Notifications are
+ * collected for up to {@code webhook.reconcile.window-ms}; each window resolves all gateway transaction ids
+ * with one query, loads the affected orders (and the transactions of refunded ones) with one query each and
+ * writes the changes in one transaction.
+ *
+ * Order status only moves forward (e.g. a late {@code authorization.created} does not undo a capture), so
+ * redelivered or reordered notifications are harmless. Notifications for transactions we never created
+ * (unknown transId) are counted and skipped.
+ *
+ * A refund notification carries the refund's own transId, which we only know for refunds issued through our
+ * API; others are resolved through the refunded transaction ({@code refTransId}). Each refund is recorded
+ * once, with its {@code authAmount}, and the order becomes REFUNDED only when the refunds add up to what
+ * was captured; a partial refund leaves it CAPTURED.
+ */
+@Component
+public class OrderReconciliationEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderReconciliationEngine.class);
+
+    static final String GATEWAY = "authorize_net";
+
+    private static final Map<String, Transition> TRANSITIONS = new HashMap<>();
+
+    static {
+        TRANSITIONS.put("net.authorize.payment.authorization.created",
+                new Transition(OrderStatus.AUTHORIZED, TransactionType.AUTHORIZATION, "AUTHORIZED", EnumSet.of(OrderStatus.PENDING)));
+        Transition capture = new Transition(OrderStatus.CAPTURED, TransactionType.CAPTURE, "CAPTURED",
+                EnumSet.of(OrderStatus.PENDING, OrderStatus.AUTHORIZED));
+        TRANSITIONS.put("net.authorize.payment.authcapture.created", capture);
+        TRANSITIONS.put("net.authorize.payment.capture.created", capture);
+        TRANSITIONS.put("net.authorize.payment.priorAuthCapture.created", capture);
+        // an unsettled capture can still be voided
+        TRANSITIONS.put("net.authorize.payment.void.created",
+                new Transition(OrderStatus.VOIDED, TransactionType.VOID, "VOIDED",
+                        EnumSet.of(OrderStatus.PENDING, OrderStatus.AUTHORIZED, OrderStatus.CAPTURED)));
+        TRANSITIONS.put("net.authorize.payment.refund.created",
+                new Transition(OrderStatus.REFUNDED, TransactionType.REFUND, "REFUNDED", EnumSet.of(OrderStatus.CAPTURED)));
+        TRANSITIONS.put("net.authorize.payment.fraud.declined",
+                new Transition(OrderStatus.FAILED, null, null, EnumSet.of(OrderStatus.PENDING, OrderStatus.AUTHORIZED)));
+    }
+
+    private static final Transition DECLINED = new Transition(OrderStatus.FAILED, null, null, EnumSet.of(OrderStatus.PENDING));
+
+    private final OrderRepository orderRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final DistributionSummary batchSizes;
+    private Thread flusher;
+    private volatile boolean running;
+
+    public OrderReconciliationEngine(OrderRepository orderRepository,
+                                     TransactionRepository transactionRepository,
+                                     PlatformTransactionManager transactionManager,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${webhook.reconcile.max-batch:200}") int maxBatch,
+                                     @Value("${webhook.reconcile.window-ms:20}") long windowMs,
+                                     @Value("${webhook.reconcile.queue-capacity:10000}") int queueCapacity) {
+        this.orderRepository = orderRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        this.batchSizes = DistributionSummary.builder("webhook.reconcile.batch.size")
+                .description("Webhook notifications reconciled per batch")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "order-reconciler");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(5000);
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) flush(rest);
+    }
+
+    public boolean handles(WebhookNotificationFields fields) {
+        return fields.getEventType() != null && TRANSITIONS.containsKey(fields.getEventType())
+                && fields.getEntityId() != null && !fields.getEntityId().isEmpty()
+                && (fields.getEntityName() == null || "transaction".equalsIgnoreCase(fields.getEntityName()));
+    }
+
+    /**
+     * Queue a notification for the next batch. The future completes once the batch is committed.
+     */
+    public CompletableFuture<Void> submit(String webhookId, WebhookNotificationFields fields) {
+        Pending pending = new Pending(webhookId, fields);
+        if (!running || !queue.offer(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("order reconciliation queue is full"));
+        }
+        return pending.future;
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException ex) {
+                if (!batch.isEmpty()) flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        batchSizes.record(batch.size());
+        try {
+            transactionTemplate.executeWithoutResult(status -> apply(batch));
+            for (Pending p : batch) p.future.complete(null);
+        } catch (Exception ex) {
+            if (batch.size() == 1) {
+                log.error("order reconciliation failed webhookId={}", batch.get(0).webhookId, ex);
+                batch.get(0).future.completeExceptionally(ex);
+                return;
+            }
+            // e.g. an optimistic lock conflict with a concurrent API call; isolate it so the rest still commit
+            log.warn("order reconciliation batch of {} failed, retrying individually: {}", batch.size(), ex.toString());
+            for (Pending p : batch) flush(Collections.singletonList(p));
+        }
+    }
+
+    private void apply(List<Pending> batch) {
+        Set<String> transIds = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            transIds.add(p.fields.getEntityId());
+            if (p.fields.getRefTransId() != null) transIds.add(p.fields.getRefTransId());
+        }
+
+        Map<String, List<TransactionEntity>> byTransId = new HashMap<>();
+        Set<String> orderIds = new LinkedHashSet<>();
+        for (TransactionEntity t : transactionRepository.findByGatewayTransactionIdIn(transIds)) {
+            byTransId.computeIfAbsent(t.getGatewayTransactionId(), k -> new ArrayList<>()).add(t);
+            orderIds.add(t.getOrderId());
+        }
+        Map<String, OrderEntity> orders = new HashMap<>();
+        for (OrderEntity o : orderRepository.findAllById(orderIds)) orders.put(o.getId(), o);
+
+        Map<String, OrderEntity> changedOrders = new HashMap<>();
+        List<TransactionEntity> newTransactions = new ArrayList<>();
+        Map<String, List<TransactionEntity>> refundHistory = refundHistory(batch, byTransId);
+        Instant now = Instant.now();
+        for (Pending p : batch) {
+            WebhookNotificationFields f = p.fields;
+            List<TransactionEntity> known = matching(f, byTransId);
+            OrderEntity order = known == null ? null : orders.get(known.get(0).getOrderId());
+            if (order == null) {
+                outcome("unmatched");
+                log.info("no order for gateway transId={} eventType={} webhookId={}", f.getEntityId(), f.getEventType(), p.webhookId);
+                continue;
+            }
+            Transition transition = transitionFor(f);
+            if (transition == null) {
+                outcome("ignored");
+                continue;
+            }
+            OrderStatus current = parseStatus(order.getStatus());
+            if (current == transition.target || current == null || !transition.from.contains(current)) {
+                outcome("skipped");
+                continue;
+            }
+            if (transition.transactionType == TransactionType.REFUND) {
+                List<TransactionEntity> history = refundHistory.computeIfAbsent(order.getId(), id -> new ArrayList<>());
+                long captured = capturedCents(order, history);
+                if (!hasRefund(history, f.getEntityId())) {
+                    long remaining = captured - sum(history, TransactionType.REFUND);
+                    TransactionEntity t = newTransaction(order, f, transition, now, remaining);
+                    history.add(t);
+                    newTransactions.add(t);
+                }
+                if (sum(history, TransactionType.REFUND) < captured) {
+                    outcome("partial_refund");
+                    log.info("order {} partially refunded ({} of {} cents) transId={} webhookId={}", order.getId(),
+                            sum(history, TransactionType.REFUND), captured, f.getEntityId(), p.webhookId);
+                    continue;
+                }
+            }
+            order.setStatus(transition.target.name());
+            order.setUpdatedAt(now);
+            changedOrders.put(order.getId(), order);
+            if (transition.transactionType != null && transition.transactionType != TransactionType.REFUND
+                    && !hasType(known, transition.transactionType)) {
+                TransactionEntity t = newTransaction(order, f, transition, now, order.getAmountCents());
+                known.add(t);
+                newTransactions.add(t);
+            }
+            outcome("applied");
+            log.info("order {} {} -> {} from {} transId={} webhookId={}", order.getId(), current, transition.target,
+                    f.getEventType(), f.getEntityId(), p.webhookId);
+        }
+        if (!changedOrders.isEmpty()) orderRepository.saveAll(changedOrders.values());
+        if (!newTransactions.isEmpty()) transactionRepository.saveAll(newTransactions);
+    }
+
+    private static List<TransactionEntity> matching(WebhookNotificationFields f, Map<String, List<TransactionEntity>> byTransId) {
+        List<TransactionEntity> known = byTransId.get(f.getEntityId());
+        if (known == null && f.getRefTransId() != null) known = byTransId.get(f.getRefTransId());
+        return known;
+    }
+
+    /**
+     * All transactions of the orders refunded in {@code batch}, by order id, with one query for the batch.
+     */
+    private Map<String, List<TransactionEntity>> refundHistory(List<Pending> batch, Map<String, List<TransactionEntity>> byTransId) {
+        Set<String> refundedOrders = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            Transition transition = transitionFor(p.fields);
+            List<TransactionEntity> known = matching(p.fields, byTransId);
+            if (known != null && transition != null && transition.transactionType == TransactionType.REFUND) {
+                refundedOrders.add(known.get(0).getOrderId());
+            }
+        }
+        Map<String, List<TransactionEntity>> history = new HashMap<>();
+        if (refundedOrders.isEmpty()) return history;
+        for (TransactionEntity t : transactionRepository.findByOrderIdIn(refundedOrders)) {
+            history.computeIfAbsent(t.getOrderId(), k -> new ArrayList<>()).add(t);
+        }
+        return history;
+    }
+
+    private static Transition transitionFor(WebhookNotificationFields f) {
+        Integer code = f.getResponseCode();
+        if (code == null || code == 1) return TRANSITIONS.get(f.getEventType());
+        if (code == 2 || code == 3) return DECLINED;
+        return null; // held for review: wait for the follow-up notification
+    }
+
+    /**
+     * {@code defaultCents} is used when the notification has no positive {@code authAmount}.
+     */
+    private static TransactionEntity newTransaction(OrderEntity order, WebhookNotificationFields f, Transition transition,
+                                                    Instant now, Long defaultCents) {
+        TransactionEntity t = new TransactionEntity();
+        t.setId(TimeOrderedIds.next());
+        t.setOrderId(order.getId());
+        BigDecimal amount = f.getAuthAmount();
+        t.setAmountCents(amount != null && amount.signum() > 0 ? amount.movePointRight(2).longValue() : defaultCents);
+        t.setCurrency(order.getCurrency());
+        t.setType(transition.transactionType);
+        t.setStatus(transition.transactionStatus);
+        t.setCreatedAt(now);
+        t.setUpdatedAt(now);
+        t.setGateway(GATEWAY);
+        t.setGatewayTransactionId(f.getEntityId());
+        t.setGatewayMessage("webhook " + f.getEventType());
+        return t;
+    }
+
+    private static boolean hasType(List<TransactionEntity> transactions, TransactionType type) {
+        for (TransactionEntity t : transactions) {
+            if (t.getType() == type) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasRefund(List<TransactionEntity> transactions, String gatewayTransactionId) {
+        for (TransactionEntity t : transactions) {
+            if (t.getType() == TransactionType.REFUND && gatewayTransactionId.equals(t.getGatewayTransactionId())) return true;
+        }
+        return false;
+    }
+
+    private static long sum(List<TransactionEntity> transactions, TransactionType type) {
+        long cents = 0;
+        for (TransactionEntity t : transactions) {
+            if (t.getType() == type && t.getAmountCents() != null) cents += t.getAmountCents();
+        }
+        return cents;
+    }
+
+    /** what was captured according to our CAPTURE transactions, else the order amount */
+    private static long capturedCents(OrderEntity order, List<TransactionEntity> history) {
+        long captured = sum(history, TransactionType.CAPTURE);
+        if (captured > 0) return captured;
+        return order.getAmountCents() == null ? 0L : order.getAmountCents();
+    }
+
+    private static OrderStatus parseStatus(String status) {
+        if (status == null) return null;
+        try {
+            return OrderStatus.valueOf(status);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private void outcome(String outcome) {
+        try {
+            meterRegistry.counter("webhook.reconcile.events", "outcome", outcome).increment();
+        } catch (Exception ignore) {}
+    }
+
+    private static final class Transition {
+        final OrderStatus target;
+        final TransactionType transactionType;
+        final String transactionStatus;
+        final Set<OrderStatus> from;
+
+        Transition(OrderStatus target, TransactionType transactionType, String transactionStatus, Set<OrderStatus> from) {
+            this.target = target;
+            this.transactionType = transactionType;
+            this.transactionStatus = transactionStatus;
+            this.from = from;
+        }
+    }
+
+    private static final class Pending {
+        final String webhookId;
+        final WebhookNotificationFields fields;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(String webhookId, WebhookNotificationFields fields) {
+            this.webhookId = webhookId;
+            this.fields = fields;
+        }
+    }
+}
@@ -1,8 +1,28 @@
 package com.example.payment.workflow;
 
+import com.example.payment.events.WebhookReceivedEvent;
+import com.example.payment.webhook.WebhookNotificationFields;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+/**
+ * Feeds Authorize.Net payment notifications into the {@link OrderReconciliationEngine}. The webhook worker does
+ * not wait for the batch: the stored event is completed from the batch's future, so a failure still marks it
+ * FAILED instead of PROCESSED, and a node dying in between leaves it PROCESSING until its lease runs out.
+ */
 @Component
 public class WebhookListener {
-    // Placeholder listener for webhook processing (queue consumer will be added in Phase 2)
+
+    private final OrderReconciliationEngine engine;
+
+    public WebhookListener(OrderReconciliationEngine engine) {
+        this.engine = engine;
+    }
+
+    @EventListener
+    public void onWebhookReceived(WebhookReceivedEvent ev) {
+        WebhookNotificationFields fields = WebhookNotificationFields.parse(ev.getPayload());
+        if (!engine.handles(fields)) return;
+        ev.completeLater(engine.submit(ev.getWebhookId(), fields));
+    }
 }
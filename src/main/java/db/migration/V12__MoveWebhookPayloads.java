@@ -0,0 +1,45 @@
+package db.migration;
+
+import com.example.payment.webhook.PayloadCodec;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Copies existing webhook_events.payload values into webhook_payloads, compressed with {@link PayloadCodec}.
+ * Written in Java because the compression cannot be expressed in SQL; V13 then drops the old column.
+ */
+public class V12__MoveWebhookPayloads extends BaseJavaMigration {
+
+    private static final int BATCH = 500;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection con = context.getConnection();
+        try (Statement select = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             PreparedStatement insert = con.prepareStatement(
+                     "INSERT INTO webhook_payloads (event_id, encoding, size_bytes, payload) VALUES (?, ?, ?, ?)")) {
+            select.setFetchSize(BATCH);
+            int pending = 0;
+            try (ResultSet rs = select.executeQuery("SELECT id, payload FROM webhook_events WHERE payload IS NOT NULL")) {
+                while (rs.next()) {
+                    PayloadCodec.Encoded encoded = PayloadCodec.encode(rs.getString(2));
+                    insert.setString(1, rs.getString(1));
+                    insert.setString(2, encoded.getEncoding());
+                    insert.setInt(3, encoded.getRawLength());
+                    insert.setBytes(4, encoded.getBytes());
+                    insert.addBatch();
+                    if (++pending == BATCH) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) insert.executeBatch();
+        }
+    }
+}
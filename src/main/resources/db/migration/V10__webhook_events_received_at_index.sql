@@ -0,0 +1,2 @@
+-- Flyway V10: time-range export/replay across all statuses walks webhook_events in received_at order
+CREATE INDEX idx_webhook_events_received_at ON webhook_events (received_at, id);
@@ -0,0 +1,18 @@
+-- Flyway V11: keep webhook payloads out of the hot webhook_events row. Payloads live in their own table,
+-- compressed (encoding = gzip|identity), and are only read when an event is processed or exported.
+CREATE TABLE IF NOT EXISTS webhook_payloads (
+  event_id VARCHAR(64) PRIMARY KEY,
+  encoding VARCHAR(16) NOT NULL,
+  size_bytes INT,
+  payload BLOB
+);
+
+-- events older than the retention window are moved to daily segment files; this is the point-lookup index
+CREATE TABLE IF NOT EXISTS webhook_archive_index (
+  event_id VARCHAR(64) PRIMARY KEY,
+  segment VARCHAR(64) NOT NULL,
+  segment_offset BIGINT NOT NULL,
+  record_length INT NOT NULL,
+  received_at TIMESTAMP,
+  archived_at TIMESTAMP
+);
@@ -0,0 +1,2 @@
+-- Flyway V13: payloads were copied to webhook_payloads by V12; the wide column goes away from the hot table
+ALTER TABLE webhook_events DROP COLUMN payload;
@@ -0,0 +1,2 @@
+-- Flyway V14: renewal runs page through ACTIVE subscriptions in (next_billing_at, id) order
+CREATE INDEX idx_subscriptions_status_next_billing ON subscriptions (status, next_billing_at, id);
@@ -0,0 +1,4 @@
+-- Flyway V15: renewal workers on several nodes claim disjoint batches of due subscriptions; the claim is a
+-- short lease so a crashed worker's batch becomes claimable again
+ALTER TABLE subscriptions ADD COLUMN renewal_claimed_by VARCHAR(128);
+ALTER TABLE subscriptions ADD COLUMN renewal_claimed_until TIMESTAMP;
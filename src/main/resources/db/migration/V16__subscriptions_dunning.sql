@@ -0,0 +1,7 @@
+-- Flyway V16: dunning state for subscriptions whose renewal charge failed (status PAST_DUE)
+ALTER TABLE subscriptions ADD COLUMN dunning_attempts INT DEFAULT 0 NOT NULL;
+ALTER TABLE subscriptions ADD COLUMN past_due_since TIMESTAMP;
+ALTER TABLE subscriptions ADD COLUMN next_retry_at TIMESTAMP;
+
+-- retry claims: status = 'PAST_DUE' AND next_retry_at <= ? ORDER BY next_retry_at, id
+CREATE INDEX idx_subscriptions_status_next_retry ON subscriptions (status, next_retry_at, id);
@@ -0,0 +1,24 @@
+-- Flyway V17: one renewal charge per billing cycle, and checkpoints of renewal runs
+
+-- '<subscriptionId>:<cycle start>' on the PENDING/COMPLETED renewal transaction of a cycle; cleared when the
+-- charge fails so a dunning retry of the same cycle can take it again
+ALTER TABLE transactions ADD COLUMN billing_cycle_key VARCHAR(128);
+CREATE UNIQUE INDEX uq_transactions_billing_cycle_key ON transactions (billing_cycle_key);
+
+CREATE TABLE IF NOT EXISTS renewal_runs (
+  id VARCHAR(64) PRIMARY KEY,
+  owner VARCHAR(128),
+  cutoff TIMESTAMP NOT NULL,
+  status VARCHAR(16) NOT NULL,
+  chunks INT DEFAULT 0 NOT NULL,
+  renewed BIGINT DEFAULT 0 NOT NULL,
+  failed BIGINT DEFAULT 0 NOT NULL,
+  resumed INT DEFAULT 0 NOT NULL,
+  started_at TIMESTAMP NOT NULL,
+  updated_at TIMESTAMP NOT NULL,
+  finished_at TIMESTAMP
+);
+CREATE INDEX idx_renewal_runs_status_updated ON renewal_runs (status, updated_at);
+
+-- claims are looked up by token (conditional-update claims) and by run prefix (resuming a run)
+CREATE INDEX idx_subscriptions_renewal_claimed_by ON subscriptions (renewal_claimed_by);
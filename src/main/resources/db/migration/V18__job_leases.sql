@@ -0,0 +1,10 @@
+-- Flyway V18: leases for jobs that must run on one instance at a time (@ClusterSingleton)
+CREATE TABLE IF NOT EXISTS job_leases (
+  name VARCHAR(64) PRIMARY KEY,
+  owner VARCHAR(128) NOT NULL,
+  lease_until TIMESTAMP NOT NULL,
+  -- incremented on every change of owner, so a holder can tell whether it kept the lease throughout a run
+  fencing_token BIGINT DEFAULT 0 NOT NULL,
+  acquired_at TIMESTAMP NOT NULL,
+  heartbeat_at TIMESTAMP NOT NULL
+);
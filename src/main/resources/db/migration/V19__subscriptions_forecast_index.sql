@@ -0,0 +1,2 @@
+-- Flyway V19: covering index for the billing forecast aggregate (index-only scan on PostgreSQL)
+CREATE INDEX idx_subscriptions_forecast ON subscriptions (status, next_billing_at, currency, interval_days, amount_cents);
@@ -0,0 +1,3 @@
+-- Flyway V20: billing_cycle_key is '<subscriptionId>:<cycle start>'; subscription ids are up to 255 characters
+-- (imports may bring their own) and an ISO-8601 instant up to 30, so 128 was too short
+ALTER TABLE transactions ALTER COLUMN billing_cycle_key SET DATA TYPE VARCHAR(320);
@@ -0,0 +1,4 @@
+-- Flyway V6: webhook events are processed asynchronously; keep the request correlation id with the row
+-- and index the worker's sweep over pending events
+ALTER TABLE webhook_events ADD COLUMN correlation_id VARCHAR(128);
+CREATE INDEX idx_webhook_events_status_received ON webhook_events (status, received_at);
@@ -0,0 +1,4 @@
+-- Flyway V7: Authorize.Net redelivers notifications; store their notificationId so a redelivery is rejected
+-- by the database even when the in-memory filter has not seen it (NULLs stay allowed for unsigned/legacy rows)
+ALTER TABLE webhook_events ADD COLUMN notification_id VARCHAR(128);
+CREATE UNIQUE INDEX uq_webhook_events_notification_id ON webhook_events (notification_id);
@@ -0,0 +1,2 @@
+-- Flyway V8: map Authorize.Net transIds back to orders without a full scan (webhook reconciliation, support lookups)
+CREATE INDEX idx_transactions_gateway_transaction_id ON transactions (gateway_transaction_id);
@@ -0,0 +1,6 @@
+-- Flyway V9: failed webhook events are retried with backoff and dead-lettered after the last attempt;
+-- the retry scheduler reads due events through (status, next_attempt_at)
+ALTER TABLE webhook_events ADD COLUMN attempts INT DEFAULT 0 NOT NULL;
+ALTER TABLE webhook_events ADD COLUMN next_attempt_at TIMESTAMP;
+ALTER TABLE webhook_events ADD COLUMN last_error VARCHAR(1024);
+CREATE INDEX idx_webhook_events_status_next_attempt ON webhook_events (status, next_attempt_at);
@@ -0,0 +1,46 @@
+-- Optional, PostgreSQL only: stores the UUID keys in the native 16-byte uuid type instead of VARCHAR (36+ bytes
+-- per key in every row and index entry). Enabled by adding classpath:db/optional/postgres-uuid to the Flyway
+-- locations; runs after every migrate and only converts columns that are still VARCHAR.
+--
+-- The application keeps binding ids as strings, so the JDBC URL needs stringtype=unspecified
+-- (jdbc:postgresql://host/db?stringtype=unspecified), and subscription.import.require-uuid-ids should be set so
+-- the import cannot bring in other ids. Keys compared with each other are converted together; a group holding a
+-- value that is not a UUID (e.g. subscriptions imported before that setting) stays VARCHAR with a warning until
+-- those rows are fixed, instead of failing the migration.
+DO $$
+DECLARE
+  key_group text;
+  col text;
+  bad boolean;
+  convertible boolean;
+BEGIN
+  FOREACH key_group IN ARRAY ARRAY['orders.id,subscriptions.id,transactions.order_id', 'transactions.id',
+                                   'webhook_events.id,webhook_payloads.event_id,webhook_archive_index.event_id',
+                                   'renewal_runs.id']
+  LOOP
+    convertible := true;
+    FOREACH col IN ARRAY string_to_array(key_group, ',')
+    LOOP
+      IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema()
+                 AND table_name = split_part(col, '.', 1) AND column_name = split_part(col, '.', 2)
+                 AND data_type = 'character varying') THEN
+        EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE %I !~* %L)', split_part(col, '.', 1), split_part(col, '.', 2),
+                       '^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$') INTO bad;
+        IF bad THEN
+          RAISE WARNING '% holds values that are not UUIDs; % stays VARCHAR', col, key_group;
+          convertible := false;
+        END IF;
+      END IF;
+    END LOOP;
+    CONTINUE WHEN NOT convertible;
+    FOREACH col IN ARRAY string_to_array(key_group, ',')
+    LOOP
+      IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema()
+                 AND table_name = split_part(col, '.', 1) AND column_name = split_part(col, '.', 2)
+                 AND data_type = 'character varying') THEN
+        EXECUTE format('ALTER TABLE %I ALTER COLUMN %I TYPE uuid USING %I::uuid', split_part(col, '.', 1),
+                       split_part(col, '.', 2), split_part(col, '.', 2));
+      END IF;
+    END LOOP;
+  END LOOP;
+END $$;
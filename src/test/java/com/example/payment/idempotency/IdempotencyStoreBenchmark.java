@@ -0,0 +1,92 @@
+package com.example.payment.idempotency;
+
+import com.example.payment.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the JPA and memory-mapped idempotency backends through {@link IdempotencyService}, i.e. the
+ * work the idempotency filter does per write request (claim, then store the response snapshot) and per
+ * retried request (replay).
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.payment.idempotency.IdempotencyStoreBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyStoreBenchmark {
+
+    private static final String RESPONSE = "{\"id\":\"0b1f6c9e-4a53-4f0e-9d36-2f4d2a0c7c11\",\"status\":\"PENDING\",\"amountCents\":4999,\"currency\":\"USD\"}";
+
+    @Param({"jpa", "mapped"})
+    public String store;
+
+    private ConfigurableApplicationContext context;
+    private IdempotencyService service;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        String dir = Files.createTempDirectory("idempotency-bench").toString();
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("idempotency.store=" + store,
+                        "idempotency.mapped.path=" + dir + "/idempotency.log",
+                        "logging.level.root=WARN")
+                .run();
+        service = context.getBean(IdempotencyService.class);
+        for (int i = 0; i < 1000; i++) {
+            service.claim("replay-" + i, "hash-" + i);
+            service.saveResponse("replay-" + i, 201, "{}", RESPONSE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public IdempotencyService.ClaimResult claimAndComplete() {
+        long n = sequence.incrementAndGet();
+        String key = "bench-" + n;
+        IdempotencyService.ClaimResult claim = service.claim(key, "hash-" + n);
+        service.saveResponse(key, 201, "{}", RESPONSE);
+        return claim;
+    }
+
+    @Benchmark
+    public IdempotencyService.ClaimResult replay() {
+        int n = (int) (sequence.incrementAndGet() % 1000);
+        return service.claim("replay-" + n, "hash-" + n);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IdempotencyStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
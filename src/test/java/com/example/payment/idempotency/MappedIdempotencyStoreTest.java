@@ -0,0 +1,199 @@
+package com.example.payment.idempotency;
+
+import com.example.payment.persistence.IdempotencyKeyEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedIdempotencyStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private MappedIdempotencyStore store;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (store != null) store.close();
+    }
+
+    @Test
+    void concurrentPutIfAbsentStoresOnlyOne() throws Exception {
+        store = open(1);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Optional<IdempotencyKeyEntity>>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String hash = "hash-" + i;
+            results.add(pool.submit(() -> {
+                start.await();
+                return store.putIfAbsent(entity("key-1", hash));
+            }));
+        }
+        start.countDown();
+        int stored = 0;
+        String winner = null;
+        for (int i = 0; i < threads; i++) {
+            if (!results.get(i).get(10, TimeUnit.SECONDS).isPresent()) {
+                stored++;
+                winner = "hash-" + i;
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(1, stored);
+        assertEquals(winner, store.find("key-1").get().getRequestHash());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void onlyOneRetryTakesOverAStaleInProgressKey() throws Exception {
+        store = open(1);
+        IdempotencyKeyEntity stale = entity("key-1", "hash");
+        stale.setCreatedAt(Instant.now().minusSeconds(3600));
+        store.save(stale);
+        IdempotencyService service = new IdempotencyService(store, 60_000);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<IdempotencyService.ClaimResult>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return service.claim("key-1", "hash");
+            }));
+        }
+        start.countDown();
+        int claimed = 0;
+        for (Future<IdempotencyService.ClaimResult> r : results) {
+            IdempotencyService.ClaimResult.Type type = r.get(10, TimeUnit.SECONDS).getType();
+            if (type == IdempotencyService.ClaimResult.Type.NEW) claimed++;
+            else assertEquals(IdempotencyService.ClaimResult.Type.IN_PROGRESS, type);
+        }
+        pool.shutdown();
+
+        assertEquals(1, claimed);
+        assertTrue(store.find("key-1").get().getCreatedAt().isAfter(stale.getCreatedAt()));
+    }
+
+    @Test
+    void tornTailIsDroppedOnRecovery() throws IOException {
+        store = open(1);
+        store.save(entity("a", "hash-a"));
+        store.save(entity("b", "hash-b"));
+        store.close();
+
+        // damage the last byte of the second record, as if the process died while appending it
+        Path log = dir.resolve("idempotency.log.0");
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int second = 16 + 8 + readInt(ch, 16);
+            long lastByte = second + 8 + readInt(ch, second) - 1;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, lastByte);
+            b.put(0, (byte) (b.get(0) ^ 0xFF));
+            b.rewind();
+            ch.write(b, lastByte);
+        }
+
+        store = open(1);
+        assertEquals("hash-a", store.find("a").get().getRequestHash());
+        assertFalse(store.find("b").isPresent());
+        assertEquals(1, store.size());
+
+        // the damaged tail is overwritten by the next append, which survives another restart
+        store.save(entity("c", "hash-c"));
+        store.close();
+        store = open(1);
+        assertTrue(store.find("a").isPresent());
+        assertEquals("hash-c", store.find("c").get().getRequestHash());
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void compactionKeepsOnlyTheLatestUnexpiredRecords() throws IOException {
+        store = open(1);
+        store.save(entity("k1", "hash-1"));
+        IdempotencyKeyEntity done = entity("k1", "hash-1");
+        done.setResponseStatus(201);
+        done.setResponseBody("{\"id\":\"o-1\"}");
+        store.save(done);
+        IdempotencyKeyEntity expired = entity("k2", "hash-2");
+        expired.setExpiresAt(Instant.now().minusSeconds(60));
+        store.save(expired);
+        store.save(entity("k3", "hash-3"));
+
+        store.compact();
+
+        assertTrue(Files.exists(dir.resolve("idempotency.log.1")));
+        assertFalse(Files.exists(dir.resolve("idempotency.log.0")));
+        assertEquals(2, store.size());
+        assertEquals("{\"id\":\"o-1\"}", store.find("k1").get().getResponseBody());
+        assertFalse(store.find("k2").isPresent());
+
+        store.close();
+        store = open(1);
+        assertEquals(Integer.valueOf(201), store.find("k1").get().getResponseStatus());
+        assertTrue(store.find("k3").isPresent());
+        assertFalse(store.find("k2").isPresent());
+    }
+
+    @Test
+    void indexAndLogGrowPastTheirInitialCapacity() throws IOException {
+        // the index starts with 1024 slots and the log with 1 MB; 12k records of ~200 bytes exceed both
+        store = open(1);
+        int keys = 12_000;
+        for (int i = 0; i < keys; i++) {
+            IdempotencyKeyEntity e = entity("key-" + i, "hash-" + i);
+            e.setResponseBody("{\"id\":\"" + i + "\",\"status\":\"PENDING\",\"amountCents\":4999,\"currency\":\"USD\"}");
+            store.save(e);
+        }
+        assertEquals(keys, store.size());
+        for (int i = 0; i < keys; i++) assertEquals("hash-" + i, store.find("key-" + i).get().getRequestHash());
+
+        store.close();
+        store = open(1);
+        assertEquals(keys, store.size());
+        for (int i = 0; i < keys; i++) assertEquals("hash-" + i, store.find("key-" + i).get().getRequestHash());
+    }
+
+    private MappedIdempotencyStore open(long capacityMb) throws IOException {
+        MappedIdempotencyStore s = new MappedIdempotencyStore(dir.resolve("idempotency.log").toString(), capacityMb, 24, false);
+        s.open();
+        return s;
+    }
+
+    private static IdempotencyKeyEntity entity(String key, String requestHash) {
+        IdempotencyKeyEntity e = new IdempotencyKeyEntity();
+        e.setKey(key);
+        e.setRequestHash(requestHash);
+        e.setCreatedAt(Instant.now());
+        return e;
+    }
+
+    private static int readInt(FileChannel ch, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4);
+        ch.read(b, position);
+        return b.getInt(0);
+    }
+}
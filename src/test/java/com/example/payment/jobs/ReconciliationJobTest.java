@@ -0,0 +1,122 @@
+package com.example.payment.jobs;
+
+import com.example.payment.jobs.SubscriptionClaimer.Claim;
+import com.example.payment.persistence.SubscriptionEntity;
+import com.example.payment.service.SubscriptionService;
+import com.example.payment.service.SubscriptionService.ChargeOutcome;
+import com.example.payment.service.SubscriptionService.ChargeResult;
+import com.example.payment.service.SubscriptionService.RenewalChunk;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Charges must not outlive the claim they run under, a chunk that cannot be opened gives its claim back, and a
+ * manual renewal must not wait behind batch charges.
+ */
+public class ReconciliationJobTest {
+
+    private static final long MARGIN_MS = 60_000;
+    private static final long MANUAL_TIMEOUT_MS = 10_000;
+
+    private SubscriptionService subscriptionService;
+    private SubscriptionClaimer claimer;
+    private RenewalCharger charger;
+    private ReconciliationJob job;
+    private SubscriptionEntity sub;
+
+    @BeforeEach
+    void setUp() {
+        subscriptionService = mock(SubscriptionService.class);
+        claimer = mock(SubscriptionClaimer.class);
+        charger = mock(RenewalCharger.class);
+        job = new ReconciliationJob(subscriptionService, claimer, charger, mock(RenewalRunStore.class), new SimpleMeterRegistry(),
+                1, MARGIN_MS, MANUAL_TIMEOUT_MS);
+        sub = new SubscriptionEntity();
+        sub.setId("sub-1");
+        sub.setAmountCents(1000L);
+        sub.setCurrency("USD");
+        when(subscriptionService.openCycles(anyString(), anyList())).thenReturn(Collections.singletonList(sub));
+        when(subscriptionService.recordCharges(anyString(), anyList()))
+                .thenReturn(new RenewalChunk(Collections.<String>emptyList(), Collections.<String>emptyList(), Collections.<String>emptyList()));
+    }
+
+    @Test
+    void chargesStopBeforeTheClaimMarginWhateverTheRunDeadline() throws Exception {
+        when(charger.chargeAll(anyList(), anyLong())).thenReturn(Collections.<ChargeResult>emptyList());
+        long started = System.nanoTime();
+        Claim claim = new Claim("run/1", Collections.singletonList("sub-1"), Instant.now().plusSeconds(300));
+
+        int[] outcome = job.renew(claim, "run", started + TimeUnit.HOURS.toNanos(1));
+
+        ArgumentCaptor<Long> deadline = ArgumentCaptor.forClass(Long.class);
+        verify(charger).chargeAll(anyList(), deadline.capture());
+        long leaseLeft = TimeUnit.NANOSECONDS.toMillis(deadline.getValue() - started);
+        assertTrue(leaseLeft > 230_000 && leaseLeft <= 240_000, "charge deadline " + leaseLeft + " ms after the claim");
+        assertEquals(1, outcome[2]);
+        verify(claimer).release("run/1", Collections.singletonList("sub-1"));
+    }
+
+    @Test
+    void aClaimWithinItsMarginIsNotCharged() throws Exception {
+        when(charger.chargeAll(anyList(), anyLong())).thenReturn(Collections.<ChargeResult>emptyList());
+        Claim claim = new Claim("run/1", Collections.singletonList("sub-1"), Instant.now().plusSeconds(30));
+
+        job.renew(claim, "run", System.nanoTime() + TimeUnit.HOURS.toNanos(1));
+
+        ArgumentCaptor<Long> deadline = ArgumentCaptor.forClass(Long.class);
+        verify(charger).chargeAll(anyList(), deadline.capture());
+        assertTrue(deadline.getValue() <= System.nanoTime(), "deadline is already past");
+        verify(subscriptionService).abandonCycles(Collections.singletonList(sub));
+    }
+
+    @Test
+    void claimIsReleasedWhenCyclesCannotBeOpened() throws Exception {
+        when(subscriptionService.openCycles(anyString(), anyList())).thenThrow(new IllegalStateException("value too long"));
+        Claim claim = new Claim("run/1", Collections.singletonList("sub-1"), Instant.now().plusSeconds(300));
+
+        assertThrows(IllegalStateException.class, () -> job.renew(claim, "run", System.nanoTime() + TimeUnit.HOURS.toNanos(1)));
+
+        verify(claimer).release("run/1", Collections.singletonList("sub-1"));
+        verify(charger, never()).chargeAll(anyList(), anyLong());
+    }
+
+    @Test
+    void manualRenewalChargesOnTheCallingThreadWithItsOwnTimeout() throws Exception {
+        when(claimer.claimOne(anyString(), eq("sub-1")))
+                .thenReturn(new Claim("manual/1", Collections.singletonList("sub-1"), Instant.now().plusSeconds(300)));
+        ChargeResult charged = new ChargeResult("sub-1", "sub-1:k", 1000L, "USD", ChargeOutcome.CHARGED, "t-1", null);
+        when(charger.chargeNow(any(SubscriptionEntity.class), anyLong())).thenReturn(charged);
+        when(subscriptionService.recordCharges(anyString(), anyList()))
+                .thenReturn(new RenewalChunk(Collections.singletonList("sub-1"), Collections.<String>emptyList(), Collections.<String>emptyList()));
+        long started = System.nanoTime();
+
+        assertEquals(ReconciliationJob.ManualRenewal.RENEWED, job.renewNow("sub-1"));
+
+        ArgumentCaptor<Long> deadline = ArgumentCaptor.forClass(Long.class);
+        verify(charger).chargeNow(eq(sub), deadline.capture());
+        assertTrue(deadline.getValue() - started <= TimeUnit.MILLISECONDS.toNanos(MANUAL_TIMEOUT_MS) + TimeUnit.SECONDS.toNanos(1));
+        verify(charger, never()).chargeAll(anyList(), anyLong());
+        List<ChargeResult> recorded = Collections.singletonList(charged);
+        verify(subscriptionService).recordCharges("manual/1", recorded);
+    }
+}
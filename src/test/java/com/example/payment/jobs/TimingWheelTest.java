@@ -0,0 +1,82 @@
+package com.example.payment.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimingWheelTest {
+
+    private static final long SECOND = 1000;
+    /** 3 hours of 1 s ticks: three levels of 64 slots (64 s, ~68 min and ~73 h per level) */
+    private final TimingWheel wheel = new TimingWheel(SECOND, 3 * 3600 * SECOND, 0);
+
+    @Test
+    void entriesCascadeDownAndFireAtTheirOwnTick() {
+        assertTrue(wheel.schedule("level0", 10 * SECOND));
+        assertTrue(wheel.schedule("level1", 100 * SECOND));
+        assertTrue(wheel.schedule("level2", 5000 * SECOND));
+        assertTrue(wheel.schedule("level1-late", 4095 * SECOND));
+
+        assertEquals(Collections.emptyList(), wheel.advance(9 * SECOND));
+        assertEquals(Collections.singletonList("level0"), wheel.advance(10 * SECOND));
+        // level1 moves down to level 0 at tick 64 and must not fire early
+        assertEquals(Collections.emptyList(), wheel.advance(99 * SECOND + 999));
+        assertEquals(Collections.singletonList("level1"), wheel.advance(100 * SECOND));
+        assertEquals(Collections.singletonList("level1-late"), wheel.advance(4095 * SECOND));
+        // level2 moves to level 1 at tick 4096, then to level 0 at tick 4992
+        assertEquals(Collections.emptyList(), wheel.advance(4999 * SECOND));
+        assertEquals(Collections.singletonList("level2"), wheel.advance(5000 * SECOND));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void expiresInOrderWhenAdvancedPastSeveralTicks() {
+        wheel.schedule("c", 300 * SECOND);
+        wheel.schedule("a", 5 * SECOND);
+        wheel.schedule("b", 70 * SECOND);
+
+        assertEquals(Arrays.asList("a", "b", "c"), wheel.advance(400 * SECOND));
+    }
+
+    @Test
+    void rescheduleReplacesTheEarlierTime() {
+        wheel.schedule("sub-1", 10 * SECOND);
+        wheel.schedule("sub-1", 200 * SECOND);
+        assertEquals(1, wheel.size());
+
+        assertEquals(Collections.emptyList(), wheel.advance(199 * SECOND));
+        assertEquals(Collections.singletonList("sub-1"), wheel.advance(200 * SECOND));
+
+        // earlier than before, including into the past: fires on the next advance
+        wheel.schedule("sub-2", 500 * SECOND);
+        wheel.schedule("sub-2", 100 * SECOND);
+        assertEquals(Collections.singletonList("sub-2"), wheel.advance(200 * SECOND));
+    }
+
+    @Test
+    void cancelledIdsDoNotFire() {
+        wheel.schedule("sub-1", 10 * SECOND);
+        wheel.schedule("sub-2", 1000 * SECOND);
+        wheel.cancel("sub-1");
+        wheel.cancel("sub-2");
+        wheel.cancel("unknown");
+
+        assertEquals(0, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.advance(2000 * SECOND));
+    }
+
+    @Test
+    void scheduleBeyondTheRangeIsRefusedAndCancelsTheEarlierTime() {
+        wheel.schedule("sub-1", 10 * SECOND);
+
+        assertFalse(wheel.schedule("sub-1", 300_000 * SECOND));
+
+        assertEquals(0, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.advance(20 * SECOND));
+    }
+}
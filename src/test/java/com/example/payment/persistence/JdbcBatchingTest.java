@@ -0,0 +1,231 @@
+package com.example.payment.persistence;
+
+import com.example.payment.persistence.enums.TransactionType;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Boots Hibernate with the spring.jpa.properties.* of application.yml against H2 and counts what reaches the
+ * driver: N rows of one entity must go out as ceil(N / batch_size) executeBatch calls and no single-row
+ * executeUpdate, also when inserts of orders and transactions are interleaved.
+ */
+public class JdbcBatchingTest {
+
+    private static final String PREFIX = "spring.jpa.properties.";
+
+    private final Map<String, AtomicInteger> batches = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> singles = new ConcurrentHashMap<>();
+    private SessionFactory sessionFactory;
+    private int batchSize;
+
+    @BeforeEach
+    void setUp() {
+        YamlPropertiesFactoryBean yaml = new YamlPropertiesFactoryBean();
+        yaml.setResources(new ClassPathResource("application.yml"));
+        Properties config = yaml.getObject();
+        StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder();
+        for (String key : config.stringPropertyNames()) {
+            if (key.startsWith(PREFIX)) builder.applySetting(key.substring(PREFIX.length()), config.getProperty(key));
+        }
+        batchSize = Integer.parseInt(config.getProperty(PREFIX + AvailableSettings.STATEMENT_BATCH_SIZE));
+        assertTrue(batchSize > 1, "hibernate.jdbc.batch_size is not set in application.yml");
+
+        DataSource h2 = new DriverManagerDataSource("jdbc:h2:mem:batching;DB_CLOSE_DELAY=-1", "sa", "");
+        StandardServiceRegistry registry = builder
+                .applySetting(AvailableSettings.DATASOURCE, counting(h2))
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .build();
+        sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(OrderEntity.class)
+                .addAnnotatedClass(TransactionEntity.class)
+                .buildMetadata()
+                .buildSessionFactory();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    void interleavedInsertsGoOutInBatchesPerTable() {
+        int n = 3 * batchSize + 7;
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < n; i++) {
+                OrderEntity order = order(i);
+                session.persist(order);
+                session.persist(transaction(order));
+            }
+            session.getTransaction().commit();
+        }
+        assertEquals(roundTrips(n), batches("orders"));
+        assertEquals(roundTrips(n), batches("transactions"));
+        assertEquals(0, singles("orders") + singles("transactions"));
+    }
+
+    @Test
+    void versionedUpdatesAreBatched() {
+        int n = 2 * batchSize + 1;
+        List<String> ids = new ArrayList<>();
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < n; i++) {
+                OrderEntity order = order(i);
+                session.persist(order);
+                ids.add(order.getId());
+            }
+            session.getTransaction().commit();
+        }
+        reset();
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (String id : ids) session.get(OrderEntity.class, id).setStatus("CAPTURED");
+            session.getTransaction().commit();
+        }
+        assertEquals(roundTrips(n), batches("orders"));
+        assertEquals(0, singles("orders"));
+    }
+
+    @Test
+    void flushAndClearPerChunkKeepsThePersistenceContextSmall() {
+        int n = 10 * batchSize;
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < n; i++) {
+                session.persist(order(i));
+                if ((i + 1) % batchSize == 0) {
+                    session.flush();
+                    session.clear();
+                    assertEquals(0, session.getStatistics().getEntityCount());
+                }
+            }
+            session.getTransaction().commit();
+        }
+        assertEquals(roundTrips(n), batches("orders"));
+        assertEquals(0, singles("orders"));
+    }
+
+    private int roundTrips(int rows) {
+        return (rows + batchSize - 1) / batchSize;
+    }
+
+    private int batches(String table) {
+        AtomicInteger n = batches.get(table);
+        return n == null ? 0 : n.get();
+    }
+
+    private int singles(String table) {
+        AtomicInteger n = singles.get(table);
+        return n == null ? 0 : n.get();
+    }
+
+    private void reset() {
+        batches.clear();
+        singles.clear();
+    }
+
+    private static OrderEntity order(int i) {
+        OrderEntity o = new OrderEntity();
+        o.setId("ord-" + i);
+        o.setCustomerId("cust-" + (i % 7));
+        o.setAmountCents(1000L + i);
+        o.setCurrency("USD");
+        o.setStatus("PENDING");
+        o.setCreatedAt(Instant.now());
+        o.setUpdatedAt(Instant.now());
+        return o;
+    }
+
+    private static TransactionEntity transaction(OrderEntity order) {
+        TransactionEntity t = new TransactionEntity();
+        t.setId("txn-" + order.getId());
+        t.setOrderId(order.getId());
+        t.setAmountCents(order.getAmountCents());
+        t.setCurrency(order.getCurrency());
+        t.setType(TransactionType.AUTHORIZATION);
+        t.setStatus("PENDING");
+        t.setCreatedAt(Instant.now());
+        t.setUpdatedAt(Instant.now());
+        return t;
+    }
+
+    /** counts executeBatch / executeUpdate per table for INSERT and UPDATE statements */
+    private DataSource counting(DataSource target) {
+        return proxy(DataSource.class, target, (ds, method, args) -> {
+            Object result = invoke(target, method, args);
+            return "getConnection".equals(method.getName()) ? connection((Connection) result) : result;
+        });
+    }
+
+    private Connection connection(Connection target) {
+        return proxy(Connection.class, target, (con, method, args) -> {
+            Object result = invoke(target, method, args);
+            if ("prepareStatement".equals(method.getName())) {
+                String table = table((String) args[0]);
+                if (table != null) return statement((PreparedStatement) result, table);
+            }
+            return result;
+        });
+    }
+
+    private PreparedStatement statement(PreparedStatement target, String table) {
+        return proxy(PreparedStatement.class, target, (ps, method, args) -> {
+            if ("executeBatch".equals(method.getName())) {
+                batches.computeIfAbsent(table, k -> new AtomicInteger()).incrementAndGet();
+            } else if ("executeUpdate".equals(method.getName()) || "execute".equals(method.getName())) {
+                singles.computeIfAbsent(table, k -> new AtomicInteger()).incrementAndGet();
+            }
+            return invoke(target, method, args);
+        });
+    }
+
+    private static String table(String sql) {
+        String s = sql.trim().toLowerCase();
+        String[] words = s.split("\\s+");
+        if (s.startsWith("insert into ") && words.length > 2) return words[2].replace("(", "");
+        if (s.startsWith("update ") && words.length > 1) return words[1];
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(JdbcBatchingTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
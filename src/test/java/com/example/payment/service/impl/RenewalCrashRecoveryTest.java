@@ -0,0 +1,186 @@
+package com.example.payment.service.impl;
+
+import com.example.payment.gateway.mapper.AuthorizeNetRequest;
+import com.example.payment.gateway.mapper.AuthorizeNetResponse;
+import com.example.payment.persistence.SubscriptionEntity;
+import com.example.payment.persistence.SubscriptionRepository;
+import com.example.payment.persistence.TransactionEntity;
+import com.example.payment.persistence.TransactionRepository;
+import com.example.payment.service.PaymentService;
+import com.example.payment.service.SubscriptionService;
+import com.example.payment.service.SubscriptionService.ChargeOutcome;
+import com.example.payment.service.SubscriptionService.ChargeResult;
+import com.example.payment.service.SubscriptionService.RenewalChunk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A renewal worker charges a cycle and dies before {@code recordCharges} commits: the cycle transaction is left
+ * PENDING. Whoever claims the subscription next must not charge it again. A gateway call without a definite
+ * outcome is treated the same way, and an authorization that was not captured is voided.
+ */
+public class RenewalCrashRecoveryTest {
+
+    private static final Instant DUE = Instant.parse("2026-01-01T00:00:00Z");
+
+    private SubscriptionRepository subscriptions;
+    private TransactionRepository transactions;
+    private JdbcTemplate jdbcTemplate;
+    private PaymentService gateway;
+    private SubscriptionServiceImpl service;
+    private SubscriptionEntity sub;
+
+    @BeforeEach
+    void setUp() {
+        subscriptions = mock(SubscriptionRepository.class);
+        transactions = mock(TransactionRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        gateway = mock(PaymentService.class);
+        service = new SubscriptionServiceImpl(subscriptions, transactions, jdbcTemplate, gateway, new DunningPolicy("1d,3d,7d", "UNPAID"));
+
+        sub = new SubscriptionEntity();
+        sub.setId("sub-1");
+        sub.setCustomerId("cust-1");
+        sub.setStatus("ACTIVE");
+        sub.setAmountCents(1999L);
+        sub.setCurrency("USD");
+        sub.setIntervalDays(30);
+        sub.setNextBillingAt(DUE);
+        when(subscriptions.findAllById(any())).thenReturn(Collections.singletonList(sub));
+        when(subscriptions.findById("sub-1")).thenReturn(Optional.of(sub));
+
+        AuthorizeNetResponse ok = new AuthorizeNetResponse();
+        ok.setSuccess(true);
+        ok.setTransactionId("60001");
+        when(gateway.authorize(any(AuthorizeNetRequest.class))).thenReturn(ok);
+        when(gateway.capture(anyString())).thenReturn(ok);
+    }
+
+    @Test
+    void cycleChargedBeforeACrashIsParkedNotChargedAgain() {
+        String key = SubscriptionService.cycleKey(sub);
+
+        // first run: opens the cycle and charges it, then the JVM dies before recordCharges
+        sub.setRenewalClaimedBy("run-1/a");
+        when(transactions.findByBillingCycleKeyIn(any())).thenReturn(Collections.<TransactionEntity>emptyList());
+        List<SubscriptionEntity> toCharge = service.openCycles("run-1/a", Collections.singletonList("sub-1"));
+        assertEquals(1, toCharge.size());
+        ChargeResult charged = service.charge(toCharge.get(0));
+        assertTrue(charged.isSuccess());
+        verify(jdbcTemplate).batchUpdate(eq(SubscriptionServiceImpl.INSERT_INTENT_SQL), anyList());
+
+        // the claim lease runs out and another run claims the subscription; the cycle transaction is PENDING
+        sub.setRenewalClaimedBy("run-2/b");
+        when(transactions.findByBillingCycleKeyIn(any())).thenReturn(Collections.singletonList(cycleTransaction(key, "PENDING")));
+        assertTrue(service.openCycles("run-2/b", Collections.singletonList("sub-1")).isEmpty());
+
+        verify(gateway, times(1)).authorize(any(AuthorizeNetRequest.class));
+        verify(jdbcTemplate).batchUpdate(eq(SubscriptionServiceImpl.PARK_INTENT_SQL), anyList());
+        assertEquals(SubscriptionService.BILLING_REVIEW, sub.getStatus());
+        assertNull(sub.getRenewalClaimedBy());
+        assertEquals(DUE, sub.getNextBillingAt());
+    }
+
+    @Test
+    void authorizationTimeoutIsUnknownAndParked() {
+        when(gateway.authorize(any(AuthorizeNetRequest.class))).thenThrow(new RuntimeException("Read timed out"));
+        sub.setRenewalClaimedBy("run-1/a");
+
+        ChargeResult r = service.charge(sub);
+        assertEquals(ChargeOutcome.UNKNOWN, r.getOutcome());
+
+        RenewalChunk chunk = service.recordCharges("run-1/a", Collections.singletonList(r));
+        assertEquals(Collections.singletonList("sub-1"), chunk.getParkedIds());
+        assertTrue(chunk.getFailedIds().isEmpty());
+        verify(jdbcTemplate).batchUpdate(eq(SubscriptionServiceImpl.PARK_INTENT_SQL), anyList());
+        verify(jdbcTemplate, never()).batchUpdate(eq(SubscriptionServiceImpl.FAIL_INTENT_SQL), anyList());
+        assertEquals(SubscriptionService.BILLING_REVIEW, sub.getStatus());
+        assertNull(sub.getPastDueSince());
+    }
+
+    @Test
+    void declinedCaptureVoidsTheAuthorization() {
+        AuthorizeNetResponse declined = new AuthorizeNetResponse();
+        declined.setSuccess(false);
+        declined.setMessage("declined");
+        when(gateway.capture("60001")).thenReturn(declined);
+        when(gateway.voidTransaction("60001")).thenReturn(voided());
+
+        ChargeResult r = service.charge(sub);
+
+        assertEquals(ChargeOutcome.DECLINED, r.getOutcome());
+        verify(gateway).voidTransaction("60001");
+    }
+
+    @Test
+    void captureTimeoutIsDeclinedOnlyOnceTheAuthorizationIsVoided() {
+        when(gateway.capture("60001")).thenThrow(new RuntimeException("Read timed out"));
+        when(gateway.voidTransaction("60001")).thenReturn(voided());
+        assertEquals(ChargeOutcome.DECLINED, service.charge(sub).getOutcome());
+
+        when(gateway.voidTransaction("60001")).thenThrow(new RuntimeException("Read timed out"));
+        assertEquals(ChargeOutcome.UNKNOWN, service.charge(sub).getOutcome());
+    }
+
+    @Test
+    void resolvingAsChargedCompletesTheCycleAndAdvances() {
+        sub.setStatus(SubscriptionService.BILLING_REVIEW);
+        String key = SubscriptionService.cycleKey(sub);
+
+        service.resolveCycle("sub-1", true, "60001");
+
+        verify(jdbcTemplate).update(eq(SubscriptionServiceImpl.COMPLETE_INTENT_SQL), eq("60001"), any(), any(), eq(key));
+        assertEquals("ACTIVE", sub.getStatus());
+        assertEquals(DUE.plus(30, ChronoUnit.DAYS), sub.getNextBillingAt());
+    }
+
+    @Test
+    void resolvingAsNotChargedReleasesTheCycleForTheNextRun() {
+        sub.setStatus(SubscriptionService.BILLING_REVIEW);
+        String key = SubscriptionService.cycleKey(sub);
+
+        service.resolveCycle("sub-1", false, null);
+
+        verify(jdbcTemplate).update(eq(SubscriptionServiceImpl.FAIL_INTENT_SQL), any(), any(), any(), eq(key));
+        assertEquals("ACTIVE", sub.getStatus());
+        assertEquals(DUE, sub.getNextBillingAt());
+        assertThrows(IllegalStateException.class, () -> service.resolveCycle("sub-1", true, "60001"));
+    }
+
+    private static AuthorizeNetResponse voided() {
+        AuthorizeNetResponse v = new AuthorizeNetResponse();
+        v.setSuccess(true);
+        v.setTransactionId("60001");
+        return v;
+    }
+
+    private static TransactionEntity cycleTransaction(String key, String status) {
+        TransactionEntity t = new TransactionEntity();
+        t.setId("txn-1");
+        t.setOrderId("sub-1");
+        t.setStatus(status);
+        t.setBillingCycleKey(key);
+        return t;
+    }
+}
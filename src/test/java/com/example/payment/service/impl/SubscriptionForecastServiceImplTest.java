@@ -0,0 +1,36 @@
+package com.example.payment.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SubscriptionForecastServiceImplTest {
+
+    @Test
+    void cyclesInsideTheWindow() {
+        assertEquals(1, SubscriptionForecastServiceImpl.cycles(0, 30, 30));
+        assertEquals(2, SubscriptionForecastServiceImpl.cycles(0, 30, 31));
+        assertEquals(1, SubscriptionForecastServiceImpl.cycles(29, 30, 30));
+        assertEquals(0, SubscriptionForecastServiceImpl.cycles(30, 30, 30));
+        assertEquals(13, SubscriptionForecastServiceImpl.cycles(5, 7, 90));
+        assertEquals(1, SubscriptionForecastServiceImpl.cycles(3, 0, 30));
+    }
+
+    @Test
+    void missingIntervalRenewsEveryThirtyDays() {
+        assertEquals(SubscriptionForecastServiceImpl.cycles(10, 30, 90), SubscriptionForecastServiceImpl.cycles(10, null, 90));
+        assertEquals(3, SubscriptionForecastServiceImpl.cycles(10, null, 90));
+        assertEquals(0, SubscriptionForecastServiceImpl.cycles(90, null, 90));
+    }
+
+    @Test
+    void overdueCyclesContinueFromTheMissedBillingDate() {
+        // billed today, then 30 days after the missed date: day 25
+        assertEquals(2, SubscriptionForecastServiceImpl.cycles(-5, 30, 30));
+        assertEquals(1, SubscriptionForecastServiceImpl.cycles(-5, 30, 25));
+        // billed today; -10 is still overdue and billed by the next run; then day 20
+        assertEquals(3, SubscriptionForecastServiceImpl.cycles(-40, 30, 30));
+        assertEquals(2, SubscriptionForecastServiceImpl.cycles(-5, null, 30));
+        assertEquals(1, SubscriptionForecastServiceImpl.cycles(-5, 0, 30));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.payment.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Parsing and validation of import rows; inserting them is plain JDBC batching.
+ */
+public class SubscriptionImportServiceImplTest {
+
+    private final SubscriptionImportServiceImpl service = new SubscriptionImportServiceImpl(
+            mock(JdbcTemplate.class), mock(PlatformTransactionManager.class), 500, 1000, false);
+
+    @Test
+    void splitCsvHandlesQuotingAndEmptyFields() {
+        assertEquals(Arrays.asList("a", "b", "c"), SubscriptionImportServiceImpl.splitCsv("a,b,c"));
+        assertEquals(Arrays.asList("a", "", "", "d", ""), SubscriptionImportServiceImpl.splitCsv("a,,,d,"));
+        assertEquals(Collections.singletonList(""), SubscriptionImportServiceImpl.splitCsv(""));
+        assertEquals(Arrays.asList("Acme, Inc.", "say \"hi\"", ""), SubscriptionImportServiceImpl.splitCsv("\"Acme, Inc.\",\"say \"\"hi\"\"\",\"\""));
+        assertEquals(Arrays.asList("a", "b"), SubscriptionImportServiceImpl.splitCsv("a,b\r"));
+        assertThrows(IllegalArgumentException.class, () -> SubscriptionImportServiceImpl.splitCsv("a,\"b,c"));
+    }
+
+    @Test
+    void toRowAppliesDefaults() {
+        Instant before = Instant.now();
+        SubscriptionImportServiceImpl.Row row = service.toRow(7, fields("customerid", "cus-1", "amountcents", "1999", "currency", "usd"));
+
+        assertEquals(7, row.line);
+        assertNotNull(row.id);
+        assertEquals(row.id, row.args[0]);
+        assertEquals("cus-1", row.args[1]);
+        assertNull(row.args[2]);
+        assertEquals(1999L, row.args[3]);
+        assertEquals("USD", row.args[4]);
+        assertEquals(30, row.args[5]);
+        Duration untilNext = Duration.between(before, row.nextBillingAt);
+        assertTrue(!untilNext.minusDays(30).isNegative() && untilNext.minusDays(30).getSeconds() < 60, untilNext.toString());
+        assertEquals(Timestamp.from(row.nextBillingAt), row.args[6]);
+    }
+
+    @Test
+    void toRowKeepsGivenValues() {
+        SubscriptionImportServiceImpl.Row row = service.toRow(1, fields("id", "sub-1", "customerid", "cus-1", "planid", "gold",
+                "amountcents", "500", "currency", "EUR", "intervaldays", "3660", "nextbillingat", "2027-01-01T00:00:00Z"));
+
+        assertEquals("sub-1", row.id);
+        assertEquals("gold", row.args[2]);
+        assertEquals(3660, row.args[5]);
+        assertEquals(Instant.parse("2027-01-01T00:00:00Z"), row.nextBillingAt);
+    }
+
+    @Test
+    void toRowRejectsIntervalsOutOfRangeBeforeNarrowing() {
+        // 2^32 + 1 would be 1 after a cast to int
+        assertRejected("intervalDays must be between 1 and 3660", "intervaldays", "4294967297");
+        assertRejected("intervalDays must be between 1 and 3660", "intervaldays", "-4294967295");
+        assertRejected("intervalDays must be between 1 and 3660", "intervaldays", "0");
+        assertRejected("intervalDays must be between 1 and 3660", "intervaldays", "3661");
+        assertRejected("intervalDays must be an integer", "intervaldays", "30d");
+    }
+
+    @Test
+    void toRowRejectsInvalidFields() {
+        assertRejected("customerId is required", "customerid", " ");
+        assertRejected("amountCents is required", "amountcents", "");
+        assertRejected("amountCents must be positive", "amountcents", "0");
+        assertRejected("amountCents must be an integer", "amountcents", "19.99");
+        assertRejected("currency must be a 3-letter code", "currency", "US");
+        assertRejected("nextBillingAt must be an ISO-8601 instant", "nextbillingat", "2027-01-01");
+        char[] longId = new char[256];
+        Arrays.fill(longId, 'x');
+        assertRejected("id is longer than 255 characters", "id", new String(longId));
+    }
+
+    @Test
+    void toRowRequiresUuidIdsWhenKeysAreNativeUuids() {
+        SubscriptionImportServiceImpl uuidOnly = new SubscriptionImportServiceImpl(
+                mock(JdbcTemplate.class), mock(PlatformTransactionManager.class), 500, 1000, true);
+        Map<String, String> f = fields("customerid", "cus-1", "amountcents", "1999", "currency", "USD");
+
+        f.put("id", "0190B2A4-3C5D-7E6F-8A9B-0C1D2E3F4A5B");
+        assertEquals("0190B2A4-3C5D-7E6F-8A9B-0C1D2E3F4A5B", uuidOnly.toRow(1, f).id);
+        f.remove("id");
+        assertNotNull(uuidOnly.toRow(1, f).id);
+        f.put("id", "legacy-42");
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> uuidOnly.toRow(1, f));
+        assertEquals("id must be a UUID", ex.getMessage());
+        assertEquals("legacy-42", service.toRow(1, f).id);
+    }
+
+    private void assertRejected(String message, String field, String value) {
+        Map<String, String> f = fields("customerid", "cus-1", "amountcents", "1999", "currency", "USD");
+        f.put(field, value);
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> service.toRow(1, f));
+        assertEquals(message, ex.getMessage());
+    }
+
+    private static Map<String, String> fields(String... keyValues) {
+        Map<String, String> f = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) f.put(keyValues[i], keyValues[i + 1]);
+        return f;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.payment.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput and resulting table + primary-key size for random (v4) and time-ordered (v7, see
+ * {@link TimeOrderedIds}) ids, stored as VARCHAR(64) like today's tables or in 16 bytes (BINARY(16) on H2,
+ * uuid on PostgreSQL). Every invocation inserts one JDBC batch into a table that was filled with
+ * {@code preload} rows first, so the primary-key B-tree is deeper than the buffer cache likes; the sizes are
+ * printed at the end of each trial.
+ *
+ * Runs against an H2 file database by default; pass {@code -Dbench.jdbc.url=jdbc:postgresql://...}
+ * (with bench.jdbc.user / bench.jdbc.password) to measure PostgreSQL.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.payment.util.PrimaryKeyInsertBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrimaryKeyInsertBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({"random", "uuid7"})
+    public String ids;
+
+    @Param({"varchar", "binary"})
+    public String storage;
+
+    @Param({"200000"})
+    public int preload;
+
+    private Connection connection;
+    private PreparedStatement insert;
+    private boolean postgres;
+    private long inserted;
+
+    @Setup
+    public void setUp() throws Exception {
+        String url = System.getProperty("bench.jdbc.url");
+        if (url == null) {
+            url = "jdbc:h2:file:" + Files.createTempDirectory("pk-bench").resolve("bench") + ";DB_CLOSE_ON_EXIT=FALSE";
+        }
+        connection = DriverManager.getConnection(url, System.getProperty("bench.jdbc.user", "sa"),
+                System.getProperty("bench.jdbc.password", ""));
+        postgres = url.startsWith("jdbc:postgresql:");
+        String idType = "varchar".equals(storage) ? "VARCHAR(64)" : postgres ? "uuid" : "BINARY(16)";
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS bench_ids");
+            st.execute("CREATE TABLE bench_ids (id " + idType + " PRIMARY KEY, amount_cents BIGINT, created_at TIMESTAMP)");
+        }
+        connection.setAutoCommit(false);
+        insert = connection.prepareStatement("INSERT INTO bench_ids (id, amount_cents, created_at) VALUES (?, ?, ?)");
+        for (int i = 0; i < preload; i += BATCH) insertBatch();
+        inserted = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatch() throws Exception {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (int i = 0; i < BATCH; i++) {
+            UUID id = "uuid7".equals(ids) ? TimeOrderedIds.nextUuid() : UUID.randomUUID();
+            if ("varchar".equals(storage)) insert.setString(1, id.toString());
+            else if (postgres) insert.setObject(1, id);
+            else insert.setBytes(1, TimeOrderedIds.toBytes(id.toString()));
+            insert.setLong(2, 4999);
+            insert.setTimestamp(3, now);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+        inserted += BATCH;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        String sizeSql = postgres
+                ? "SELECT pg_relation_size('bench_ids'), pg_relation_size('bench_ids_pkey')"
+                : "SELECT DISK_SPACE_USED('BENCH_IDS'), NULL";
+        try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(sizeSql)) {
+            if (rs.next()) {
+                System.out.printf("%n[%s/%s] rows=%d table=%d bytes primaryKey=%s bytes%n", ids, storage, preload + inserted,
+                        rs.getLong(1), postgres ? String.valueOf(rs.getLong(2)) : "(included in table on H2)");
+            }
+        }
+        insert.close();
+        connection.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PrimaryKeyInsertBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
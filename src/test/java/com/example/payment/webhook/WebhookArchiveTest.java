@@ -0,0 +1,143 @@
+package com.example.payment.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Archives events from a migrated H2 database into a temporary directory and reads them back through
+ * {@link WebhookArchive#find}: payloads stored as gzip and as identity must come back unchanged, and PROCESSED and
+ * DEAD_LETTER events must each leave the database only after their own retention. A node that cannot see the
+ * segments must say so instead of failing with a bare I/O error, and must not archive further.
+ */
+public class WebhookArchiveTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private JdbcTemplate jdbc;
+    private WebhookArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:archive-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        Flyway.configure().dataSource(dataSource).locations("classpath:db/migration").load().migrate();
+        jdbc = new JdbcTemplate(dataSource);
+        // 30 days for processed events, 90 for dead letters, two rows per batch to cover several batches in a run
+        archive = new WebhookArchive(jdbc, new DataSourceTransactionManager(dataSource), new SimpleMeterRegistry(),
+                dir.toString(), true, 30, 90, 2, 10);
+    }
+
+    @Test
+    void archivedPayloadsReadBackUnchanged() throws Exception {
+        String small = "{\"eventType\":\"net.authorize.payment.void.created\"}";
+        StringBuilder large = new StringBuilder("{\"payload\":[");
+        for (int i = 0; i < 100; i++) large.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"responseCode\":1}");
+        String largePayload = large.append("]}").toString();
+        insert("small", "PROCESSED", daysAgo(40), small);
+        insert("large", "PROCESSED", daysAgo(41), largePayload);
+        insert("empty", "PROCESSED", daysAgo(42), null);
+        assertEquals(PayloadCodec.IDENTITY, jdbc.queryForObject("SELECT encoding FROM webhook_payloads WHERE event_id = 'small'", String.class));
+        assertEquals(PayloadCodec.GZIP, jdbc.queryForObject("SELECT encoding FROM webhook_payloads WHERE event_id = 'large'", String.class));
+
+        archive.run();
+
+        JsonNode smallEvent = archived("small");
+        assertEquals(small, smallEvent.get("payload").asText());
+        assertEquals("PROCESSED", smallEvent.get("status").asText());
+        assertEquals("authorize-net", smallEvent.get("source").asText());
+        assertEquals(largePayload, archived("large").get("payload").asText());
+        assertTrue(archived("empty").get("payload").isNull());
+        assertEquals(0, count("webhook_events"));
+        assertEquals(0, count("webhook_payloads"));
+        assertEquals(3, count("webhook_archive_index"));
+        assertFalse(archive.find("unknown").isPresent());
+    }
+
+    @Test
+    void deadLettersAreKeptForTheirOwnRetention() throws Exception {
+        insert("processed-old", "PROCESSED", daysAgo(31), "{\"n\":1}");
+        insert("processed-recent", "PROCESSED", daysAgo(29), "{\"n\":2}");
+        insert("dead-replayable", "DEAD_LETTER", daysAgo(60), "{\"n\":3}");
+        insert("dead-old", "DEAD_LETTER", daysAgo(91), "{\"n\":4}");
+        insert("failed-old", "FAILED", daysAgo(200), "{\"n\":5}");
+
+        archive.run();
+
+        assertEquals("{\"n\":1}", archived("processed-old").get("payload").asText());
+        JsonNode dead = archived("dead-old");
+        assertEquals("DEAD_LETTER", dead.get("status").asText());
+        assertEquals("{\"n\":4}", dead.get("payload").asText());
+        List<String> remaining = jdbc.queryForList("SELECT id FROM webhook_events ORDER BY id", String.class);
+        assertEquals(Arrays.asList("dead-replayable", "failed-old", "processed-recent"), remaining);
+        assertFalse(archive.find("dead-replayable").isPresent());
+    }
+
+    @Test
+    void segmentsMissingOnThisNodeAreReportedAndStopArchiving() throws Exception {
+        insert("archived-elsewhere", "PROCESSED", daysAgo(40), "{\"n\":1}");
+        archive.run();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*.seg")) {
+            for (Path segment : segments) Files.delete(segment);
+        }
+
+        WebhookArchive.SegmentUnavailableException ex = assertThrows(WebhookArchive.SegmentUnavailableException.class,
+                () -> archive.find("archived-elsewhere"));
+        assertTrue(ex.getMessage().contains("archived-elsewhere"), ex.getMessage());
+
+        // this node's directory is not the one the last run wrote to: nothing is deleted from the database
+        insert("still-hot", "PROCESSED", daysAgo(40), "{\"n\":2}");
+        archive.run();
+        assertEquals(1, count("webhook_events"));
+        assertEquals(1, count("webhook_payloads"));
+    }
+
+    private JsonNode archived(String id) throws Exception {
+        Optional<String> json = archive.find(id);
+        assertTrue(json.isPresent(), id + " was not archived");
+        return MAPPER.readTree(json.get());
+    }
+
+    private void insert(String id, String status, Instant receivedAt, String payload) {
+        jdbc.update("INSERT INTO webhook_events (id, source, status, received_at) VALUES (?, 'authorize-net', ?, ?)",
+                id, status, Timestamp.from(receivedAt));
+        PayloadCodec.Encoded encoded = PayloadCodec.encode(payload);
+        if (encoded == null) return;
+        jdbc.update("INSERT INTO webhook_payloads (event_id, encoding, size_bytes, payload) VALUES (?, ?, ?, ?)",
+                id, encoded.getEncoding(), encoded.getRawLength(), encoded.getBytes());
+    }
+
+    private int count(String table) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private static Instant daysAgo(int days) {
+        return Instant.now().minus(days, ChronoUnit.DAYS);
+    }
+}
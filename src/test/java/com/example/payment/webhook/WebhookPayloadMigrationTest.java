@@ -0,0 +1,82 @@
+package com.example.payment.webhook;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.configuration.FluentConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Migrates an H2 database to V11, inserts events with the old inline payload column, then runs the Java migration
+ * V12__MoveWebhookPayloads and V13 and checks that every payload reads back unchanged from webhook_payloads, small
+ * ones stored as identity and large ones gzip-compressed.
+ */
+public class WebhookPayloadMigrationTest {
+
+    private DataSource dataSource;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:v12-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(dataSource);
+        flyway("11").migrate();
+    }
+
+    @Test
+    void payloadsAreMovedAndReadBackUnchanged() {
+        String small = "{\"eventType\":\"net.authorize.payment.authcapture.created\"}";
+        StringBuilder large = new StringBuilder("{\"payload\":[");
+        for (int i = 0; i < 100; i++) large.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"responseCode\":1}");
+        large.append("]}");
+        insertEvent("small", small);
+        insertEvent("large", large.toString());
+        insertEvent("none", null);
+
+        flyway(null).migrate();
+
+        assertPayload("small", PayloadCodec.IDENTITY, small);
+        assertPayload("large", PayloadCodec.GZIP, large.toString());
+        assertEquals(0, count("SELECT COUNT(*) FROM webhook_payloads WHERE event_id = 'none'"));
+        assertEquals(3, count("SELECT COUNT(*) FROM webhook_events"));
+        assertEquals(0, count("SELECT COUNT(*) FROM information_schema.columns "
+                + "WHERE UPPER(table_name) = 'WEBHOOK_EVENTS' AND UPPER(column_name) = 'PAYLOAD'"));
+    }
+
+    private Flyway flyway(String target) {
+        FluentConfiguration config = Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration");
+        return (target == null ? config : config.target(target)).load();
+    }
+
+    private void insertEvent(String id, String payload) {
+        jdbc.update("INSERT INTO webhook_events (id, source, payload, status, received_at) VALUES (?, 'authorize-net', ?, 'PROCESSED', CURRENT_TIMESTAMP)",
+                id, payload);
+    }
+
+    private void assertPayload(String id, String encoding, String expected) {
+        List<Map<String, Object>> rows = jdbc.queryForList("SELECT encoding, size_bytes, payload FROM webhook_payloads WHERE event_id = ?", id);
+        assertEquals(1, rows.size());
+        Map<String, Object> row = rows.get(0);
+        byte[] stored = (byte[]) row.get("payload");
+        assertEquals(encoding, row.get("encoding"));
+        assertEquals(expected.length(), ((Number) row.get("size_bytes")).intValue());
+        assertEquals(expected, PayloadCodec.decode((String) row.get("encoding"), stored));
+        if (PayloadCodec.IDENTITY.equals(encoding)) assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), stored);
+    }
+
+    private int count(String sql) {
+        return jdbc.queryForObject(sql, Integer.class);
+    }
+}
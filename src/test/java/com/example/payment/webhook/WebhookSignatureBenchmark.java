@@ -0,0 +1,104 @@
+package com.example.payment.webhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifications per second of {@link WebhookSignatureVerifier} against the previous implementation
+ * (key decode, {@code Mac.getInstance} and {@code init} per call, HMAC over the re-encoded String).
+ * Run with {@code -prof gc} to compare allocation per operation as well.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.payment.webhook.WebhookSignatureBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class WebhookSignatureBenchmark {
+
+    private static final String KEY = "FD5E029A9561CF54CCB14075AA22DC5257591D0BA9C01C3BE57E993E42833C3B37165E089EBBDA5576FC63A9FD8D6FB25178CF18BCC9434D3EF04C08BF890BA0";
+    private static final String PAYLOAD = "{\"notificationId\":\"d0e8e7fe-c3e7-4add-a480-27bc5ce28a2c\",\"eventType\":\"net.authorize.payment.authcapture.created\","
+            + "\"eventDate\":\"2024-03-01T16:02:45.0Z\",\"webhookId\":\"63d6fea2-aa13-4b1d-a204-f5fbc15942b7\",\"payload\":{\"responseCode\":1,"
+            + "\"authCode\":\"LZ6I19\",\"avsResponse\":\"Y\",\"authAmount\":45.00,\"entityName\":\"transaction\",\"id\":\"60020981676\"}}";
+
+    private WebhookSignatureVerifier verifier;
+    private byte[] body;
+    private String header;
+
+    @Setup
+    public void setUp() throws Exception {
+        verifier = new WebhookSignatureVerifier(KEY, "");
+        body = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+        header = "SHA512=" + hmacHex(body);
+        if (!verifier.verify(body, header) || !legacyVerify(PAYLOAD, header)) {
+            throw new IllegalStateException("benchmark signature does not verify");
+        }
+    }
+
+    @Benchmark
+    public boolean cachedMacOnBytes() {
+        return verifier.verify(body, header);
+    }
+
+    @Benchmark
+    public boolean legacyPerRequestMac() {
+        return legacyVerify(new String(body, StandardCharsets.UTF_8), header);
+    }
+
+    private static boolean legacyVerify(String payload, String headerSignature) {
+        try {
+            String hs = headerSignature.trim();
+            int eq = hs.indexOf('=');
+            String sigHex = hs.substring(eq + 1);
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(decode(KEY), "HmacSHA512"));
+            byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            return MessageDigest.isEqual(digest, decode(sigHex));
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    private static String hmacHex(byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(new SecretKeySpec(decode(KEY), "HmacSHA512"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : mac.doFinal(data)) sb.append(String.format("%02X", b));
+        return sb.toString();
+    }
+
+    private static byte[] decode(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(WebhookSignatureBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
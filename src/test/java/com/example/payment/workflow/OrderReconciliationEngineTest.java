@@ -0,0 +1,184 @@
+package com.example.payment.workflow;
+
+import com.example.payment.persistence.OrderEntity;
+import com.example.payment.persistence.OrderRepository;
+import com.example.payment.persistence.TransactionEntity;
+import com.example.payment.persistence.TransactionRepository;
+import com.example.payment.persistence.enums.TransactionType;
+import com.example.payment.webhook.WebhookNotificationFields;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The transition table applied to one order: which notifications move it, which are ignored, and how refunds
+ * are matched and summed.
+ */
+public class OrderReconciliationEngineTest {
+
+    private final List<TransactionEntity> stored = new ArrayList<>();
+    private OrderEntity order;
+    private OrderReconciliationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        order = new OrderEntity();
+        order.setId("o-1");
+        order.setAmountCents(5000L);
+        order.setCurrency("USD");
+
+        OrderRepository orders = mock(OrderRepository.class);
+        TransactionRepository transactions = mock(TransactionRepository.class);
+        when(orders.findAllById(any())).thenReturn(Collections.singletonList(order));
+        when(transactions.findByGatewayTransactionIdIn(any())).thenAnswer(inv -> {
+            Collection<String> ids = inv.getArgument(0);
+            List<TransactionEntity> found = new ArrayList<>();
+            for (TransactionEntity t : stored) if (ids.contains(t.getGatewayTransactionId())) found.add(t);
+            return found;
+        });
+        when(transactions.findByOrderIdIn(any())).thenAnswer(inv -> {
+            Collection<String> ids = inv.getArgument(0);
+            List<TransactionEntity> found = new ArrayList<>();
+            for (TransactionEntity t : stored) if (ids.contains(t.getOrderId())) found.add(t);
+            return found;
+        });
+        when(transactions.saveAll(any())).thenAnswer(inv -> {
+            Iterable<TransactionEntity> saved = inv.getArgument(0);
+            for (TransactionEntity t : saved) stored.add(t);
+            return saved;
+        });
+
+        engine = new OrderReconciliationEngine(orders, transactions, mock(PlatformTransactionManager.class),
+                new SimpleMeterRegistry(), 10, 0, 100);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        engine.stop();
+    }
+
+    @Test
+    void captureMovesAnAuthorizedOrderForwardOnce() throws Exception {
+        order.setStatus("AUTHORIZED");
+        stored.add(transaction("t-1", TransactionType.AUTHORIZATION, 5000L));
+
+        apply(notification("net.authorize.payment.priorAuthCapture.created", "t-1", null, 1, "50.00"));
+        apply(notification("net.authorize.payment.priorAuthCapture.created", "t-1", null, 1, "50.00"));
+
+        assertEquals("CAPTURED", order.getStatus());
+        assertEquals(1, count(TransactionType.CAPTURE));
+    }
+
+    @Test
+    void lateAuthorizationDoesNotUndoACapture() throws Exception {
+        order.setStatus("CAPTURED");
+        stored.add(transaction("t-1", TransactionType.CAPTURE, 5000L));
+
+        apply(notification("net.authorize.payment.authorization.created", "t-1", null, 1, "50.00"));
+
+        assertEquals("CAPTURED", order.getStatus());
+        assertEquals(0, count(TransactionType.AUTHORIZATION));
+    }
+
+    @Test
+    void declinedResponseFailsAPendingOrderAndHeldForReviewWaits() throws Exception {
+        order.setStatus("PENDING");
+        stored.add(transaction("t-1", TransactionType.AUTHORIZATION, 5000L));
+
+        apply(notification("net.authorize.payment.authcapture.created", "t-1", null, 4, "50.00"));
+        assertEquals("PENDING", order.getStatus());
+
+        apply(notification("net.authorize.payment.authcapture.created", "t-1", null, 2, "50.00"));
+        assertEquals("FAILED", order.getStatus());
+        assertEquals(0, count(TransactionType.CAPTURE));
+    }
+
+    @Test
+    void refundsAreMatchedThroughTheRefundedTransactionAndSummed() throws Exception {
+        order.setStatus("CAPTURED");
+        stored.add(transaction("t-1", TransactionType.CAPTURE, 5000L));
+
+        // partial: recorded, but the order stays CAPTURED; a redelivery is not recorded twice
+        apply(notification("net.authorize.payment.refund.created", "r-1", "t-1", 1, "20.00"));
+        apply(notification("net.authorize.payment.refund.created", "r-1", "t-1", 1, "20.00"));
+        assertEquals("CAPTURED", order.getStatus());
+        assertEquals(1, count(TransactionType.REFUND));
+        assertEquals(2000L, refunded());
+
+        // the rest: now the order is refunded
+        apply(notification("net.authorize.payment.refund.created", "r-2", "t-1", 1, "30.00"));
+        assertEquals("REFUNDED", order.getStatus());
+        assertEquals(2, count(TransactionType.REFUND));
+        assertEquals(5000L, refunded());
+    }
+
+    @Test
+    void refundWeIssuedIsNotRecordedAgain() throws Exception {
+        order.setStatus("CAPTURED");
+        stored.add(transaction("t-1", TransactionType.CAPTURE, 5000L));
+        stored.add(transaction("r-1", TransactionType.REFUND, 5000L));
+
+        apply(notification("net.authorize.payment.refund.created", "r-1", null, 1, "50.00"));
+
+        assertEquals("REFUNDED", order.getStatus());
+        assertEquals(1, count(TransactionType.REFUND));
+    }
+
+    @Test
+    void refundOfAnUnknownTransactionIsSkipped() throws Exception {
+        order.setStatus("CAPTURED");
+        stored.add(transaction("t-1", TransactionType.CAPTURE, 5000L));
+
+        apply(notification("net.authorize.payment.refund.created", "r-9", "t-9", 1, "50.00"));
+
+        assertEquals("CAPTURED", order.getStatus());
+        assertEquals(0, count(TransactionType.REFUND));
+    }
+
+    private void apply(WebhookNotificationFields fields) throws Exception {
+        engine.submit("wh-" + fields.getEntityId(), fields).get(5, TimeUnit.SECONDS);
+    }
+
+    private long count(TransactionType type) {
+        long n = 0;
+        for (TransactionEntity t : stored) if (t.getType() == type) n++;
+        return n;
+    }
+
+    private long refunded() {
+        long cents = 0;
+        for (TransactionEntity t : stored) if (t.getType() == TransactionType.REFUND) cents += t.getAmountCents();
+        return cents;
+    }
+
+    private static TransactionEntity transaction(String transId, TransactionType type, Long cents) {
+        TransactionEntity t = new TransactionEntity();
+        t.setId("id-" + transId);
+        t.setOrderId("o-1");
+        t.setType(type);
+        t.setAmountCents(cents);
+        t.setGatewayTransactionId(transId);
+        return t;
+    }
+
+    private static WebhookNotificationFields notification(String eventType, String transId, String refTransId,
+                                                          int responseCode, String amount) {
+        return WebhookNotificationFields.parse("{\"notificationId\":\"n-" + transId + "\",\"eventType\":\"" + eventType + "\","
+                + "\"payload\":{\"responseCode\":" + responseCode + ",\"authAmount\":" + amount + ",\"entityName\":\"transaction\","
+                + "\"id\":\"" + transId + "\"" + (refTransId == null ? "" : ",\"refTransId\":\"" + refTransId + "\"") + "}}");
+    }
+}